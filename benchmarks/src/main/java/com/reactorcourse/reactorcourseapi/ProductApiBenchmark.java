@@ -0,0 +1,141 @@
+package com.reactorcourse.reactorcourseapi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactorcourse.reactorcourseapi.bulk.BulkProductLoader;
+import com.reactorcourse.reactorcourseapi.controller.ProductController;
+import com.reactorcourse.reactorcourseapi.event.ProductEventBus;
+import com.reactorcourse.reactorcourseapi.export.ProductExporter;
+import com.reactorcourse.reactorcourseapi.handler.ProductHandler;
+import com.reactorcourse.reactorcourseapi.model.Product;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Same CRUD calls against the annotated ProductController and the functional ProductHandler routes.
+ * <p>
+ * Requests go through the whole WebFlux stack (routing, codecs, handler) on a mock server exchange, no socket and no
+ * Mongo (see StubProductRepository), so the difference between the two stacks is framework overhead only. Lives in
+ * the application's package because ReactorCourseApiApplication.routes is package private.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProductApiBenchmark {
+    private static final int CATALOG_SIZE = 100;
+
+    @Param({"annotated", "functional"})
+    private String stack;
+
+    private WebTestClient webTestClient;
+
+    private Product newProduct;
+
+    @Setup
+    public void setUp() {
+        StubProductRepository productRepository = new StubProductRepository(CATALOG_SIZE);
+        ProductEventBus productEventBus = new ProductEventBus(256);
+        BulkProductLoader bulkProductLoader = new BulkProductLoader(productRepository, productEventBus, 500, 4);
+        ProductExporter productExporter = new ProductExporter(productRepository, new ObjectMapper(), Schedulers.boundedElastic(),
+                1000, new SimpleMeterRegistry());
+
+        if ("annotated".equals(stack)) {
+            webTestClient = WebTestClient
+                    .bindToController(new ProductController(productRepository, productEventBus, bulkProductLoader, productExporter))
+                    .configureClient()
+                    .baseUrl("/products")
+                    .build();
+        } else {
+            ProductHandler productHandler = new ProductHandler(productRepository, productEventBus, bulkProductLoader, productExporter);
+            webTestClient = WebTestClient
+                    .bindToRouterFunction(new ReactorCourseApiApplication().routes(productHandler))
+                    .configureClient()
+                    .baseUrl("/functional-products")
+                    .build();
+        }
+
+        newProduct = new Product(null, "Black Tea", 1.99);
+    }
+
+    @Benchmark
+    public List<Product> getAllProducts() {
+        return webTestClient.get()
+                .uri("/")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(Product.class)
+                .returnResult()
+                .getResponseBody();
+    }
+
+    @Benchmark
+    public Product getProduct() {
+        return webTestClient.get()
+                .uri("/{id}", "1")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(Product.class)
+                .returnResult()
+                .getResponseBody();
+    }
+
+    @Benchmark
+    public Product saveProduct() {
+        return webTestClient.post()
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON)
+                .bodyValue(newProduct)
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody(Product.class)
+                .returnResult()
+                .getResponseBody();
+    }
+
+    @Benchmark
+    public Product updateProduct() {
+        return webTestClient.put()
+                .uri("/{id}", "1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON)
+                .bodyValue(newProduct)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(Product.class)
+                .returnResult()
+                .getResponseBody();
+    }
+
+    @Benchmark
+    public byte[] deleteProduct() {
+        return webTestClient.delete()
+                .uri("/{id}", "1")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .returnResult()
+                .getResponseBody();
+    }
+}
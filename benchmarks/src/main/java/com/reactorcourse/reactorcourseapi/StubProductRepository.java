@@ -0,0 +1,54 @@
+package com.reactorcourse.reactorcourseapi;
+
+import com.reactorcourse.reactorcourseapi.model.Product;
+import com.reactorcourse.reactorcourseapi.model.ProductPatch;
+import com.reactorcourse.reactorcourseapi.repository.InMemoryProductRepository;
+import reactor.core.publisher.Mono;
+
+/**
+ * Fixed in-memory catalog standing in for Mongo, so the benchmarks only measure the web stack.
+ * <p>
+ * Reads are the ones of InMemoryProductRepository. The writes the endpoints use answer as if they succeeded but leave
+ * the catalog untouched, every invocation of a benchmark sees the same data no matter how many ran before it.
+ */
+
+class StubProductRepository extends InMemoryProductRepository {
+    private final int size;
+
+    StubProductRepository(int size) {
+        this.size = size;
+        for (int i = 1; i <= size; i++) {
+            insert(new Product(String.valueOf(i), "Product " + i, i + 0.99)).block();
+        }
+    }
+
+    @Override
+    public <S extends Product> Mono<S> save(S product) {
+        if (product.getId() == null) {
+            product.setId(String.valueOf(size + 1));
+        }
+        return Mono.just(product);
+    }
+
+    @Override
+    public Mono<Product> update(String id, Product product) {
+        return findById(id)
+                .map(existingProduct -> new Product(id, product.getName(), product.getPrice()));
+    }
+
+    @Override
+    public Mono<ProductPatch.Result> patch(String id, ProductPatch patch) {
+        return findById(id)
+                .map(existingProduct -> new ProductPatch.Result(patch.applyTo(existingProduct), patch.changes(existingProduct)));
+    }
+
+    @Override
+    public Mono<Boolean> removeById(String id) {
+        return existsById(id);
+    }
+
+    @Override
+    public Mono<Void> deleteAll() {
+        return Mono.empty();
+    }
+}
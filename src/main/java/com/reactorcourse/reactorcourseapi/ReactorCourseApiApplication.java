@@ -1,8 +1,12 @@
 package com.reactorcourse.reactorcourseapi;
 
+import com.reactorcourse.reactorcourseapi.config.CodecConfig;
 import com.reactorcourse.reactorcourseapi.handler.ProductHandler;
 import com.reactorcourse.reactorcourseapi.model.Product;
+import com.reactorcourse.reactorcourseapi.model.ProductPatch;
+import com.reactorcourse.reactorcourseapi.ratelimit.RateLimitHandlerFilter;
 import com.reactorcourse.reactorcourseapi.repository.ProductRepository;
+import com.reactorcourse.reactorcourseapi.seed.ProductSeeder;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -24,9 +28,22 @@ public class ReactorCourseApiApplication {
         SpringApplication.run(ReactorCourseApiApplication.class, args);
     }
 
+    /**
+     * With product.seed.file set the products come from that file instead, see ProductSeeder. Blocks on purpose,
+     * Spring Boot publishes ApplicationReadyEvent only once the runners returned.
+     *
+     * @param productRepository
+     * @param productSeeder
+     * @return
+     */
     @Bean
-    CommandLineRunner init(/*ReactiveMongoOperations operations,*/ ProductRepository productRepository) {
+    CommandLineRunner init(/*ReactiveMongoOperations operations,*/ ProductRepository productRepository, ProductSeeder productSeeder) {
         return args -> {
+            if (productSeeder.isConfigured()) {
+                productSeeder.seed().block();
+                return;
+            }
+
             Flux<Product> productFlux = Flux.just(
                     new Product(null, "Big Latte", 2.99),
                     new Product(null, "Big Decaf", 2.49),
@@ -47,6 +64,18 @@ public class ReactorCourseApiApplication {
         };
     }
 
+    /**
+     * The routes behind the per client rate limits, see RateLimitConfig.
+     *
+     * @param productHandler
+     * @param rateLimitHandlerFilter
+     * @return
+     */
+    @Bean
+    RouterFunction<ServerResponse> rateLimitedRoutes(ProductHandler productHandler, RateLimitHandlerFilter rateLimitHandlerFilter) {
+        return routes(productHandler).filter(rateLimitHandlerFilter);
+    }
+
     /**
      * The order of the route definitions isn't random, if GET-events is defined below GET-product then the GET-product
      * route will be called with 'event' as pathVariable every time.
@@ -54,7 +83,6 @@ public class ReactorCourseApiApplication {
      * @param productHandler
      * @return
      */
-    @Bean
     RouterFunction<ServerResponse> routes(ProductHandler productHandler) {
 //        return route(GET("/functional-products").and(accept(MediaType.APPLICATION_JSON)), productHandler::getAllProducts)
 //                .andRoute(POST("/functional-products").and(contentType(MediaType.APPLICATION_JSON)), productHandler::saveProduct)
@@ -64,14 +92,28 @@ public class ReactorCourseApiApplication {
 //                .andRoute(PUT("/functional-products/{id}").and(contentType(MediaType.APPLICATION_JSON)), productHandler::updateProduct)
 //                .andRoute(DELETE("/functional-products/{id}").and(accept(MediaType.APPLICATION_JSON)), productHandler::deleteProduct);
         return nest(path("/functional-products"),
-                nest(accept(MediaType.APPLICATION_JSON).or(contentType(MediaType.APPLICATION_JSON)).or(accept(MediaType.TEXT_EVENT_STREAM)),
-                        route(GET("/"), productHandler::getAllProducts)
+                nest(accept(MediaType.APPLICATION_JSON).or(contentType(MediaType.APPLICATION_JSON)).or(accept(MediaType.TEXT_EVENT_STREAM))
+                                .or(accept(CodecConfig.APPLICATION_NDJSON)).or(contentType(CodecConfig.APPLICATION_NDJSON))
+                                .or(accept(CodecConfig.APPLICATION_SMILE, MediaType.APPLICATION_CBOR))
+                                .or(contentType(CodecConfig.APPLICATION_SMILE, MediaType.APPLICATION_CBOR))
+                                .or(contentType(ProductPatch.MEDIA_TYPE)),
+                        route(GET("/").and(queryParam("ids", ids -> true)).and(queryParam("limit", limit -> true)), productHandler::getProductsByIdWithLimit)
+                                .andRoute(GET("/").and(queryParam("limit", limit -> true)), productHandler::getProductPage)
+                                .andRoute(GET("/").and(queryParam("ids", ids -> true)), productHandler::getProductsById)
+                                .andRoute(GET("/"), productHandler::getAllProducts)
+                                .andRoute(POST("/bulk"), productHandler::saveProducts)
+                                .andRoute(POST("/lookup"), productHandler::lookupProducts)
                                 .andRoute(method(HttpMethod.POST), productHandler::saveProduct)
                                 .andRoute(DELETE("/"), productHandler::deleteAllProducts)
                                 .andRoute(GET("/events"), productHandler::getProductEvents)
+                                .andRoute(GET("/search"), productHandler::searchProducts)
+                                .andRoute(GET("/top"), productHandler::getTopProducts)
+                                .andRoute(GET("/stats"), productHandler::getPriceStats)
+                                .andRoute(GET("/export"), productHandler::exportProducts)
                                 .andNest(path("/{id}"),
                                         route(method(HttpMethod.GET), productHandler::getProduct)
                                                 .andRoute(method(HttpMethod.PUT), productHandler::updateProduct)
+                                                .andRoute(method(HttpMethod.PATCH), productHandler::patchProduct)
                                                 .andRoute(method(HttpMethod.DELETE), productHandler::deleteProduct)
                                 )
                 )
@@ -0,0 +1,81 @@
+package com.reactorcourse.reactorcourseapi.bulk;
+
+import com.mongodb.MongoBulkWriteException;
+import com.reactorcourse.reactorcourseapi.event.ProductEventBus;
+import com.reactorcourse.reactorcourseapi.model.BulkResult;
+import com.reactorcourse.reactorcourseapi.model.Product;
+import com.reactorcourse.reactorcourseapi.model.ProductEventType;
+import com.reactorcourse.reactorcourseapi.repository.ProductRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes a stream of products in batches, used by POST /products/bulk and its functional twin.
+ * <p>
+ * saveAll with a batch of new products is a single insertMany, at most concurrency batches are in flight and the
+ * incoming body is only read as fast as the batches get written.
+ */
+
+@Component
+public class BulkProductLoader {
+    private final ProductRepository productRepository;
+    private final ProductEventBus productEventBus;
+    private final int batchSize;
+    private final int concurrency;
+
+    public BulkProductLoader(ProductRepository productRepository,
+                             ProductEventBus productEventBus,
+                             @Value("${product.bulk.batch-size:500}") int batchSize,
+                             @Value("${product.bulk.concurrency:4}") int concurrency) {
+        this.productRepository = productRepository;
+        this.productEventBus = productEventBus;
+        this.batchSize = batchSize;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * A failing batch is reported in its BulkResult, with the number of products written before the failure, and
+     * doesn't stop the batches after it.
+     *
+     * @param products
+     * @return one result per batch, in batch order
+     */
+    public Flux<BulkResult> load(Flux<Product> products) {
+        return products
+                .buffer(batchSize)
+                .index()
+                .flatMapSequential(batch -> save(batch.getT1(), batch.getT2()), concurrency)
+                .name("product.bulk")
+                .metrics();
+    }
+
+    private Mono<BulkResult> save(long batch, List<Product> products) {
+        AtomicInteger saved = new AtomicInteger();
+        return productRepository.saveAll(products)
+                .doOnNext(savedProduct -> {
+                    saved.incrementAndGet();
+                    productEventBus.publish(ProductEventType.CREATED, savedProduct);
+                })
+                .then(Mono.fromCallable(() -> new BulkResult(batch, saved.get(), null)))
+                .onErrorResume(e -> Mono.just(new BulkResult(batch, Math.max(saved.get(), insertedCount(e)), e.getMessage())));
+    }
+
+    ///> insertMany is ordered and writes the documents before the failing one, saveAll doesn't emit any of them then
+    private static int insertedCount(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof BulkOperationException) {
+                return ((BulkOperationException) cause).getResult().getInsertedCount();
+            }
+            if (cause instanceof MongoBulkWriteException) {
+                return ((MongoBulkWriteException) cause).getWriteResult().getInsertedCount();
+            }
+        }
+        return 0;
+    }
+}
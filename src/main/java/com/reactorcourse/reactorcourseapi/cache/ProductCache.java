@@ -0,0 +1,70 @@
+package com.reactorcourse.reactorcourseapi.cache;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.reactorcourse.reactorcourseapi.model.Product;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * Bounded, time limited cache of products keyed by id.
+ * <p>
+ * Backed by a Caffeine AsyncCache (W-TinyLFU eviction) so a miss hands back the pending lookup as a future instead of
+ * blocking the calling thread, concurrent misses for the same id share that one lookup.
+ * <p>
+ * Hits, misses, evictions and the size are exported as the cache.* meters tagged cache=products.
+ */
+
+@Component
+public class ProductCache {
+    private final AsyncCache<String, Product> cache;
+
+    public ProductCache(@Value("${product.cache.maximum-size:10000}") long maximumSize,
+                        @Value("${product.cache.time-to-live:10m}") Duration timeToLive,
+                        MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(timeToLive)
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache.synchronous(), "products");
+    }
+
+    /**
+     * An empty loader result completes the future with null, which Caffeine doesn't store, so unknown ids are never
+     * cached. Failed lookups are dropped from the cache the same way.
+     *
+     * @param id
+     * @param loader called only on a miss
+     * @return
+     */
+    public Mono<Product> get(String id, Function<String, Mono<Product>> loader) {
+        return Mono.defer(() ->
+                Mono.fromFuture(cache.get(id, (key, executor) -> loader.apply(key).toFuture())));
+    }
+
+    public void invalidate(String id) {
+        if (id != null) {
+            cache.synchronous().invalidate(id);
+        }
+    }
+
+    public void invalidateAll() {
+        cache.synchronous().invalidateAll();
+    }
+
+    public long size() {
+        return cache.synchronous().estimatedSize();
+    }
+
+    public CacheStats stats() {
+        return cache.synchronous().stats();
+    }
+}
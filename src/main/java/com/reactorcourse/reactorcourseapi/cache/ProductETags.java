@@ -0,0 +1,41 @@
+package com.reactorcourse.reactorcourseapi.cache;
+
+import com.reactorcourse.reactorcourseapi.model.Product;
+
+import java.util.Objects;
+
+/**
+ * Strong ETags for conditional GETs, computed from what is already at hand instead of from the serialized body so a
+ * 304 costs neither a serialization nor, for the listing, a query.
+ * <p>
+ * A product's tag is its id, version and a hash of its fields. The listing's tag is the sequence of the last
+ * ProductEventBus event, which every write through the API bumps, so writes that bypass the API (the seeder, another
+ * instance, the Mongo shell) aren't seen by it. A buffered update bumps it before Mongo has it, the listing gets no tag
+ * at all while ProductRepository.hasPendingWrites, otherwise a client would keep the old rows under the new tag. Both also cover the representation (Accept, after, fields), a JSON and
+ * a CBOR body must not share a strong tag.
+ */
+
+public final class ProductETags {
+    ///> The sequence starts over at 0 with every run, so tags of an earlier run must not match
+    private static final String EPOCH = Long.toString(System.currentTimeMillis(), 36);
+
+    private ProductETags() {
+    }
+
+    public static String of(Product product, String accept, String fields) {
+        return quote(product.getId() + "-" + product.getVersion() + "-"
+                + hash(product.getName(), product.getPrice(), accept, fields));
+    }
+
+    public static String ofCollection(long sequence, String accept, String after, String fields) {
+        return quote("products-" + EPOCH + "-" + sequence + "-" + hash(accept, after, fields));
+    }
+
+    private static String hash(Object... values) {
+        return Integer.toHexString(Objects.hash(values));
+    }
+
+    private static String quote(String tag) {
+        return "\"" + tag + "\"";
+    }
+}
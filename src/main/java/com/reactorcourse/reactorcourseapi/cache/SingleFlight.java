@@ -0,0 +1,58 @@
+package com.reactorcourse.reactorcourseapi.cache;
+
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Coalesces concurrent lookups of the same key, the first caller starts the lookup and everyone asking for that key
+ * while it is in flight gets the same result from the same single subscription.
+ * <p>
+ * Unlike a cache nothing is kept, the entry is dropped as soon as the lookup completes, fails or comes back empty, so
+ * the next caller starts a fresh one.
+ */
+
+public class SingleFlight<K, V> {
+    private final ConcurrentMap<K, Mono<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * @param key
+     * @param loader called once per flight, on the first subscription
+     * @return
+     */
+    public Mono<V> get(K key, Function<K, Mono<V>> loader) {
+        return Mono.defer(() -> {
+            AtomicReference<Mono<V>> started = new AtomicReference<>();
+            Mono<V> flight = inFlight.computeIfAbsent(key, k -> {
+                ///> cache() subscribes upstream once and replays the outcome to every joiner, removal by identity
+                ///> so a finishing flight can't drop the next one for the same key
+                Mono<V> mono = Mono.defer(() -> loader.apply(k))
+                        .doFinally(signal -> inFlight.remove(k, started.get()))
+                        .cache();
+                started.set(mono);
+                return mono;
+            });
+
+            if (flight != started.get()) {
+                coalesced.increment();
+            }
+            return flight;
+        });
+    }
+
+    /**
+     * @return number of calls that joined a lookup already in flight instead of starting their own
+     */
+    public long coalesced() {
+        return coalesced.sum();
+    }
+
+    public int inFlight() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,35 @@
+package com.reactorcourse.reactorcourseapi.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.cbor.Jackson2CborDecoder;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counterpart of CborArrayEncoder, a Flux is read from one CBOR array.
+ * <p>
+ * The whole array is buffered before the first element is emitted (up to the codecs' max in-memory size), bodies
+ * that should be processed while they arrive are better sent as Smile or NDJSON.
+ */
+
+public class CborArrayDecoder extends Jackson2CborDecoder {
+
+    public CborArrayDecoder(ObjectMapper cborMapper) {
+        super(cborMapper, MediaType.APPLICATION_CBOR);
+    }
+
+    @Override
+    public Flux<Object> decode(Publisher<DataBuffer> input, ResolvableType elementType, MimeType mimeType,
+                               Map<String, Object> hints) {
+        ResolvableType listType = ResolvableType.forClassWithGenerics(List.class, elementType);
+        return decodeToMono(input, listType, mimeType, hints)
+                .flatMapIterable(values -> (List<?>) values);
+    }
+}
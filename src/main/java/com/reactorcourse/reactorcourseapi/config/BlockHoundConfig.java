@@ -0,0 +1,38 @@
+package com.reactorcourse.reactorcourseapi.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import reactor.blockhound.BlockHound;
+import reactor.blockhound.BlockingOperationError;
+
+/**
+ * Diagnostic mode, product.blockhound.enabled=true: BlockHound reports every blocking call made on a non-blocking
+ * thread (Netty event loops, Reactor's parallel and single schedulers), logged as a warning with the stack trace of the
+ * caller and counted in product.blocking.calls, tagged with the blocking method. The call itself still goes through,
+ * so this can run against real traffic. The tests install BlockHound as well (blockhound-junit-platform), there the call fails.
+ * <p>
+ * Installed while the context starts, before the server and its event loops. On Java 13 and later the JVM has to be
+ * started with -XX:+AllowRedefinitionToAddDeleteMethods.
+ */
+
+@Configuration
+@ConditionalOnProperty("product.blockhound.enabled")
+public class BlockHoundConfig {
+    private static final Logger log = LoggerFactory.getLogger(BlockHoundConfig.class);
+
+    public BlockHoundConfig(MeterRegistry meterRegistry) {
+        ///> Reactor's own integration (which threads are non-blocking) is picked up by install as well
+        BlockHound.install(builder -> builder.blockingMethodCallback(method -> {
+            Counter.builder("product.blocking.calls")
+                    .description("Blocking calls made on a non-blocking thread")
+                    .tag("method", method.toString())
+                    .register(meterRegistry)
+                    .increment();
+            log.warn("Blocking call on {}", Thread.currentThread().getName(), new BlockingOperationError(method));
+        }));
+    }
+}
@@ -0,0 +1,118 @@
+package com.reactorcourse.reactorcourseapi.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.reactorcourse.reactorcourseapi.codec.CborArrayDecoder;
+import com.reactorcourse.reactorcourseapi.codec.CborArrayEncoder;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.CodecConfigurer;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.codec.json.Jackson2SmileDecoder;
+import org.springframework.http.codec.json.Jackson2SmileEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.reactive.accept.RequestedContentTypeResolverBuilder;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+
+import java.util.Arrays;
+
+/**
+ * Codecs shared by the annotated controllers, the functional routes and any WebClient built from the
+ * WebClient.Builder bean.
+ */
+
+@Configuration
+public class CodecConfig {
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+    public static final MediaType APPLICATION_NDJSON = MediaType.valueOf(APPLICATION_NDJSON_VALUE);
+
+    public static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
+
+    public static final MediaType APPLICATION_SMILE = MediaType.valueOf(APPLICATION_SMILE_VALUE);
+
+    private static final MediaType APPLICATION_ANY_JSON = new MediaType("application", "*+json");
+
+    private static final MediaType APPLICATION_ANY_SMILE = new MediaType("application", "*+x-jackson-smile");
+
+    /**
+     * Jackson only knows application/stream+json as a streaming type in this version of Spring, registering
+     * application/x-ndjson as well makes a Flux be written one line per element (flushed as it goes) instead of
+     * being collected into a JSON array first.
+     * <p>
+     * Ordered last so it replaces the Jackson codecs set up by Spring Boot instead of being replaced by them.
+     *
+     * @param objectMapper
+     * @return
+     */
+    @Bean
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    CodecCustomizer ndjsonCodecCustomizer(ObjectMapper objectMapper) {
+        return configurer -> {
+            Jackson2JsonEncoder encoder = new Jackson2JsonEncoder(objectMapper,
+                    MediaType.APPLICATION_JSON, APPLICATION_ANY_JSON, APPLICATION_NDJSON);
+            encoder.setStreamingMediaTypes(Arrays.asList(MediaType.APPLICATION_STREAM_JSON, APPLICATION_NDJSON));
+
+            configurer.defaultCodecs().jackson2JsonEncoder(encoder);
+            configurer.defaultCodecs().jackson2JsonDecoder(new Jackson2JsonDecoder(objectMapper,
+                    MediaType.APPLICATION_JSON, APPLICATION_ANY_JSON, APPLICATION_NDJSON));
+        };
+    }
+
+    @Bean
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    CodecCustomizer binaryCodecCustomizer(Jackson2ObjectMapperBuilder objectMapperBuilder) {
+        return configurer -> registerBinaryCodecs(configurer, objectMapperBuilder);
+    }
+
+    @Bean
+    WebFluxConfigurer jsonByDefaultConfigurer() {
+        return new WebFluxConfigurer() {
+            @Override
+            public void configureContentTypeResolver(RequestedContentTypeResolverBuilder builder) {
+                CodecConfig.configureContentTypeResolver(builder);
+            }
+        };
+    }
+
+    /**
+     * Registered custom codecs are asked before the default ones, so without an Accept header (or one accepting
+     * anything) the annotated controllers would pick CBOR over JSON. Falling back to application/json keeps JSON the
+     * default, the functional routes choose it themselves, see ProductHandler.
+     * <p>
+     * Public for the same reason as registerBinaryCodecs.
+     *
+     * @param builder
+     */
+    public static void configureContentTypeResolver(RequestedContentTypeResolverBuilder builder) {
+        builder.headerResolver();
+        builder.fixedResolver(MediaType.APPLICATION_JSON, MediaType.ALL);
+    }
+
+    /**
+     * Smile (application/x-jackson-smile) and CBOR (application/cbor), binary encodings of the same Jackson model as
+     * the JSON payloads and a lot cheaper to parse. Smile also streams (application/stream+x-jackson-smile), CBOR
+     * reads and writes a Flux as one array, see CborArrayEncoder.
+     * <p>
+     * Public so a WebClient built outside of Spring can register the same codecs, see WebClientAPI.
+     *
+     * @param configurer
+     * @param objectMapperBuilder Spring Boot's builder, so the binary mappers get the same modules and features as JSON
+     */
+    public static void registerBinaryCodecs(CodecConfigurer configurer, Jackson2ObjectMapperBuilder objectMapperBuilder) {
+        ObjectMapper smileMapper = objectMapperBuilder.factory(new SmileFactory()).build();
+        ObjectMapper cborMapper = objectMapperBuilder.factory(new CBORFactory()).build();
+
+        ///> The mime types have to be passed along, without them the Jackson codecs fall back to the JSON ones
+        configurer.defaultCodecs().jackson2SmileEncoder(new Jackson2SmileEncoder(smileMapper, APPLICATION_SMILE, APPLICATION_ANY_SMILE));
+        configurer.defaultCodecs().jackson2SmileDecoder(new Jackson2SmileDecoder(smileMapper, APPLICATION_SMILE, APPLICATION_ANY_SMILE));
+        configurer.customCodecs().register(new CborArrayEncoder(cborMapper));
+        configurer.customCodecs().register(new CborArrayDecoder(cborMapper));
+    }
+}
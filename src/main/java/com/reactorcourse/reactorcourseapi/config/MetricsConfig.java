@@ -0,0 +1,59 @@
+package com.reactorcourse.reactorcourseapi.config;
+
+import com.reactorcourse.reactorcourseapi.metrics.EventLoopMetrics;
+import com.reactorcourse.reactorcourseapi.metrics.InFlightRequestsWebFilter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.mongodb.MongoMetricsCommandListener;
+import io.micrometer.core.instrument.binder.mongodb.MongoMetricsConnectionPoolListener;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.http.HttpResources;
+import reactor.netty.resources.LoopResources;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Metrics on top of what Spring Boot records by itself, everything ends up on /actuator/prometheus.
+ * <p>
+ * Request timers (http.server.requests, tagged with method, uri, status, outcome and exception) come from Spring
+ * Boot for the annotated controller and the functional routes alike.
+ */
+
+@Configuration
+public class MetricsConfig {
+
+    ///> Executor metrics of the Reactor schedulers, registered on Micrometer's global registry (which Boot feeds)
+    @PostConstruct
+    void enableSchedulerMetrics() {
+        Schedulers.enableMetrics();
+    }
+
+    @Bean
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    InFlightRequestsWebFilter inFlightRequestsWebFilter(MeterRegistry meterRegistry) {
+        return new InFlightRequestsWebFilter(meterRegistry);
+    }
+
+    @Bean
+    EventLoopMetrics eventLoopMetrics() {
+        return new EventLoopMetrics(HttpResources.get().onServer(LoopResources.DEFAULT_NATIVE));
+    }
+
+    /**
+     * mongodb.driver.commands timers and mongodb.driver.pool.* gauges
+     *
+     * @param meterRegistry
+     * @return
+     */
+    @Bean
+    MongoClientSettingsBuilderCustomizer mongoMetricsCustomizer(MeterRegistry meterRegistry) {
+        return settings -> settings
+                .addCommandListener(new MongoMetricsCommandListener(meterRegistry))
+                .applyToConnectionPoolSettings(pool ->
+                        pool.addConnectionPoolListener(new MongoMetricsConnectionPoolListener(meterRegistry)));
+    }
+}
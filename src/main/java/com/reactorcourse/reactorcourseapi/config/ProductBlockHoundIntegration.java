@@ -0,0 +1,31 @@
+package com.reactorcourse.reactorcourseapi.config;
+
+import reactor.blockhound.BlockHound;
+import reactor.blockhound.integration.BlockHoundIntegration;
+
+/**
+ * Blocking calls BlockHound should let through, one-off initializations that happen to run on whichever thread
+ * gets there first, and the file system calls behind memory-mapped files it doesn't know about (those of the
+ * ProductMutationLog). Found through ServiceLoader (META-INF/services), so the tests and BlockHoundConfig both use it.
+ */
+
+public class ProductBlockHoundIntegration implements BlockHoundIntegration {
+
+    @Override
+    public void applyTo(BlockHound.Builder builder) {
+        ///> MessageHeaders seeds its id generator from SecureRandom when first used, which is the first RSocket request
+        ///> (BlockHound can't allow constructors or static initializers, hence the calling method)
+        builder.allowBlockingCallsInside(
+                "org.springframework.messaging.rsocket.annotation.support.MessagingRSocket", "createHeaders");
+
+        ///> BlockHound only knows stream and socket IO. Opening, mapping, forcing and deleting a file are system calls
+        ///> that wait for the disk as well, the natives differ between Java 11 and 14+ so both are listed.
+        builder.markAsBlocking("sun.nio.fs.UnixNativeDispatcher", "open0", "(JII)I");
+        builder.markAsBlocking("sun.nio.fs.UnixNativeDispatcher", "unlink0", "(J)V");
+        builder.markAsBlocking("sun.nio.ch.FileChannelImpl", "map0", "(IJJ)J");
+        builder.markAsBlocking("sun.nio.ch.FileChannelImpl", "map0", "(IJJZ)J");
+        builder.markAsBlocking("sun.nio.ch.FileDispatcherImpl", "force0", "(Ljava/io/FileDescriptor;Z)I");
+        builder.markAsBlocking("java.nio.MappedByteBuffer", "force0", "(Ljava/io/FileDescriptor;JJ)V");
+        builder.markAsBlocking("java.nio.MappedMemoryUtils", "force0", "(Ljava/io/FileDescriptor;JJ)V");
+    }
+}
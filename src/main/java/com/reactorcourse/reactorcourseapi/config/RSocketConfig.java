@@ -0,0 +1,41 @@
+package com.reactorcourse.reactorcourseapi.config;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.rsocket.context.RSocketServerBootstrap;
+import org.springframework.boot.rsocket.netty.NettyRSocketServerFactory;
+import org.springframework.boot.rsocket.server.RSocketServer;
+import org.springframework.boot.rsocket.server.ServerRSocketFactoryProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.rsocket.annotation.support.RSocketMessageHandler;
+
+import java.util.stream.Collectors;
+
+/**
+ * RSocket on TCP next to the WebSocket endpoint (spring.rsocket.server.mapping-path) Spring Boot sets up on the HTTP
+ * port. Boot only runs one of the two, this adds the TCP server on product.rsocket.tcp.port with the same
+ * ProductRSocketController routes.
+ * <p>
+ * Left out where no server runs (server.port=-1, which is what @SpringBootTest sets for its mock web environment), so
+ * test contexts don't all compete for the TCP port.
+ */
+
+@Configuration
+public class RSocketConfig {
+
+    @Bean
+    @ConditionalOnExpression("'${server.port:8080}' != '-1'")
+    RSocketServerBootstrap rsocketTcpServer(RSocketMessageHandler messageHandler,
+                                            ObjectProvider<ServerRSocketFactoryProcessor> processors,
+                                            @Value("${product.rsocket.tcp.port:7000}") int port) {
+        NettyRSocketServerFactory factory = new NettyRSocketServerFactory();
+        factory.setTransport(RSocketServer.Transport.TCP);
+        factory.setPort(port);
+        ///> Boot's processors, e.g. the zero copy frame decoder matching the Netty buffers of the message handler
+        factory.setSocketFactoryProcessors(processors.orderedStream().collect(Collectors.toList()));
+
+        return new RSocketServerBootstrap(factory, messageHandler.responder());
+    }
+}
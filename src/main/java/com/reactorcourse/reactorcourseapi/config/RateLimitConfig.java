@@ -0,0 +1,49 @@
+package com.reactorcourse.reactorcourseapi.config;
+
+import com.reactorcourse.reactorcourseapi.ratelimit.ProductRateLimits;
+import com.reactorcourse.reactorcourseapi.ratelimit.RateLimitHandlerFilter;
+import com.reactorcourse.reactorcourseapi.ratelimit.RateLimitWebFilter;
+import com.reactorcourse.reactorcourseapi.ratelimit.RateLimiter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Token bucket limits per client for the product routes, configured per route group (reads and writes) with
+ * product.rate-limit.&lt;group&gt;.capacity (burst) and refill-per-second. A capacity of 0 leaves the group unlimited.
+ * <p>
+ * Declared here rather than as components so @WebFluxTest slices, which pick up every WebFilter, don't get them.
+ */
+
+@Configuration
+public class RateLimitConfig {
+
+    @Bean
+    ProductRateLimits productRateLimits(@Value("${product.rate-limit.client-header:X-Client-Id}") String clientHeader,
+                                        @Value("${product.rate-limit.reads.capacity:0}") long readsCapacity,
+                                        @Value("${product.rate-limit.reads.refill-per-second:0}") double readsRefill,
+                                        @Value("${product.rate-limit.writes.capacity:100}") long writesCapacity,
+                                        @Value("${product.rate-limit.writes.refill-per-second:50}") double writesRefill,
+                                        MeterRegistry meterRegistry) {
+        return new ProductRateLimits(
+                rateLimiter("reads", readsCapacity, readsRefill),
+                rateLimiter("writes", writesCapacity, writesRefill),
+                clientHeader,
+                meterRegistry);
+    }
+
+    @Bean
+    RateLimitWebFilter rateLimitWebFilter(ProductRateLimits productRateLimits) {
+        return new RateLimitWebFilter(productRateLimits);
+    }
+
+    @Bean
+    RateLimitHandlerFilter rateLimitHandlerFilter(ProductRateLimits productRateLimits) {
+        return new RateLimitHandlerFilter(productRateLimits);
+    }
+
+    private static RateLimiter rateLimiter(String group, long capacity, double refillPerSecond) {
+        return capacity > 0 ? new RateLimiter(group, capacity, refillPerSecond) : null;
+    }
+}
@@ -0,0 +1,70 @@
+package com.reactorcourse.reactorcourseapi.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedulers for the work that legitimately blocks (file IO, page faults on a memory-mapped file), so it never runs
+ * on a Netty event loop or on one of Reactor's non-blocking schedulers, where BlockHound would report it (see
+ * BlockHoundConfig).
+ * <p>
+ * Each one is a fixed number of named threads over a bounded queue, a task beyond that is rejected (an error for the
+ * subscriber) instead of piling up. Its executor metrics are tagged with the scheduler name: executor.active
+ * (running tasks), executor.queued (queue depth), executor.queue.remaining, executor.completed and the
+ * executor.execution and executor.idle timers.
+ */
+
+@Configuration
+public class SchedulerConfig {
+    public static final String SEED = "seedScheduler";
+
+    public static final String EXPORT = "exportScheduler";
+
+    /**
+     * Reading the file of ProductSeeder.
+     */
+    @Bean(name = SEED, destroyMethod = "dispose")
+    Scheduler seedScheduler(@Value("${product.schedulers.seed.threads:2}") int threads,
+                            @Value("${product.schedulers.seed.queue-capacity:16}") int queueCapacity,
+                            MeterRegistry meterRegistry) {
+        return boundedScheduler("product-seed", threads, queueCapacity, meterRegistry);
+    }
+
+    /**
+     * Reading the ProductMutationLog and writing exports.
+     */
+    @Bean(name = EXPORT, destroyMethod = "dispose")
+    Scheduler exportScheduler(@Value("${product.schedulers.export.threads:4}") int threads,
+                              @Value("${product.schedulers.export.queue-capacity:64}") int queueCapacity,
+                              MeterRegistry meterRegistry) {
+        return boundedScheduler("product-export", threads, queueCapacity, meterRegistry);
+    }
+
+    /**
+     * @param name          thread name prefix and value of the name tag of the executor metrics
+     * @param threads
+     * @param queueCapacity
+     * @param meterRegistry
+     * @return
+     */
+    public static Scheduler boundedScheduler(String name, int threads, int queueCapacity, MeterRegistry meterRegistry) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory(name + "-"));
+        executor.allowCoreThreadTimeOut(true);
+
+        ///> Same tag keys as the metrics Reactor records for its own schedulers (MetricsConfig), Prometheus wants that
+        return Schedulers.fromExecutorService(ExecutorServiceMetrics.monitor(meterRegistry, executor, name,
+                Tags.of("reactor.scheduler.id", name)), name);
+    }
+}
@@ -0,0 +1,87 @@
+package com.reactorcourse.reactorcourseapi.controller;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.reactorcourse.reactorcourseapi.cache.ProductCache;
+import com.reactorcourse.reactorcourseapi.event.ProductMutationLog;
+import com.reactorcourse.reactorcourseapi.model.ProductMutation;
+import com.reactorcourse.reactorcourseapi.model.QueryPlan;
+import com.reactorcourse.reactorcourseapi.repository.ProductQueries;
+import com.reactorcourse.reactorcourseapi.repository.ProductRepository;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.Nullable;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Operational endpoints, kept away from /products so they can't clash with the /products/{id} routes.
+ */
+
+@RestController
+@RequestMapping("/admin")
+public class AdminController {
+
+	private final ProductCache productCache;
+
+	private final ProductRepository productRepository;
+
+	private final ProductMutationLog productMutationLog;
+
+	public AdminController(ProductCache productCache, ProductRepository productRepository,
+						   @Nullable ProductMutationLog productMutationLog) {
+		this.productCache = productCache;
+		this.productRepository = productRepository;
+		this.productMutationLog = productMutationLog;
+	}
+
+	@GetMapping("/cache")
+	public Mono<Map<String, Object>> getCacheStats() {
+		return Mono.fromSupplier(() -> {
+			CacheStats stats = productCache.stats();
+
+			Map<String, Object> body = new LinkedHashMap<>();
+			body.put("size", productCache.size());
+			body.put("hitCount", stats.hitCount());
+			body.put("missCount", stats.missCount());
+			body.put("hitRate", stats.hitRate());
+			body.put("evictionCount", stats.evictionCount());
+			return body;
+		});
+	}
+
+	/**
+	 * Winning plans of the /products/search and /products/top queries, none of them should be a collection scan.
+	 */
+	@GetMapping("/query-plans")
+	public Flux<QueryPlan> getQueryPlans() {
+		Map<String, Query> queries = new LinkedHashMap<>();
+		queries.put("name", ProductQueries.search("Big Latte", null, null, null, null));
+		queries.put("prefix", ProductQueries.search(null, "Big", null, null, null));
+		queries.put("priceRange", ProductQueries.search(null, null, 1.0, 5.0, null));
+		queries.put("topByPrice", ProductQueries.top("price", "desc", null));
+		queries.put("topByName", ProductQueries.top("name", "asc", null));
+
+		return Flux.fromIterable(queries.entrySet())
+				.concatMap(query -> productRepository.explain(query.getKey(), query.getValue()));
+	}
+
+	/**
+	 * The ProductMutationLog from offset from on, streamed with Accept: application/x-ndjson. 404 when the log is
+	 * off.
+	 */
+	@GetMapping("/mutations")
+	public Flux<ProductMutation> getMutations(@RequestParam(defaultValue = "0") long from) {
+		if (productMutationLog == null) {
+			return Flux.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "Mutation log is off"));
+		}
+		return productMutationLog.read(from);
+	}
+}
@@ -1,16 +1,36 @@
 package com.reactorcourse.reactorcourseapi.controller;
 
+import com.reactorcourse.reactorcourseapi.bulk.BulkProductLoader;
+import com.reactorcourse.reactorcourseapi.cache.ProductETags;
+import com.reactorcourse.reactorcourseapi.config.CodecConfig;
+import com.reactorcourse.reactorcourseapi.event.ProductEventBus;
+import com.reactorcourse.reactorcourseapi.export.ProductExporter;
+import com.reactorcourse.reactorcourseapi.model.BulkResult;
 import com.reactorcourse.reactorcourseapi.model.Product;
 import com.reactorcourse.reactorcourseapi.model.ProductEvent;
+import com.reactorcourse.reactorcourseapi.model.ProductEventType;
+import com.reactorcourse.reactorcourseapi.model.ProductLookup;
+import com.reactorcourse.reactorcourseapi.model.ProductPage;
+import com.reactorcourse.reactorcourseapi.model.ProductPatch;
+import com.reactorcourse.reactorcourseapi.model.ProductStats;
+import com.reactorcourse.reactorcourseapi.repository.ProductQueries;
 import com.reactorcourse.reactorcourseapi.repository.ProductRepository;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import java.time.Duration;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Created by Jonathan on 4/20/2020.
@@ -22,61 +42,309 @@ public class ProductController {
 
 	private final ProductRepository productRepository;
 
-	public ProductController(ProductRepository productRepository) {
+	private final ProductEventBus productEventBus;
+
+	private final BulkProductLoader bulkProductLoader;
+
+	private final ProductExporter productExporter;
+
+	public ProductController(ProductRepository productRepository, ProductEventBus productEventBus, BulkProductLoader bulkProductLoader,
+							 ProductExporter productExporter) {
 		this.productRepository = productRepository;
+		this.productEventBus = productEventBus;
+		this.bulkProductLoader = bulkProductLoader;
+		this.productExporter = productExporter;
 	}
 
+	/**
+	 * With Accept: application/x-ndjson the products are written one per line as they come off the Mongo cursor,
+	 * with backpressure, instead of being collected into one JSON array. after resumes the stream past a cursor
+	 * handed out by getProductPage.
+	 * <p>
+	 * fields (e.g. id,name) is pushed down to Mongo as a projection, see ProductQueries.withFields.
+	 * <p>
+	 * The ETag comes from the ProductEventBus sequence, see ProductETags. On a matching If-None-Match the
+	 * ResponseEntity handling answers 304 before the body, and with it the query, is ever subscribed to. There is no
+	 * ETag while buffered updates aren't written yet.
+	 */
 	@GetMapping
-	public Flux<Product> getAllProducts() {
-		return productRepository.findAll();
+	public Mono<ResponseEntity<Flux<Product>>> getAllProducts(@RequestParam(required = false) String after,
+															  @RequestParam(required = false) String fields,
+															  @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+		long sequence = productEventBus.sequence();
+		///> Checked after reading the sequence, an update is buffered before its event is published
+		String eTag = productRepository.hasPendingWrites() ? null : ProductETags.ofCollection(sequence, accept, after, fields);
+
+		String afterId;
+		try {
+			afterId = ProductPage.decodeCursor(after);
+		} catch (IllegalArgumentException e) {
+			return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor"));
+		}
+
+		Flux<Product> products;
+		if (fields != null) {
+			try {
+				products = productRepository.search(ProductQueries.withFields(ProductQueries.all(afterId), fields));
+			} catch (IllegalArgumentException e) {
+				return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage()));
+			}
+		} else {
+			products = afterId == null
+					? productRepository.findAll()
+					: productRepository.findByIdGreaterThan(afterId, ProductRepository.ID_ORDER);
+		}
+
+		return Mono.just(eTag == null ? ResponseEntity.ok().body(products) : ResponseEntity.ok().eTag(eTag).body(products));
+	}
+
+	@GetMapping(params = "limit")
+	public Mono<ResponseEntity<ProductPage>> getProductPage(@RequestParam int limit, @RequestParam(required = false) String after) {
+		String afterId;
+		try {
+			afterId = ProductPage.decodeCursor(after);
+		} catch (IllegalArgumentException e) {
+			return Mono.just(ResponseEntity.badRequest().build());
+		}
+
+		if (!ProductPage.isValidLimit(limit)) {
+			return Mono.just(ResponseEntity.badRequest().build());
+		}
+
+		return productRepository.findPage(afterId, limit)
+				.collectList()
+				.map(products -> ResponseEntity.ok(ProductPage.of(products, limit)));
+	}
+
+	/**
+	 * The products of a comma separated id list in one $in query (one per ProductRepository.ID_CHUNK_SIZE ids), in the
+	 * order of the list, along with the ids that weren't found. 400 without ids or with more than ProductLookup.MAX_IDS.
+	 */
+	@GetMapping(params = "ids")
+	public Mono<ResponseEntity<ProductLookup>> getProductsById(@RequestParam String ids) {
+		List<String> idList;
+		try {
+			idList = ProductLookup.parseIds(ids);
+		} catch (IllegalArgumentException e) {
+			return Mono.just(ResponseEntity.badRequest().build());
+		}
+
+		return lookup(idList);
+	}
+
+	/**
+	 * 400, a lookup by ids isn't paged. Mapped on its own so a request with both ids and limit isn't ambiguous between
+	 * getProductPage and getProductsById.
+	 */
+	@GetMapping(params = {"ids", "limit"})
+	public Mono<ResponseEntity<ProductLookup>> getProductsByIdWithLimit() {
+		return Mono.just(ResponseEntity.badRequest().build());
+	}
+
+	/**
+	 * Same as getProductsById with the ids as a JSON array, for lists too long for a query string.
+	 */
+	@PostMapping("/lookup")
+	public Mono<ResponseEntity<ProductLookup>> lookupProducts(@RequestBody List<String> ids) {
+		List<String> idList;
+		try {
+			idList = ProductLookup.checkIds(ids);
+		} catch (IllegalArgumentException e) {
+			return Mono.just(ResponseEntity.badRequest().build());
+		}
+
+		return lookup(idList);
+	}
+
+	private Mono<ResponseEntity<ProductLookup>> lookup(List<String> ids) {
+		return productRepository.findAllByIdInChunks(ids)
+				.collectList()
+				.map(products -> ResponseEntity.ok(ProductLookup.of(ids, products)));
+	}
+
+	/**
+	 * Exactly one of name, prefix or a price range (minPrice and/or maxPrice), see ProductQueries.search
+	 */
+	@GetMapping("/search")
+	public Flux<Product> searchProducts(@RequestParam(required = false) String name,
+										@RequestParam(required = false) String prefix,
+										@RequestParam(required = false) Double minPrice,
+										@RequestParam(required = false) Double maxPrice,
+										@RequestParam(required = false) Integer limit) {
+		Query query;
+		try {
+			query = ProductQueries.search(name, prefix, minPrice, maxPrice, limit);
+		} catch (IllegalArgumentException e) {
+			return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage()));
+		}
+
+		return productRepository.search(query);
+	}
+
+	/**
+	 * The first limit products by name or price, see ProductQueries.top
+	 */
+	@GetMapping("/top")
+	public Flux<Product> getTopProducts(@RequestParam(required = false) String by,
+										@RequestParam(required = false) String order,
+										@RequestParam(required = false) Integer limit) {
+		Query query;
+		try {
+			query = ProductQueries.top(by, order, limit);
+		} catch (IllegalArgumentException e) {
+			return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage()));
+		}
+
+		return productRepository.search(query);
+	}
+
+	/**
+	 * Count, min, max, avg and the p50/p90/p95/p99 of the prices, of all products or per name prefix of prefixLength
+	 * characters. Cached and recomputed after a write, see CachingProductRepository.
+	 */
+	@GetMapping("/stats")
+	public Flux<ProductStats> getPriceStats(@RequestParam(required = false) Integer prefixLength) {
+		if (prefixLength != null && !ProductStats.isValidPrefixLength(prefixLength)) {
+			return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+					"prefixLength must be between 1 and " + ProductStats.MAX_PREFIX_LENGTH));
+		}
+
+		return productRepository.priceStats(prefixLength);
 	}
 
+	/**
+	 * The whole catalog for bulk consumers, gzip-compressed (Content-Encoding: gzip) NDJSON (format=ndjson, the
+	 * default) or CSV with a header line (format=csv), see ProductExporter. Both can be fed back in through
+	 * product.seed.file once decompressed.
+	 */
+	@GetMapping("/export")
+	public Mono<ResponseEntity<Flux<DataBuffer>>> exportProducts(@RequestParam(required = false) String format,
+																 ServerHttpResponse response) {
+		ProductExporter.Format exportFormat;
+		try {
+			exportFormat = ProductExporter.Format.of(format);
+		} catch (IllegalArgumentException e) {
+			return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage()));
+		}
+
+		return Mono.just(ResponseEntity.ok()
+				.contentType(exportFormat.getMediaType())
+				.header(HttpHeaders.CONTENT_ENCODING, "gzip")
+				.body(productExporter.export(exportFormat, response.bufferFactory())));
+	}
+
+	/**
+	 * With fields the product is read with a projection straight from Mongo, the cache only holds whole products.
+	 * <p>
+	 * 304 on a matching If-None-Match, the ETag is computed from the product, see ProductETags.
+	 */
 	@GetMapping("/{id}")
-	public Mono<ResponseEntity<Product>> getProduct(@PathVariable String id) {
-		return productRepository.findById(id)
-				.map(ResponseEntity::ok)
+	public Mono<ResponseEntity<Product>> getProduct(@PathVariable String id,
+													@RequestParam(required = false) String fields,
+													@RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+		Mono<Product> productMono;
+		if (fields == null) {
+			productMono = productRepository.findById(id);
+		} else {
+			try {
+				productMono = productRepository.search(ProductQueries.withFields(ProductQueries.byId(id), fields)).next();
+			} catch (IllegalArgumentException e) {
+				return Mono.just(ResponseEntity.badRequest().build());
+			}
+		}
+
+		return productMono
+				.map(product -> ResponseEntity.ok().eTag(ProductETags.of(product, accept, fields)).body(product))
 				.defaultIfEmpty(ResponseEntity.notFound().build());
 	}
 
 	/**
 	 * Specify TEXT_EVENT_STREAM_VALUE to avoid returning a flux of server side event, To return ProductEvent
+	 * <p>
+	 * Every subscriber is fed from the one shared ProductEventBus, no per client timer or upstream.
 	 */
 	@GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
 	public Flux<ProductEvent> getProductEvents() {
-		return Flux.interval(Duration.ofSeconds(1))
-				.map(val ->
-						new ProductEvent(val, "Product Event"));
+		return productEventBus.events();
 	}
 
+	/**
+	 * A product without a version is inserted, 409 when its id is already taken (PUT replaces an existing product).
+	 */
 	@PostMapping
 	@ResponseStatus(HttpStatus.CREATED)
 	public Mono<Product> saveProduct(@RequestBody Product product) {
-		return productRepository.save(product);
+		return productRepository.save(product)
+				.doOnNext(savedProduct -> productEventBus.publish(ProductEventType.CREATED, savedProduct))
+				.onErrorMap(DuplicateKeyException.class, e ->
+						new ResponseStatusException(HttpStatus.CONFLICT, "Product " + product.getId() + " already exists"));
 	}
 
+	/**
+	 * Accepts a JSON array or application/x-ndjson, both are decoded element by element as the body comes in.
+	 * One BulkResult per batch is written back (streamed with Accept: application/x-ndjson). A Smile or CBOR array
+	 * works too, see CodecConfig.registerBinaryCodecs.
+	 */
+	@PostMapping(value = "/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, CodecConfig.APPLICATION_NDJSON_VALUE,
+			CodecConfig.APPLICATION_SMILE_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+	public Flux<BulkResult> saveProducts(@RequestBody Flux<Product> products) {
+		return bulkProductLoader.load(products);
+	}
+
+	/**
+	 * One findAndModify instead of findById + save, 409 when the body carries a version that is no longer current.
+	 */
 	@PutMapping("/{id}")
 	public Mono<ResponseEntity<Product>> updateProduct(@PathVariable String id, @RequestBody Product product) {
-		return productRepository.findById(id)
-				.flatMap(existingProduct -> {
-					existingProduct.setName(product.getName());
-					existingProduct.setPrice(product.getPrice());
-					return productRepository.save(existingProduct);
-				})
+		return productRepository.update(id, product)
+				.doOnNext(updatedProduct -> productEventBus.publish(ProductEventType.UPDATED, updatedProduct))
 				.map(ResponseEntity::ok)
-				.defaultIfEmpty(ResponseEntity.notFound().build());
+				.defaultIfEmpty(ResponseEntity.notFound().build())
+				.onErrorResume(OptimisticLockingFailureException.class, e ->
+						Mono.just(ResponseEntity.status(HttpStatus.CONFLICT).build()));
+	}
+
+	/**
+	 * A JSON merge patch (application/merge-patch+json or plain JSON), only the patched properties are written, see
+	 * ProductPatch. A patch that changes nothing is answered with the product as it is, without a write or an event.
+	 * 400 on an invalid patch, 409 on a version mismatch like updateProduct.
+	 */
+	@PatchMapping(value = "/{id}", consumes = {ProductPatch.MEDIA_TYPE_VALUE, MediaType.APPLICATION_JSON_VALUE})
+	public Mono<ResponseEntity<Product>> patchProduct(@PathVariable String id, @RequestBody Map<String, Object> body) {
+		ProductPatch patch;
+		try {
+			patch = ProductPatch.of(id, body);
+		} catch (IllegalArgumentException e) {
+			return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage()));
+		}
+
+		return productRepository.patch(id, patch)
+				.doOnNext(result -> {
+					if (result.isModified()) {
+						productEventBus.publish(ProductEventType.UPDATED, result.getProduct());
+					}
+				})
+				.map(result -> ResponseEntity.ok(result.getProduct()))
+				.defaultIfEmpty(ResponseEntity.notFound().build())
+				.onErrorResume(OptimisticLockingFailureException.class, e ->
+						Mono.just(ResponseEntity.status(HttpStatus.CONFLICT).build()));
 	}
 
 	@DeleteMapping("/{id}")
 	public Mono<ResponseEntity<Void>> deleteProduct(@PathVariable String id) {
-		return productRepository.findById(id)
-				.flatMap(existingProduct ->
-						productRepository.delete(existingProduct)
-								.then(Mono.just(ResponseEntity.ok().<Void>build()))
-				).defaultIfEmpty(ResponseEntity.notFound().build());
+		return productRepository.removeById(id)
+				.map(deleted -> {
+					if (!deleted) {
+						return ResponseEntity.notFound().<Void>build();
+					}
+					productEventBus.publish(ProductEventType.DELETED, id);
+					return ResponseEntity.ok().<Void>build();
+				});
 	}
 
 	@DeleteMapping
 	public Mono<Void> deleteAllProducts() {
-		return productRepository.deleteAll();
+		return productRepository.deleteAll()
+				.doOnSuccess(v -> productEventBus.publish(ProductEventType.CLEARED, (String) null));
 	}
 }
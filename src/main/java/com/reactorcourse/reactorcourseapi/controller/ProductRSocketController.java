@@ -0,0 +1,187 @@
+package com.reactorcourse.reactorcourseapi.controller;
+
+import com.reactorcourse.reactorcourseapi.bulk.BulkProductLoader;
+import com.reactorcourse.reactorcourseapi.event.ProductEventBus;
+import com.reactorcourse.reactorcourseapi.model.BulkResult;
+import com.reactorcourse.reactorcourseapi.model.Product;
+import com.reactorcourse.reactorcourseapi.model.ProductEvent;
+import com.reactorcourse.reactorcourseapi.model.ProductEventType;
+import com.reactorcourse.reactorcourseapi.model.ProductStats;
+import com.reactorcourse.reactorcourseapi.ratelimit.ProductRateLimits;
+import com.reactorcourse.reactorcourseapi.repository.ProductQueries;
+import com.reactorcourse.reactorcourseapi.repository.ProductRepository;
+import io.rsocket.exceptions.RejectedException;
+import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.stereotype.Controller;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * The operations of ProductHandler over RSocket, on TCP (product.rsocket.tcp.port) and on WebSocket at /rsocket of
+ * the HTTP port. The data mime type is picked by the client at setup, application/cbor for the binary encoding or
+ * application/json.
+ * <p>
+ * request-response: products.get.{id}, products.save, products.update.{id}, products.delete.{id}, products.clear
+ * <br>
+ * request-stream: products, products.search, products.top, products.stats, products.events
+ * <br>
+ * request-channel: products.bulk
+ * <p>
+ * Streams are sent as the requester asks for them (request(n) frames), the Mongo cursor and the bulk upload are only
+ * read that far ahead, so there's no paging here. Errors (unknown parameters, a stale version) reach the requester as
+ * an application error carrying the message.
+ * <p>
+ * The writes share the write rate limit of the HTTP routes (ProductRateLimits), each connection being one client. A
+ * write over the limit is refused with a REJECTED error before it reaches the repository.
+ */
+
+@Controller
+public class ProductRSocketController {
+
+	private final ProductRepository productRepository;
+
+	private final ProductEventBus productEventBus;
+
+	private final BulkProductLoader bulkProductLoader;
+
+	private final ProductRateLimits rateLimits;
+
+	public ProductRSocketController(ProductRepository productRepository, ProductEventBus productEventBus, BulkProductLoader bulkProductLoader,
+									ProductRateLimits rateLimits) {
+		this.productRepository = productRepository;
+		this.productEventBus = productEventBus;
+		this.bulkProductLoader = bulkProductLoader;
+		this.rateLimits = rateLimits;
+	}
+
+	@MessageMapping("products")
+	public Flux<Product> getAllProducts() {
+		return productRepository.findAll();
+	}
+
+	/**
+	 * @param parameters the query parameters of GET /products/search (name, prefix, minPrice, maxPrice, limit)
+	 */
+	@MessageMapping("products.search")
+	public Flux<Product> searchProducts(@Payload(required = false) Map<String, String> parameters) {
+		Map<String, String> p = parameters == null ? Collections.emptyMap() : parameters;
+
+		return Flux.defer(() -> productRepository.search(ProductQueries.search(p.get("name"), p.get("prefix"),
+				parse(p.get("minPrice"), Double::valueOf), parse(p.get("maxPrice"), Double::valueOf),
+				parse(p.get("limit"), Integer::valueOf))));
+	}
+
+	/**
+	 * @param parameters the query parameters of GET /products/top (by, order, limit)
+	 */
+	@MessageMapping("products.top")
+	public Flux<Product> getTopProducts(@Payload(required = false) Map<String, String> parameters) {
+		Map<String, String> p = parameters == null ? Collections.emptyMap() : parameters;
+
+		return Flux.defer(() -> productRepository.search(
+				ProductQueries.top(p.get("by"), p.get("order"), parse(p.get("limit"), Integer::valueOf))));
+	}
+
+	@MessageMapping("products.stats")
+	public Flux<ProductStats> getPriceStats(@Payload(required = false) Integer prefixLength) {
+		if (prefixLength != null && !ProductStats.isValidPrefixLength(prefixLength)) {
+			return Flux.error(new IllegalArgumentException("prefixLength must be between 1 and " + ProductStats.MAX_PREFIX_LENGTH));
+		}
+
+		return productRepository.priceStats(prefixLength);
+	}
+
+	/**
+	 * @param id
+	 * @return the product, empty when there is none with that id
+	 */
+	@MessageMapping("products.get.{id}")
+	public Mono<Product> getProduct(@DestinationVariable String id) {
+		return productRepository.findById(id);
+	}
+
+	@MessageMapping("products.save")
+	public Mono<Product> saveProduct(Product product, RSocketRequester requester) {
+		return admitWrite(requester)
+				.then(Mono.defer(() -> productRepository.save(product)))
+				.doOnNext(savedProduct -> productEventBus.publish(ProductEventType.CREATED, savedProduct));
+	}
+
+	/**
+	 * Same as ProductController.updateProduct, a stale version fails with an OptimisticLockingFailureException
+	 *
+	 * @param id
+	 * @param product
+	 * @return the updated product, empty when there is none with that id
+	 */
+	@MessageMapping("products.update.{id}")
+	public Mono<Product> updateProduct(@DestinationVariable String id, Product product, RSocketRequester requester) {
+		return admitWrite(requester)
+				.then(Mono.defer(() -> productRepository.update(id, product)))
+				.doOnNext(updatedProduct -> productEventBus.publish(ProductEventType.UPDATED, updatedProduct));
+	}
+
+	/**
+	 * @param id
+	 * @return whether there was a product with that id
+	 */
+	@MessageMapping("products.delete.{id}")
+	public Mono<Boolean> deleteProduct(@DestinationVariable String id, RSocketRequester requester) {
+		return admitWrite(requester)
+				.then(Mono.defer(() -> productRepository.removeById(id)))
+				.doOnNext(deleted -> {
+					if (deleted) {
+						productEventBus.publish(ProductEventType.DELETED, id);
+					}
+				});
+	}
+
+	@MessageMapping("products.clear")
+	public Mono<Void> deleteAllProducts(RSocketRequester requester) {
+		return admitWrite(requester)
+				.then(Mono.defer(productRepository::deleteAll))
+				.doOnSuccess(v -> productEventBus.publish(ProductEventType.CLEARED, (String) null));
+	}
+
+	/**
+	 * Slow requesters fall behind up to product.events.buffer-size events, see ProductEventBus.events
+	 */
+	@MessageMapping("products.events")
+	public Flux<ProductEvent> getProductEvents() {
+		return productEventBus.events();
+	}
+
+	/**
+	 * Upserts the products the requester streams in, in batches (see BulkProductLoader). The requester is asked for
+	 * more products only as batches get written. The whole channel counts as one write, like POST /products/bulk.
+	 *
+	 * @param products
+	 * @return one result per batch, in batch order
+	 */
+	@MessageMapping("products.bulk")
+	public Flux<BulkResult> saveProducts(Flux<Product> products, RSocketRequester requester) {
+		return admitWrite(requester)
+				.thenMany(Flux.defer(() -> bulkProductLoader.load(products)));
+	}
+
+	private Mono<Void> admitWrite(RSocketRequester requester) {
+		return Mono.defer(() -> {
+			///> The requester stands for the connection, it's the same object for every request on it
+			long retryAfter = rateLimits.writeRetryAfterSeconds("rsocket-" + Integer.toHexString(System.identityHashCode(requester)));
+			return retryAfter == 0
+					? Mono.empty()
+					: Mono.error(new RejectedException("Too many writes, retry after " + retryAfter + "s"));
+		});
+	}
+
+	private static <T> T parse(String value, Function<String, T> parser) {
+		return value == null ? null : parser.apply(value); // NumberFormatException is an IllegalArgumentException
+	}
+}
@@ -0,0 +1,96 @@
+package com.reactorcourse.reactorcourseapi.event;
+
+import com.reactorcourse.reactorcourseapi.model.Product;
+import com.reactorcourse.reactorcourseapi.model.ProductEvent;
+import com.reactorcourse.reactorcourseapi.model.ProductEventType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+/**
+ * Single hot source of product change events shared by every /events subscriber.
+ * <p>
+ * The write paths of the controller and the handler publish here, subscribers that join later only see what is
+ * published after they subscribed. Each subscriber gets its own bounded buffer, a slow one loses its oldest events
+ * instead of holding back the others.
+ */
+
+@Component
+public class ProductEventBus {
+    private final DirectProcessor<ProductEvent> processor = DirectProcessor.create();
+    private final FluxSink<ProductEvent> sink = processor.sink();
+    private final int bufferSize;
+    private final ProductMutationLog mutationLog;
+
+    private volatile long sequence;
+
+    public ProductEventBus(int bufferSize) {
+        this(bufferSize, null);
+    }
+
+    /**
+     * @param bufferSize
+     * @param mutationLog every published event is appended to it first, null when product.mutation-log.directory
+     *                    isn't set
+     */
+    @Autowired
+    public ProductEventBus(@Value("${product.events.buffer-size:256}") int bufferSize,
+                           @Nullable ProductMutationLog mutationLog) {
+        this.bufferSize = bufferSize;
+        this.mutationLog = mutationLog;
+    }
+
+    public void publish(ProductEventType eventType, String productId) {
+        publish(eventType, productId, null);
+    }
+
+    /**
+     * For writes that have the product at hand, so the ProductMutationLog records its name, price and version too.
+     *
+     * @param eventType
+     * @param product
+     */
+    public void publish(ProductEventType eventType, Product product) {
+        publish(eventType, product.getId(), product);
+    }
+
+    /**
+     * Synchronized so the sequence number and the emission happen together, otherwise two writers could hand out
+     * 5 and 6 and still emit them as 6, 5. The same goes for the order of the mutation log.
+     */
+    private synchronized void publish(ProductEventType eventType, String productId, Product product) {
+        long eventId = sequence + 1;
+        if (mutationLog != null) {
+            mutationLog.append(eventId, eventType, productId, product);
+        }
+        sequence = eventId;
+        sink.next(new ProductEvent(eventId, eventType, productId));
+    }
+
+    /**
+     * @return sequence number of the last published event, 0 before the first one
+     */
+    public long sequence() {
+        return sequence;
+    }
+
+    /**
+     * @return number of current events() subscriptions
+     */
+    public long subscriberCount() {
+        return processor.downstreamCount();
+    }
+
+    ///> metrics() records subscribers, event rate and stream duration under reactor.* with flow=product.events
+    public Flux<ProductEvent> events() {
+        return processor.onBackpressureBuffer(bufferSize, dropped -> {
+        }, BufferOverflowStrategy.DROP_OLDEST)
+                .name("product.events")
+                .metrics();
+    }
+}
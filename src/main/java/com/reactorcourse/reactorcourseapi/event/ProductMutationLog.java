@@ -0,0 +1,472 @@
+package com.reactorcourse.reactorcourseapi.event;
+
+import com.reactorcourse.reactorcourseapi.config.SchedulerConfig;
+import com.reactorcourse.reactorcourseapi.model.Product;
+import com.reactorcourse.reactorcourseapi.model.ProductEventType;
+import com.reactorcourse.reactorcourseapi.model.ProductMutation;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of every product mutation the ProductEventBus publishes, for audits and for rebuilding read models
+ * without scanning the collection. Off unless product.mutation-log.directory is set.
+ * <p>
+ * The log is a directory of segments (mutations-&lt;first offset&gt;.log), each a memory-mapped file of
+ * fixed-size records of RECORD_SIZE bytes, so the offset of a record is all it takes to find it. An append is a copy
+ * into the mapping under a lock, no system call. Making it durable is left to one fsync (force) every
+ * product.mutation-log.sync-interval covering everything appended since, a crash of the process loses nothing, a
+ * crash of the machine at most that interval. A full segment is followed by the next one, allocated ahead of time, and
+ * only the newest product.mutation-log.retained-segments are kept. Syncing, allocating, forcing a full segment and
+ * deleting old ones all happen on a thread of the log's own, appends (on the event loop, under the bus lock) never wait
+ * for the disk. Failures there are logged and counted in product.mutationlog.failures, tagged with the operation.
+ * <p>
+ * Each record carries a CRC32, on startup the last segment is scanned up to the first empty or torn record and
+ * appending continues there. Ids and names longer than their slot (ID_CAPACITY, NAME_CAPACITY bytes of UTF-8) are
+ * cut short, see ProductMutation.truncated.
+ */
+
+@Component
+@ConditionalOnExpression("!'${product.mutation-log.directory:}'.isEmpty()")
+public class ProductMutationLog implements DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(ProductMutationLog.class);
+
+    static final int RECORD_SIZE = 256;
+    static final int ID_CAPACITY = 48;
+    static final int NAME_CAPACITY = 164;
+
+    ///> Record layout, offsets within the record
+    private static final int CRC = 0;
+    private static final int TYPE = 4; // ordinal + 1, 0 is an empty slot
+    private static final int FLAGS = 5;
+    private static final int ID_LENGTH = 6; // -1 for null
+    private static final int NAME_LENGTH = 8; // -1 for null
+    private static final int TIMESTAMP = 12;
+    private static final int EVENT_ID = 20;
+    private static final int VERSION = 28;
+    private static final int PRICE = 36;
+    private static final int ID = 44;
+    private static final int NAME = ID + ID_CAPACITY;
+
+    private static final byte HAS_PRICE = 1;
+    private static final byte HAS_VERSION = 2;
+    private static final byte TRUNCATED = 4;
+
+    private static final String SEGMENT_PREFIX = "mutations-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final ProductEventType[] EVENT_TYPES = ProductEventType.values();
+
+    private final Path directory;
+    private final int segmentRecords;
+    private final int retainedSegments;
+    private final ConcurrentNavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>(); // by first offset
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final ByteBuffer text = ByteBuffer.allocate(Math.max(ID_CAPACITY, NAME_CAPACITY));
+    private final CRC32 crc = new CRC32();
+    private final Scheduler exportScheduler;
+    ///> Not newSingle, its thread counts as non-blocking and a force is anything but. One thread so the background
+    ///> work runs in order, an unbounded queue so a roll is never refused.
+    private final Scheduler syncScheduler = Schedulers.newBoundedElastic(1, Integer.MAX_VALUE, "product-mutation-log");
+    private final Disposable syncTask;
+    private final Counter appends;
+    private final Counter unpreparedRolls;
+    private final Timer syncs;
+    private final Counter syncFailures;
+    private final Counter allocateFailures;
+    private final Counter deleteFailures;
+
+    private volatile Segment head;
+    private volatile Segment next; // allocated ahead of the roll, null until then
+    private volatile long end;
+    private long syncedEnd; // only touched by sync
+
+    /**
+     * @param directory        created if missing, an existing log in it is continued
+     * @param segmentSize      rounded down to whole records
+     * @param retainedSegments
+     * @param syncInterval     how often appended records are forced to disk
+     * @param exportScheduler  readers run on it, see SchedulerConfig
+     * @param meterRegistry
+     * @throws IOException
+     */
+    public ProductMutationLog(@Value("${product.mutation-log.directory}") String directory,
+                              @Value("${product.mutation-log.segment-size:64MB}") DataSize segmentSize,
+                              @Value("${product.mutation-log.retained-segments:8}") int retainedSegments,
+                              @Value("${product.mutation-log.sync-interval:50ms}") Duration syncInterval,
+                              @Qualifier(SchedulerConfig.EXPORT) Scheduler exportScheduler,
+                              MeterRegistry meterRegistry) throws IOException {
+        long records = segmentSize.toBytes() / RECORD_SIZE;
+        if (records < 1 || records * RECORD_SIZE > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segment size has to be between " + RECORD_SIZE + " bytes and 2GB");
+        }
+        if (retainedSegments < 1) {
+            throw new IllegalArgumentException("At least one segment has to be retained");
+        }
+        this.directory = Paths.get(directory);
+        this.segmentRecords = (int) records;
+        this.retainedSegments = retainedSegments;
+        this.exportScheduler = exportScheduler;
+
+        Files.createDirectories(this.directory);
+        try (Stream<Path> files = Files.list(this.directory)) {
+            files.filter(file -> file.getFileName().toString().startsWith(SEGMENT_PREFIX))
+                    .filter(file -> file.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .forEach(file -> {
+                        Segment segment = Segment.open(file, base(file), 0);
+                        segments.put(segment.base, segment);
+                    });
+        }
+        if (segments.isEmpty()) {
+            segments.put(0L, Segment.open(segmentFile(0), 0, segmentRecords));
+        }
+        head = segments.lastEntry().getValue();
+        int recovered = head.recover();
+        ///> An empty segment behind another one is what a previous run allocated ahead, appending continues before it
+        while (recovered == 0 && segments.size() > 1) {
+            segments.pollLastEntry();
+            Files.deleteIfExists(head.file);
+            head = segments.lastEntry().getValue();
+            recovered = head.recover();
+        }
+        end = head.base + recovered;
+        syncedEnd = end;
+
+        this.appends = Counter.builder("product.mutationlog.appends")
+                .description("Product mutations appended to the log")
+                .register(meterRegistry);
+        this.unpreparedRolls = Counter.builder("product.mutationlog.rolls.unprepared")
+                .description("Full segments whose successor wasn't allocated yet, it was then allocated by the append")
+                .register(meterRegistry);
+        this.syncs = Timer.builder("product.mutationlog.sync")
+                .description("Forcing appended product mutations to disk")
+                .register(meterRegistry);
+        this.syncFailures = failures("sync", meterRegistry);
+        this.allocateFailures = failures("allocate", meterRegistry);
+        this.deleteFailures = failures("delete", meterRegistry);
+        long spareBase = head.base + head.records;
+        syncScheduler.schedule(() -> allocate(spareBase));
+        long interval = syncInterval.toMillis();
+        this.syncTask = syncScheduler.schedulePeriodically(this::sync, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Called by ProductEventBus.publish, in event order.
+     *
+     * @param eventId
+     * @param eventType
+     * @param productId null for CLEARED
+     * @param product   the product as written, null when not known (DELETED, CLEARED)
+     * @return the offset of the record
+     */
+    public synchronized long append(long eventId, ProductEventType eventType, String productId, Product product) {
+        if (end - head.base == head.records) {
+            roll();
+        }
+        long offset = end;
+        ByteBuffer writer = head.writer;
+        int position = (int) (offset - head.base) * RECORD_SIZE;
+
+        byte flags = 0;
+        if (putText(writer, position + ID, position + ID_LENGTH, productId, ID_CAPACITY)) {
+            flags |= TRUNCATED;
+        }
+        if (putText(writer, position + NAME, position + NAME_LENGTH, product == null ? null : product.getName(), NAME_CAPACITY)) {
+            flags |= TRUNCATED;
+        }
+        if (product != null && product.getPrice() != null) {
+            flags |= HAS_PRICE;
+            writer.putDouble(position + PRICE, product.getPrice());
+        }
+        if (product != null && product.getVersion() != null) {
+            flags |= HAS_VERSION;
+            writer.putLong(position + VERSION, product.getVersion());
+        }
+        writer.putLong(position + TIMESTAMP, System.currentTimeMillis());
+        writer.putLong(position + EVENT_ID, eventId);
+        writer.put(position + FLAGS, flags);
+        writer.put(position + TYPE, (byte) (eventType.ordinal() + 1));
+        writer.putInt(position + CRC, checksum(writer, position));
+
+        end = offset + 1;
+        appends.increment();
+        return offset;
+    }
+
+    /**
+     * Reads the log in order, one record per request, up to whatever has been appended by the time the reader gets
+     * there. Reading starts at the oldest retained record when fromOffset was already dropped by retention.
+     *
+     * @param fromOffset
+     * @return
+     */
+    public Flux<ProductMutation> read(long fromOffset) {
+        return Flux.<ProductMutation, Long>generate(() -> fromOffset, (offset, sink) -> {
+            Map.Entry<Long, Segment> segment;
+            while ((segment = segments.floorEntry(offset)) == null) {
+                offset = first(); // dropped by retention, possibly while reading
+            }
+            if (offset >= end) {
+                sink.complete();
+                return offset;
+            }
+            sink.next(segment.getValue().read(offset));
+            return offset + 1;
+        })
+                .subscribeOn(exportScheduler); // page faults on a mapping are disk reads
+    }
+
+    /**
+     * @return the offset of the oldest retained record
+     */
+    public long first() {
+        return segments.firstKey();
+    }
+
+    /**
+     * @return the offset the next record is appended at
+     */
+    public long end() {
+        return end;
+    }
+
+    ///> Group commit: one force for everything appended since the last one, a full segment is forced by the task roll hands off
+    void sync() {
+        long upTo = end;
+        if (upTo == syncedEnd) {
+            return;
+        }
+        try {
+            syncs.record(() -> head.buffer.force());
+            syncedEnd = upTo;
+        } catch (UncheckedIOException e) {
+            failed(syncFailures, "Syncing the product mutation log failed", e);
+        }
+    }
+
+    ///> Waits for the background work still queued (a roll, an allocation) before the last sync
+    @Override
+    public void destroy() {
+        syncTask.dispose();
+        Mono.fromRunnable(() -> {
+            sync();
+            Segment spare = next;
+            if (spare != null && spare.base > head.base) {
+                delete(spare);
+            }
+        })
+                .subscribeOn(syncScheduler)
+                .block();
+        syncScheduler.dispose();
+    }
+
+    ///> Under the append lock, only swaps segments in memory, the disk work is handed to the sync scheduler
+    private void roll() {
+        Segment full = head;
+        Segment rolled = next;
+        next = null;
+        if (rolled == null || rolled.base != end) {
+            unpreparedRolls.increment();
+            rolled = Segment.open(segmentFile(end), end, segmentRecords);
+        }
+        segments.put(rolled.base, rolled);
+        head = rolled;
+
+        List<Segment> dropped = new ArrayList<>();
+        while (segments.size() > retainedSegments) {
+            dropped.add(segments.pollFirstEntry().getValue());
+        }
+
+        long nextBase = rolled.base + rolled.records;
+        syncScheduler.schedule(() -> {
+            ///> The sync after the roll only covers the new head
+            try {
+                full.buffer.force();
+            } catch (UncheckedIOException e) {
+                failed(syncFailures, "Syncing the full product mutation log segment " + full.file + " failed", e);
+            }
+            dropped.forEach(this::delete);
+            allocate(nextBase);
+        });
+    }
+
+    private void allocate(long base) {
+        try {
+            next = Segment.open(segmentFile(base), base, segmentRecords);
+        } catch (UncheckedIOException e) {
+            failed(allocateFailures, "Allocating product mutation log segment " + segmentFile(base) + " failed", e);
+        }
+    }
+
+    private void delete(Segment segment) {
+        try {
+            Files.deleteIfExists(segment.file);
+        } catch (IOException e) {
+            failed(deleteFailures, "Deleting product mutation log segment " + segment.file + " failed", e);
+        }
+    }
+
+    private static void failed(Counter failures, String message, Exception e) {
+        failures.increment();
+        log.error(message, e);
+    }
+
+    private static Counter failures(String operation, MeterRegistry meterRegistry) {
+        return Counter.builder("product.mutationlog.failures")
+                .description("Failed background operations of the product mutation log (sync, allocate, delete)")
+                .tag("operation", operation)
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return whether value had to be cut short
+     */
+    private boolean putText(ByteBuffer writer, int position, int lengthPosition, String value, int capacity) {
+        if (value == null) {
+            writer.putShort(lengthPosition, (short) -1);
+            return false;
+        }
+        text.clear().limit(capacity);
+        ///> Encoding stops before the first character that doesn't fit, never in the middle of one
+        CoderResult result = encoder.reset().encode(CharBuffer.wrap(value), text, true);
+        text.flip();
+        writer.putShort(lengthPosition, (short) text.remaining());
+        writer.position(position);
+        writer.put(text);
+        return result.isOverflow();
+    }
+
+    private int checksum(ByteBuffer writer, int position) {
+        writer.limit(position + RECORD_SIZE).position(position + TYPE);
+        crc.reset();
+        crc.update(writer);
+        writer.limit(writer.capacity());
+        return (int) crc.getValue();
+    }
+
+    private Path segmentFile(long base) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, base, SEGMENT_SUFFIX));
+    }
+
+    private static long base(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static final class Segment {
+        private final Path file;
+        private final long base;
+        private final int records;
+        private final MappedByteBuffer buffer; // never repositioned, readers work on duplicates
+        private final ByteBuffer writer; // positioned by append, under the log's lock
+
+        private Segment(Path file, long base, MappedByteBuffer buffer) {
+            this.file = file;
+            this.base = base;
+            this.records = buffer.capacity() / RECORD_SIZE;
+            this.buffer = buffer;
+            this.writer = buffer.duplicate();
+        }
+
+        /**
+         * @param records size of a new segment, 0 to map an existing one as it is
+         */
+        private static Segment open(Path file, long base, int records) {
+            try (FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long size = records == 0 ? channel.size() / RECORD_SIZE * RECORD_SIZE : (long) records * RECORD_SIZE;
+                ///> The mapping stays valid once the channel is closed
+                return new Segment(file, base, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Finds the first empty or torn record and clears whatever was written past it, so a later crash can't
+         * bring back records that were never acknowledged.
+         *
+         * @return the number of intact records
+         */
+        private int recover() {
+            CRC32 crc = new CRC32();
+            int count = 0;
+            while (count < records && buffer.get(count * RECORD_SIZE + TYPE) != 0) {
+                ByteBuffer record = buffer.duplicate();
+                record.limit((count + 1) * RECORD_SIZE).position(count * RECORD_SIZE + TYPE);
+                crc.reset();
+                crc.update(record);
+                if ((int) crc.getValue() != buffer.getInt(count * RECORD_SIZE + CRC)) {
+                    break;
+                }
+                count++;
+            }
+            for (int slot = count; slot < records && buffer.get(slot * RECORD_SIZE + TYPE) != 0; slot++) {
+                buffer.put(slot * RECORD_SIZE + TYPE, (byte) 0);
+            }
+            return count;
+        }
+
+        private ProductMutation read(long offset) {
+            int position = (int) (offset - base) * RECORD_SIZE;
+            byte flags = buffer.get(position + FLAGS);
+            return new ProductMutation(
+                    offset,
+                    buffer.getLong(position + EVENT_ID),
+                    EVENT_TYPES[buffer.get(position + TYPE) - 1],
+                    buffer.getLong(position + TIMESTAMP),
+                    text(position + ID, buffer.getShort(position + ID_LENGTH)),
+                    text(position + NAME, buffer.getShort(position + NAME_LENGTH)),
+                    (flags & HAS_PRICE) != 0 ? buffer.getDouble(position + PRICE) : null,
+                    (flags & HAS_VERSION) != 0 ? buffer.getLong(position + VERSION) : null,
+                    (flags & TRUNCATED) != 0 ? Boolean.TRUE : null);
+        }
+
+        private String text(int position, short length) {
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            ByteBuffer view = buffer.duplicate();
+            view.position(position);
+            view.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
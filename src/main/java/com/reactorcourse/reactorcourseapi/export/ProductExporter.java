@@ -0,0 +1,279 @@
+package com.reactorcourse.reactorcourseapi.export;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import com.reactorcourse.reactorcourseapi.config.CodecConfig;
+import com.reactorcourse.reactorcourseapi.config.SchedulerConfig;
+import com.reactorcourse.reactorcourseapi.model.Product;
+import com.reactorcourse.reactorcourseapi.repository.ProductQueries;
+import com.reactorcourse.reactorcourseapi.repository.ProductRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.PooledDataBuffer;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The whole catalog as a gzip-compressed stream, used by GET /products/export and its functional twin.
+ * <p>
+ * Products are read off the Mongo cursor batchSize at a time (also the cursor batch size), each batch is serialized
+ * and compressed straight into one buffer of the given DataBufferFactory (pooled Netty buffers on the server) and only
+ * the next batch is requested once that buffer got written. The gzip stream is sync flushed after every batch, so the
+ * client can decompress what it got so far, and its trailer ends the last buffer. Memory use is about two batches,
+ * whatever the size of the catalog.
+ * <p>
+ * Compression runs on the export scheduler, not on the event loop. At the end of the stream the number of products,
+ * the bytes before and after compression and the throughput are logged and product.export (timer) and
+ * product.export.products are recorded, both tagged with the format.
+ */
+
+@Component
+public class ProductExporter {
+    public static final MediaType TEXT_CSV = new MediaType("text", "csv", StandardCharsets.UTF_8);
+
+    private static final Logger log = LoggerFactory.getLogger(ProductExporter.class);
+
+    private static final CsvSchema CSV_SCHEMA = CsvSchema.builder()
+            .addColumn("id")
+            .addColumn("name")
+            .addColumn("price", CsvSchema.ColumnType.NUMBER)
+            .addColumn("version", CsvSchema.ColumnType.NUMBER)
+            .setUseHeader(true)
+            .build();
+
+    public enum Format {
+        NDJSON(CodecConfig.APPLICATION_NDJSON), CSV(TEXT_CSV);
+
+        private final MediaType mediaType;
+
+        Format(MediaType mediaType) {
+            this.mediaType = mediaType;
+        }
+
+        public MediaType getMediaType() {
+            return mediaType;
+        }
+
+        /**
+         * @param format ndjson or csv (any case), ndjson when null
+         * @return
+         * @throws IllegalArgumentException for any other format
+         */
+        public static Format of(String format) {
+            if (format == null) {
+                return NDJSON;
+            }
+            try {
+                return valueOf(format.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown format '" + format + "', expected ndjson or csv");
+            }
+        }
+    }
+
+    private final ProductRepository productRepository;
+    private final ObjectWriter jsonWriter;
+    private final ObjectWriter csvWriter;
+    private final Scheduler exportScheduler;
+    private final int batchSize;
+    private final MeterRegistry meterRegistry;
+
+    public ProductExporter(ProductRepository productRepository,
+                           ObjectMapper objectMapper,
+                           @Qualifier(SchedulerConfig.EXPORT) Scheduler exportScheduler,
+                           @Value("${product.export.batch-size:1000}") int batchSize,
+                           MeterRegistry meterRegistry) {
+        this.productRepository = productRepository;
+        ///> Flushing per product would sync flush the gzip stream per product, it is flushed per batch instead
+        this.jsonWriter = objectMapper.writer()
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .withRootValueSeparator("");
+        this.csvWriter = new CsvMapper().writer(CSV_SCHEMA)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.exportScheduler = exportScheduler;
+        this.batchSize = batchSize;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * @param format
+     * @param bufferFactory the one of the response
+     * @return the gzip stream, released buffers when cancelled half way
+     */
+    public Flux<DataBuffer> export(Format format, DataBufferFactory bufferFactory) {
+        return Flux.using(() -> new Export(format, bufferFactory),
+                export -> productRepository.search(ProductQueries.export(batchSize))
+                        .buffer(batchSize)
+                        .publishOn(exportScheduler, 1)
+                        .map(export::write)
+                        .concatWith(Mono.fromCallable(export::finish).subscribeOn(exportScheduler))
+                        .doOnComplete(() -> report(export)),
+                Export::close)
+                .doOnDiscard(PooledDataBuffer.class, DataBufferUtils::release);
+    }
+
+    private void report(Export export) {
+        long nanos = System.nanoTime() - export.start;
+        long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos));
+        log.info("Exported {} products as {} in {} ms ({} products/s, {} bytes compressed to {})", export.products,
+                export.format, millis, export.products * 1000 / millis, export.gzip.bytesIn(), export.target.written);
+
+        String format = export.format.name().toLowerCase(Locale.ROOT);
+        Timer.builder("product.export")
+                .description("Exports of the whole catalog")
+                .tag("format", format)
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        Counter.builder("product.export.products")
+                .description("Products exported")
+                .tag("format", format)
+                .register(meterRegistry)
+                .increment(export.products);
+    }
+
+    /**
+     * One gzip stream written into a new buffer per batch. synchronized as close (on cancel) may come from another
+     * thread than the one writing.
+     */
+    private class Export {
+        private final Format format;
+        private final DataBufferFactory bufferFactory;
+        private final BufferOutputStream target = new BufferOutputStream();
+        private final long start = System.nanoTime();
+        private CountingGzipOutputStream gzip;
+        private JsonGenerator generator;
+        private long products;
+        private boolean closed;
+
+        Export(Format format, DataBufferFactory bufferFactory) {
+            this.format = format;
+            this.bufferFactory = bufferFactory;
+        }
+
+        ///> Opened along with the first buffer, the gzip header is written right away
+        private void open() throws IOException {
+            gzip = new CountingGzipOutputStream(target);
+            Writer writer = new OutputStreamWriter(gzip, StandardCharsets.UTF_8);
+            generator = (format == Format.CSV ? csvWriter : jsonWriter).getFactory().createGenerator(writer)
+                    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            if (format == Format.CSV) {
+                generator.setSchema(CSV_SCHEMA); // the header line is written along with the first product
+            }
+        }
+
+        synchronized DataBuffer write(List<Product> batch) {
+            return into(() -> {
+                ObjectWriter productWriter = format == Format.CSV ? csvWriter : jsonWriter;
+                for (Product product : batch) {
+                    productWriter.writeValue(generator, product);
+                    if (format == Format.NDJSON) {
+                        generator.writeRaw('\n');
+                    }
+                }
+                products += batch.size();
+                generator.flush(); // down to a sync flush of the gzip stream
+            });
+        }
+
+        synchronized DataBuffer finish() {
+            return into(() -> {
+                generator.flush();
+                gzip.finish();
+            });
+        }
+
+        ///> Only frees the Deflater, closing the generator or the streams would write the gzip trailer
+        synchronized void close() {
+            closed = true;
+            if (gzip != null) {
+                gzip.end();
+            }
+        }
+
+        private DataBuffer into(IoAction action) {
+            if (closed) {
+                throw new IllegalStateException("Export already closed");
+            }
+            DataBuffer buffer = bufferFactory.allocateBuffer();
+            target.buffer = buffer;
+            try {
+                if (gzip == null) {
+                    open();
+                }
+                action.run();
+                return buffer;
+            } catch (IOException e) {
+                DataBufferUtils.release(buffer);
+                throw new UncheckedIOException(e);
+            } catch (RuntimeException e) {
+                DataBufferUtils.release(buffer);
+                throw e;
+            } finally {
+                target.buffer = null;
+            }
+        }
+    }
+
+    private interface IoAction {
+        void run() throws IOException;
+    }
+
+    ///> Writes into whichever buffer is current, the buffer grows as needed
+    private static class BufferOutputStream extends OutputStream {
+        private DataBuffer buffer;
+        private long written;
+
+        @Override
+        public void write(int b) {
+            buffer.write((byte) b);
+            written++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            buffer.write(bytes, offset, length);
+            written += length;
+        }
+    }
+
+    private static class CountingGzipOutputStream extends GZIPOutputStream {
+
+        CountingGzipOutputStream(OutputStream out) throws IOException {
+            super(out, 8192, true);
+        }
+
+        long bytesIn() {
+            return def.getBytesRead();
+        }
+
+        void end() {
+            def.end();
+        }
+    }
+}
@@ -1,8 +1,25 @@
 package com.reactorcourse.reactorcourseapi.handler;
 
+import com.reactorcourse.reactorcourseapi.bulk.BulkProductLoader;
+import com.reactorcourse.reactorcourseapi.cache.ProductETags;
+import com.reactorcourse.reactorcourseapi.config.CodecConfig;
+import com.reactorcourse.reactorcourseapi.event.ProductEventBus;
+import com.reactorcourse.reactorcourseapi.export.ProductExporter;
+import com.reactorcourse.reactorcourseapi.model.BulkResult;
 import com.reactorcourse.reactorcourseapi.model.Product;
 import com.reactorcourse.reactorcourseapi.model.ProductEvent;
+import com.reactorcourse.reactorcourseapi.model.ProductEventType;
+import com.reactorcourse.reactorcourseapi.model.ProductLookup;
+import com.reactorcourse.reactorcourseapi.model.ProductPage;
+import com.reactorcourse.reactorcourseapi.model.ProductPatch;
+import com.reactorcourse.reactorcourseapi.model.ProductStats;
+import com.reactorcourse.reactorcourseapi.repository.ProductQueries;
 import com.reactorcourse.reactorcourseapi.repository.ProductRepository;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
@@ -11,7 +28,10 @@ import org.springframework.web.reactive.function.server.ServerResponse;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 
 import static org.springframework.web.reactive.function.BodyInserters.fromValue;
 
@@ -23,91 +43,385 @@ import static org.springframework.web.reactive.function.BodyInserters.fromValue;
 
 @Component
 public class ProductHandler {
+    ///> Negotiable besides JSON, in the handler the content type is set explicitly so the negotiation happens here
+    private static final List<MediaType> STREAM_TYPES =
+            Arrays.asList(CodecConfig.APPLICATION_NDJSON, CodecConfig.APPLICATION_SMILE, MediaType.APPLICATION_CBOR);
+
+    private static final List<MediaType> VALUE_TYPES =
+            Arrays.asList(CodecConfig.APPLICATION_SMILE, MediaType.APPLICATION_CBOR);
+
+    private static final ParameterizedTypeReference<Map<String, Object>> PATCH_BODY =
+            new ParameterizedTypeReference<Map<String, Object>>() {
+            };
+
+    private static final ParameterizedTypeReference<List<String>> ID_LIST =
+            new ParameterizedTypeReference<List<String>>() {
+            };
+
     private final ProductRepository productRepository;
 
-    public ProductHandler(ProductRepository productRepository) {
+    private final ProductEventBus productEventBus;
+
+    private final BulkProductLoader bulkProductLoader;
+
+    private final ProductExporter productExporter;
+
+    public ProductHandler(ProductRepository productRepository, ProductEventBus productEventBus, BulkProductLoader bulkProductLoader,
+                          ProductExporter productExporter) {
         this.productRepository = productRepository;
+        this.productEventBus = productEventBus;
+        this.bulkProductLoader = bulkProductLoader;
+        this.productExporter = productExporter;
     }
 
+    /**
+     * Streams application/x-ndjson when the client explicitly asks for it, see ProductController.getAllProducts.
+     * Smile and CBOR are negotiated the same way, fields is projected and the ETag checked the same way.
+     */
     public Mono<ServerResponse> getAllProducts(ServerRequest serverRequest) {
-        Flux<Product> products = productRepository.findAll();
+        Optional<String> fields = serverRequest.queryParam("fields");
+        long sequence = productEventBus.sequence();
+        ///> Checked after reading the sequence, an update is buffered before its event is published
+        String eTag = productRepository.hasPendingWrites() ? null : ProductETags.ofCollection(sequence, accept(serverRequest),
+                serverRequest.queryParam("after").orElse(null), fields.orElse(null));
+        if (eTag != null && serverRequest.exchange().checkNotModified(eTag)) {
+            return notModified(eTag);
+        }
+
+        String afterId;
+        Query query;
+        try {
+            afterId = ProductPage.decodeCursor(serverRequest.queryParam("after").orElse(null));
+            query = fields.isPresent() ? ProductQueries.withFields(ProductQueries.all(afterId), fields.get()) : null;
+        } catch (IllegalArgumentException e) {
+            return ServerResponse.badRequest().build();
+        }
+
+        Flux<Product> products;
+        if (query != null) {
+            products = productRepository.search(query);
+        } else {
+            products = afterId == null
+                    ? productRepository.findAll()
+                    : productRepository.findByIdGreaterThan(afterId, ProductRepository.ID_ORDER);
+        }
+
+        ServerResponse.BodyBuilder ok = ServerResponse.ok().contentType(responseType(serverRequest, STREAM_TYPES));
+        return (eTag == null ? ok : ok.eTag(eTag)).body(products, Product.class);
+    }
+
+    public Mono<ServerResponse> getProductPage(ServerRequest serverRequest) {
+        String afterId;
+        int limit;
+        try {
+            afterId = ProductPage.decodeCursor(serverRequest.queryParam("after").orElse(null));
+            limit = Integer.parseInt(serverRequest.queryParam("limit").orElse(""));
+        } catch (IllegalArgumentException e) { // NumberFormatException is an IllegalArgumentException as well
+            return ServerResponse.badRequest().build();
+        }
+
+        if (!ProductPage.isValidLimit(limit)) {
+            return ServerResponse.badRequest().build();
+        }
+
+        Mono<ProductPage> productPageMono = productRepository.findPage(afterId, limit)
+                .collectList()
+                .map(products -> ProductPage.of(products, limit));
+
+        return ServerResponse.ok()
+                .contentType(responseType(serverRequest, VALUE_TYPES))
+                .body(productPageMono, ProductPage.class);
+    }
+
+    /**
+     * See ProductController.getProductsById
+     */
+    public Mono<ServerResponse> getProductsById(ServerRequest serverRequest) {
+        List<String> ids;
+        try {
+            ids = ProductLookup.parseIds(serverRequest.queryParam("ids").orElse(""));
+        } catch (IllegalArgumentException e) {
+            return ServerResponse.badRequest().build();
+        }
+
+        return lookup(serverRequest, ids);
+    }
+
+    /**
+     * See ProductController.getProductsByIdWithLimit
+     */
+    public Mono<ServerResponse> getProductsByIdWithLimit(ServerRequest serverRequest) {
+        return ServerResponse.badRequest().build();
+    }
+
+    /**
+     * See ProductController.lookupProducts
+     */
+    public Mono<ServerResponse> lookupProducts(ServerRequest serverRequest) {
+        return serverRequest.bodyToMono(ID_LIST)
+                .flatMap(body -> {
+                    List<String> ids;
+                    try {
+                        ids = ProductLookup.checkIds(body);
+                    } catch (IllegalArgumentException e) {
+                        return ServerResponse.badRequest().build();
+                    }
+
+                    return lookup(serverRequest, ids);
+                })
+                .switchIfEmpty(ServerResponse.badRequest().build()); // no body
+    }
+
+    private Mono<ServerResponse> lookup(ServerRequest serverRequest, List<String> ids) {
+        Mono<ProductLookup> productLookupMono = productRepository.findAllByIdInChunks(ids)
+                .collectList()
+                .map(products -> ProductLookup.of(ids, products));
+
+        return ServerResponse.ok()
+                .contentType(responseType(serverRequest, VALUE_TYPES))
+                .body(productLookupMono, ProductLookup.class);
+    }
+
+    /**
+     * See ProductController.searchProducts
+     */
+    public Mono<ServerResponse> searchProducts(ServerRequest serverRequest) {
+        Query query;
+        try {
+            query = ProductQueries.search(
+                    serverRequest.queryParam("name").orElse(null),
+                    serverRequest.queryParam("prefix").orElse(null),
+                    serverRequest.queryParam("minPrice").map(Double::valueOf).orElse(null),
+                    serverRequest.queryParam("maxPrice").map(Double::valueOf).orElse(null),
+                    serverRequest.queryParam("limit").map(Integer::valueOf).orElse(null));
+        } catch (IllegalArgumentException e) { // NumberFormatException included
+            return ServerResponse.badRequest().build();
+        }
+
+        return ServerResponse.ok()
+                .contentType(responseType(serverRequest, STREAM_TYPES))
+                .body(productRepository.search(query), Product.class);
+    }
+
+    /**
+     * See ProductController.getTopProducts
+     */
+    public Mono<ServerResponse> getTopProducts(ServerRequest serverRequest) {
+        Query query;
+        try {
+            query = ProductQueries.top(
+                    serverRequest.queryParam("by").orElse(null),
+                    serverRequest.queryParam("order").orElse(null),
+                    serverRequest.queryParam("limit").map(Integer::valueOf).orElse(null));
+        } catch (IllegalArgumentException e) {
+            return ServerResponse.badRequest().build();
+        }
+
+        return ServerResponse.ok()
+                .contentType(responseType(serverRequest, STREAM_TYPES))
+                .body(productRepository.search(query), Product.class);
+    }
+
+    /**
+     * See ProductController.getPriceStats
+     */
+    public Mono<ServerResponse> getPriceStats(ServerRequest serverRequest) {
+        Integer prefixLength;
+        try {
+            prefixLength = serverRequest.queryParam("prefixLength").map(Integer::valueOf).orElse(null);
+        } catch (IllegalArgumentException e) {
+            return ServerResponse.badRequest().build();
+        }
+        if (prefixLength != null && !ProductStats.isValidPrefixLength(prefixLength)) {
+            return ServerResponse.badRequest().build();
+        }
+
+        return ServerResponse.ok()
+                .contentType(responseType(serverRequest, STREAM_TYPES))
+                .body(productRepository.priceStats(prefixLength), ProductStats.class);
+    }
+
+    /**
+     * See ProductController.exportProducts, the buffers come from the factory of the response being written
+     */
+    public Mono<ServerResponse> exportProducts(ServerRequest serverRequest) {
+        ProductExporter.Format format;
+        try {
+            format = ProductExporter.Format.of(serverRequest.queryParam("format").orElse(null));
+        } catch (IllegalArgumentException e) {
+            return ServerResponse.badRequest().build();
+        }
 
         return ServerResponse.ok()
-                .contentType(MediaType.APPLICATION_JSON)
-                .body(products, Product.class);
+                .contentType(format.getMediaType())
+                .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .body((outputMessage, context) ->
+                        outputMessage.writeWith(productExporter.export(format, outputMessage.bufferFactory())));
     }
 
+    /**
+     * See ProductController.getProduct for fields and the ETag
+     */
     public Mono<ServerResponse> getProduct(ServerRequest serverRequest) {
         String id = serverRequest.pathVariable("id");
+        Optional<String> fields = serverRequest.queryParam("fields");
 
-        Mono<Product> productMono = productRepository.findById(id);
+        Mono<Product> productMono;
+        try {
+            productMono = fields.isPresent()
+                    ? productRepository.search(ProductQueries.withFields(ProductQueries.byId(id), fields.get())).next()
+                    : productRepository.findById(id);
+        } catch (IllegalArgumentException e) {
+            return ServerResponse.badRequest().build();
+        }
 
         ///> Use flatMap or map to incorporate the use of switchIfEmpty and defaultIfEmpty
         return productMono
-                .flatMap(product ->
-                        ServerResponse.ok()
-                                .contentType(MediaType.APPLICATION_JSON)
-                                .body(fromValue(product)))
+                .flatMap(product -> {
+                    String eTag = ProductETags.of(product, accept(serverRequest), fields.orElse(null));
+                    if (serverRequest.exchange().checkNotModified(eTag)) {
+                        return notModified(eTag);
+                    }
+                    return ServerResponse.ok()
+                            .contentType(responseType(serverRequest, VALUE_TYPES))
+                            .eTag(eTag)
+                            .body(fromValue(product));
+                })
                 .switchIfEmpty(ServerResponse.notFound().build()); // similar to defaultIfEmpty used in ProductController,
         // defaultIfEmpty take a simple object as default while
         // switchIfEmpty take a publisher implementation
         // (takes Mono or Flux depending on what you're working on)
     }
 
+    /**
+     * See ProductController.saveProduct
+     */
     public Mono<ServerResponse> saveProduct(ServerRequest serverRequest) {
         Mono<Product> productMono = serverRequest.bodyToMono(Product.class);
 
         return productMono
-                .flatMap(product ->
+                .flatMap(productRepository::save)
+                .doOnNext(savedProduct -> productEventBus.publish(ProductEventType.CREATED, savedProduct))
+                .flatMap(savedProduct ->
                         ServerResponse.status(HttpStatus.CREATED)
-                                .contentType(MediaType.APPLICATION_JSON)
-                                .body(productRepository.save(product), Product.class));
+                                .contentType(responseType(serverRequest, VALUE_TYPES))
+                                .body(fromValue(savedProduct)))
+                .onErrorResume(DuplicateKeyException.class, e -> ServerResponse.status(HttpStatus.CONFLICT).build());
+    }
+
+    public Mono<ServerResponse> saveProducts(ServerRequest serverRequest) {
+        Flux<BulkResult> results = bulkProductLoader.load(serverRequest.bodyToFlux(Product.class));
+
+        return ServerResponse.ok()
+                .contentType(responseType(serverRequest, STREAM_TYPES))
+                .body(results, BulkResult.class);
     }
 
+    /**
+     * Single round trip update, see ProductController.updateProduct
+     */
     public Mono<ServerResponse> updateProduct(ServerRequest serverRequest) {
         String id = serverRequest.pathVariable("id");
 
-        Mono<Product> existingProductMono = productRepository.findById(id);
         Mono<Product> productMono = serverRequest.bodyToMono(Product.class);
         Mono<ServerResponse> notFound = ServerResponse.notFound().build();
 
-        ///> Combine multiple mono operators
-        return productMono.zipWith(existingProductMono,
-                (product, existingProduct) ->
-                        new Product(existingProduct.getId(), product.getName(), product.getPrice())
-        ).flatMap(product ->
-                ServerResponse.ok()
-                        .contentType(MediaType.APPLICATION_JSON)
-                        .body(productRepository.save(product), Product.class)
-        ).switchIfEmpty(notFound);
+        return productMono
+                .flatMap(product -> productRepository.update(id, product))
+                .doOnNext(updatedProduct -> productEventBus.publish(ProductEventType.UPDATED, updatedProduct))
+                .flatMap(updatedProduct ->
+                        ServerResponse.ok()
+                                .contentType(responseType(serverRequest, VALUE_TYPES))
+                                .body(fromValue(updatedProduct)))
+                .switchIfEmpty(notFound)
+                .onErrorResume(OptimisticLockingFailureException.class, e ->
+                        ServerResponse.status(HttpStatus.CONFLICT).build());
+    }
+
+    /**
+     * See ProductController.patchProduct
+     */
+    public Mono<ServerResponse> patchProduct(ServerRequest serverRequest) {
+        String id = serverRequest.pathVariable("id");
+
+        return serverRequest.bodyToMono(PATCH_BODY)
+                .flatMap(body -> {
+                    ProductPatch patch;
+                    try {
+                        patch = ProductPatch.of(id, body);
+                    } catch (IllegalArgumentException e) {
+                        return ServerResponse.badRequest().build();
+                    }
+
+                    return productRepository.patch(id, patch)
+                            .doOnNext(result -> {
+                                if (result.isModified()) {
+                                    productEventBus.publish(ProductEventType.UPDATED, result.getProduct());
+                                }
+                            })
+                            .flatMap(result ->
+                                    ServerResponse.ok()
+                                            .contentType(responseType(serverRequest, VALUE_TYPES))
+                                            .body(fromValue(result.getProduct())))
+                            .switchIfEmpty(ServerResponse.notFound().build())
+                            .onErrorResume(OptimisticLockingFailureException.class, e ->
+                                    ServerResponse.status(HttpStatus.CONFLICT).build());
+                })
+                .switchIfEmpty(ServerResponse.badRequest().build()); // no body
     }
 
     public Mono<ServerResponse> deleteProduct(ServerRequest serverRequest) {
         String id = serverRequest.pathVariable("id");
 
-        Mono<Product> productMono = productRepository.findById(id);
-        Mono<ServerResponse> notFound = ServerResponse.notFound().build();
-
-        return productMono
-                .flatMap(product ->
-                        ServerResponse.ok()
-                                .build(productRepository.delete(product))
-                )
-                .switchIfEmpty(notFound);
+        return productRepository.removeById(id)
+                .flatMap(deleted -> {
+                    if (!deleted) {
+                        return ServerResponse.notFound().build();
+                    }
+                    productEventBus.publish(ProductEventType.DELETED, id);
+                    return ServerResponse.ok().build();
+                });
     }
 
     public Mono<ServerResponse> deleteAllProducts(ServerRequest serverRequest) {
         return ServerResponse.ok()
-                .build(productRepository.deleteAll());
+                .build(productRepository.deleteAll()
+                        .doOnSuccess(v -> productEventBus.publish(ProductEventType.CLEARED, (String) null)));
     }
 
     public Mono<ServerResponse> getProductEvents(ServerRequest serverRequest) {
-        Flux<ProductEvent> productEventFlux = Flux.interval(Duration.ofSeconds(1))
-                .map(val ->
-                        new ProductEvent(val, "Product Event"));
+        Flux<ProductEvent> productEventFlux = productEventBus.events();
 
         return ServerResponse.ok()
                 .contentType(MediaType.TEXT_EVENT_STREAM)
                 .body(productEventFlux, ProductEvent.class);
     }
+
+    /**
+     * The first of the candidates the client explicitly asks for, in the order of its Accept header, JSON otherwise
+     *
+     * @param serverRequest
+     * @param candidates
+     * @return
+     */
+    private static MediaType responseType(ServerRequest serverRequest, List<MediaType> candidates) {
+        for (MediaType accepted : serverRequest.headers().accept()) {
+            for (MediaType candidate : candidates) {
+                if (candidate.equalsTypeAndSubtype(accepted)) {
+                    return candidate;
+                }
+            }
+        }
+        return MediaType.APPLICATION_JSON;
+    }
+
+    ///> The raw Accept header, part of the ETag so each representation gets its own
+    private static String accept(ServerRequest serverRequest) {
+        return serverRequest.headers().asHttpHeaders().getFirst(HttpHeaders.ACCEPT);
+    }
+
+    ///> checkNotModified compared If-None-Match, the 304 carries the ETag again but no body
+    private static Mono<ServerResponse> notModified(String eTag) {
+        return ServerResponse.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+    }
 }
@@ -0,0 +1,37 @@
+package com.reactorcourse.reactorcourseapi.metrics;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+
+/**
+ * Pending tasks per Netty event loop, a growing queue means something is blocking or hogging the loop.
+ * <p>
+ * The loops are the ones shared by the Netty server and the WebClients (reactor-netty's global HttpResources).
+ */
+
+public class EventLoopMetrics implements MeterBinder {
+    private final EventLoopGroup eventLoopGroup;
+
+    public EventLoopMetrics(EventLoopGroup eventLoopGroup) {
+        this.eventLoopGroup = eventLoopGroup;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        int index = 0;
+        for (EventExecutor eventExecutor : eventLoopGroup) {
+            if (eventExecutor instanceof SingleThreadEventExecutor) {
+                Gauge.builder("netty.eventloop.pending.tasks", (SingleThreadEventExecutor) eventExecutor,
+                        SingleThreadEventExecutor::pendingTasks)
+                        .description("Tasks waiting to run on the event loop")
+                        .tag("eventloop", String.valueOf(index))
+                        .register(registry);
+            }
+            index++;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.reactorcourse.reactorcourseapi.metrics;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Number of requests currently being handled, exposed as the http.server.requests.active gauge.
+ * <p>
+ * Only a counter is touched per request, the gauge reads it when the registry is scraped.
+ */
+
+public class InFlightRequestsWebFilter implements WebFilter {
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public InFlightRequestsWebFilter(MeterRegistry meterRegistry) {
+        Gauge.builder("http.server.requests.active", inFlight, AtomicInteger::get)
+                .description("Requests currently being handled")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        inFlight.incrementAndGet();
+        return chain.filter(exchange)
+                .doFinally(signal -> inFlight.decrementAndGet());
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+}
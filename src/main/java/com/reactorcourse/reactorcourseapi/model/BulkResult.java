@@ -0,0 +1,72 @@
+package com.reactorcourse.reactorcourseapi.model;
+
+import java.util.Objects;
+
+/**
+ * Outcome of one batch of a bulk load, error is null when the whole batch was written.
+ */
+
+public class BulkResult {
+	private Long batch;
+
+	private Integer saved;
+
+	private String error;
+
+	public BulkResult() {
+	}
+
+	public BulkResult(Long batch, Integer saved, String error) {
+		this.batch = batch;
+		this.saved = saved;
+		this.error = error;
+	}
+
+	public Long getBatch() {
+		return batch;
+	}
+
+	public void setBatch(Long batch) {
+		this.batch = batch;
+	}
+
+	public Integer getSaved() {
+		return saved;
+	}
+
+	public void setSaved(Integer saved) {
+		this.saved = saved;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	public void setError(String error) {
+		this.error = error;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		BulkResult that = (BulkResult) o;
+		return Objects.equals(batch, that.batch) &&
+				Objects.equals(saved, that.saved) &&
+				Objects.equals(error, that.error);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(batch, saved, error);
+	}
+
+	@Override
+	public String toString() {
+		return "BulkResult{" +
+				"batch=" + batch +
+				", saved=" + saved +
+				", error='" + error + '\'' +
+				'}';
+	}
+}
@@ -1,6 +1,9 @@
 package com.reactorcourse.reactorcourseapi.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.util.Objects;
@@ -10,14 +13,26 @@ import java.util.Objects;
  */
 
 @Document
+@JsonInclude(JsonInclude.Include.NON_NULL) // fields left out of a projection (and a missing version) aren't written
 public class Product {
 	@Id
 	private String id;
 
+	///> Indexes back the name and price queries of ProductQueries, created at startup by ProductIndexInitializer
+	@Indexed
 	private String name;
 
+	@Indexed
 	private Double price;
 
+	/**
+	 * Optimistic locking, sending the version back on an update makes it fail with 409 if someone else updated the
+	 * product in the meantime. Left out (null) the update applies unconditionally. A save without a version is an
+	 * insert, POST with the id of an existing product is a 409.
+	 */
+	@Version
+	private Long version;
+
 	public Product() {
 	}
 
@@ -51,6 +66,14 @@ public class Product {
 		this.price = price;
 	}
 
+	public Long getVersion() {
+		return version;
+	}
+
+	public void setVersion(Long version) {
+		this.version = version;
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (this == o) return true;
@@ -58,12 +81,13 @@ public class Product {
 		Product product = (Product) o;
 		return Objects.equals(id, product.id) &&
 				Objects.equals(name, product.name) &&
-				Objects.equals(price, product.price);
+				Objects.equals(price, product.price) &&
+				Objects.equals(version, product.version);
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(id, name, price);
+		return Objects.hash(id, name, price, version);
 	}
 
 	@Override
@@ -72,6 +96,7 @@ public class Product {
 				"id='" + id + '\'' +
 				", name='" + name + '\'' +
 				", price=" + price +
+				", version=" + version +
 				'}';
 	}
 }
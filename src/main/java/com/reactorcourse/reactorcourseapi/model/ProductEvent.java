@@ -4,19 +4,24 @@ import java.util.Objects;
 
 /**
  * Created by Jonathan on 4/20/2020.
+ * <p>
+ * eventId is the sequence number handed out by the ProductEventBus, it only ever increases.
  */
 
 public class ProductEvent {
 	private Long eventId;
 
-	private String eventType;
+	private ProductEventType eventType;
+
+	private String productId;
 
 	public ProductEvent() {
 	}
 
-	public ProductEvent(Long eventId, String eventType) {
+	public ProductEvent(Long eventId, ProductEventType eventType, String productId) {
 		this.eventId = eventId;
 		this.eventType = eventType;
+		this.productId = productId;
 	}
 
 	public Long getEventId() {
@@ -27,33 +32,43 @@ public class ProductEvent {
 		this.eventId = eventId;
 	}
 
-	public String getEventType() {
+	public ProductEventType getEventType() {
 		return eventType;
 	}
 
-	public void setEventType(String eventType) {
+	public void setEventType(ProductEventType eventType) {
 		this.eventType = eventType;
 	}
 
+	public String getProductId() {
+		return productId;
+	}
+
+	public void setProductId(String productId) {
+		this.productId = productId;
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (this == o) return true;
 		if (o == null || getClass() != o.getClass()) return false;
 		ProductEvent that = (ProductEvent) o;
 		return Objects.equals(eventId, that.eventId) &&
-				Objects.equals(eventType, that.eventType);
+				eventType == that.eventType &&
+				Objects.equals(productId, that.productId);
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(eventId, eventType);
+		return Objects.hash(eventId, eventType, productId);
 	}
 
 	@Override
 	public String toString() {
 		return "ProductEvent{" +
 				"eventId=" + eventId +
-				", eventType='" + eventType + '\'' +
+				", eventType=" + eventType +
+				", productId='" + productId + '\'' +
 				'}';
 	}
 }
@@ -0,0 +1,12 @@
+package com.reactorcourse.reactorcourseapi.model;
+
+/**
+ * Kind of change a ProductEvent reports, CLEARED is published when all products are deleted at once.
+ */
+
+public enum ProductEventType {
+	CREATED,
+	UPDATED,
+	DELETED,
+	CLEARED
+}
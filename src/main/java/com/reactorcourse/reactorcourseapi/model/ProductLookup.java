@@ -0,0 +1,117 @@
+package com.reactorcourse.reactorcourseapi.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * The products of a batch lookup by id, in the order the ids were asked for (a repeated id only counts once), and the
+ * ids no product was found for.
+ */
+
+public class ProductLookup {
+	public static final int MAX_IDS = 1000;
+
+	private List<Product> products;
+
+	private List<String> missing;
+
+	public ProductLookup() {
+	}
+
+	public ProductLookup(List<Product> products, List<String> missing) {
+		this.products = products;
+		this.missing = missing;
+	}
+
+	/**
+	 * @param ids   as returned by checkIds
+	 * @param found the products found for ids, in any order
+	 * @return
+	 */
+	public static ProductLookup of(List<String> ids, Collection<Product> found) {
+		Map<String, Product> byId = found.stream().collect(Collectors.toMap(Product::getId, Function.identity(), (a, b) -> a));
+		List<Product> products = new ArrayList<>(byId.size());
+		List<String> missing = new ArrayList<>();
+		for (String id : ids) {
+			Product product = byId.get(id);
+			if (product != null) {
+				products.add(product);
+			} else {
+				missing.add(id);
+			}
+		}
+		return new ProductLookup(products, missing);
+	}
+
+	/**
+	 * @param ids comma separated, e.g. the ids query parameter
+	 * @return see checkIds
+	 */
+	public static List<String> parseIds(String ids) {
+		return checkIds(Arrays.asList(ids.split(",")));
+	}
+
+	/**
+	 * @param ids
+	 * @return the ids trimmed, without blank and repeated ones, in their order
+	 * @throws IllegalArgumentException when that leaves no id or more than MAX_IDS
+	 */
+	public static List<String> checkIds(List<String> ids) {
+		Set<String> distinct = new LinkedHashSet<>();
+		for (String id : ids) {
+			if (id != null && !id.trim().isEmpty()) {
+				distinct.add(id.trim());
+			}
+		}
+		if (distinct.isEmpty() || distinct.size() > MAX_IDS) {
+			throw new IllegalArgumentException("Expected between 1 and " + MAX_IDS + " ids");
+		}
+		return new ArrayList<>(distinct);
+	}
+
+	public List<Product> getProducts() {
+		return products;
+	}
+
+	public void setProducts(List<Product> products) {
+		this.products = products;
+	}
+
+	public List<String> getMissing() {
+		return missing;
+	}
+
+	public void setMissing(List<String> missing) {
+		this.missing = missing;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		ProductLookup that = (ProductLookup) o;
+		return Objects.equals(products, that.products) &&
+				Objects.equals(missing, that.missing);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(products, missing);
+	}
+
+	@Override
+	public String toString() {
+		return "ProductLookup{" +
+				"products=" + products +
+				", missing=" + missing +
+				'}';
+	}
+}
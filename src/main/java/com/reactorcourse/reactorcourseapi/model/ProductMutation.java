@@ -0,0 +1,156 @@
+package com.reactorcourse.reactorcourseapi.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.Objects;
+
+/**
+ * One record of the ProductMutationLog. offset is its position in the log, eventId the ProductEvent it was logged
+ * with. name, price and version are the product as written (null for DELETED and CLEARED), truncated is set when the
+ * id or the name didn't fit the fixed size record and was cut short.
+ */
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ProductMutation {
+	private Long offset;
+
+	private Long eventId;
+
+	private ProductEventType eventType;
+
+	private Long timestamp;
+
+	private String productId;
+
+	private String name;
+
+	private Double price;
+
+	private Long version;
+
+	private Boolean truncated;
+
+	public ProductMutation() {
+	}
+
+	public ProductMutation(Long offset, Long eventId, ProductEventType eventType, Long timestamp, String productId,
+						   String name, Double price, Long version, Boolean truncated) {
+		this.offset = offset;
+		this.eventId = eventId;
+		this.eventType = eventType;
+		this.timestamp = timestamp;
+		this.productId = productId;
+		this.name = name;
+		this.price = price;
+		this.version = version;
+		this.truncated = truncated;
+	}
+
+	public Long getOffset() {
+		return offset;
+	}
+
+	public void setOffset(Long offset) {
+		this.offset = offset;
+	}
+
+	public Long getEventId() {
+		return eventId;
+	}
+
+	public void setEventId(Long eventId) {
+		this.eventId = eventId;
+	}
+
+	public ProductEventType getEventType() {
+		return eventType;
+	}
+
+	public void setEventType(ProductEventType eventType) {
+		this.eventType = eventType;
+	}
+
+	public Long getTimestamp() {
+		return timestamp;
+	}
+
+	public void setTimestamp(Long timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	public String getProductId() {
+		return productId;
+	}
+
+	public void setProductId(String productId) {
+		this.productId = productId;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public Double getPrice() {
+		return price;
+	}
+
+	public void setPrice(Double price) {
+		this.price = price;
+	}
+
+	public Long getVersion() {
+		return version;
+	}
+
+	public void setVersion(Long version) {
+		this.version = version;
+	}
+
+	public Boolean getTruncated() {
+		return truncated;
+	}
+
+	public void setTruncated(Boolean truncated) {
+		this.truncated = truncated;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		ProductMutation that = (ProductMutation) o;
+		return Objects.equals(offset, that.offset) &&
+				Objects.equals(eventId, that.eventId) &&
+				eventType == that.eventType &&
+				Objects.equals(timestamp, that.timestamp) &&
+				Objects.equals(productId, that.productId) &&
+				Objects.equals(name, that.name) &&
+				Objects.equals(price, that.price) &&
+				Objects.equals(version, that.version) &&
+				Objects.equals(truncated, that.truncated);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(offset, eventId, eventType, timestamp, productId, name, price, version, truncated);
+	}
+
+	@Override
+	public String toString() {
+		return "ProductMutation{" +
+				"offset=" + offset +
+				", eventId=" + eventId +
+				", eventType=" + eventType +
+				", timestamp=" + timestamp +
+				", productId='" + productId + '\'' +
+				", name='" + name + '\'' +
+				", price=" + price +
+				", version=" + version +
+				", truncated=" + truncated +
+				'}';
+	}
+}
@@ -0,0 +1,100 @@
+package com.reactorcourse.reactorcourseapi.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * One page of products in _id order.
+ * <p>
+ * next is an opaque cursor to pass back as the after parameter to get the following page, it is null on the last
+ * page. The cursor is the base64 encoded id of the last product so the next page is a range query on the _id index
+ * (no skip).
+ */
+
+public class ProductPage {
+	public static final int MAX_LIMIT = 1000;
+
+	private List<Product> products;
+
+	private String next;
+
+	public ProductPage() {
+	}
+
+	public ProductPage(List<Product> products, String next) {
+		this.products = products;
+		this.next = next;
+	}
+
+	/**
+	 * A page shorter than the limit is the last one, a full page might still be followed by an empty one.
+	 *
+	 * @param products
+	 * @param limit
+	 * @return
+	 */
+	public static ProductPage of(List<Product> products, int limit) {
+		String next = products.size() < limit ? null : encodeCursor(products.get(products.size() - 1).getId());
+		return new ProductPage(products, next);
+	}
+
+	public static String encodeCursor(String id) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(id.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param cursor
+	 * @return the id the cursor points at, null for a null cursor
+	 * @throws IllegalArgumentException if the cursor isn't one handed out by encodeCursor
+	 */
+	public static String decodeCursor(String cursor) {
+		if (cursor == null) {
+			return null;
+		}
+		return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+	}
+
+	public static boolean isValidLimit(int limit) {
+		return limit > 0 && limit <= MAX_LIMIT;
+	}
+
+	public List<Product> getProducts() {
+		return products;
+	}
+
+	public void setProducts(List<Product> products) {
+		this.products = products;
+	}
+
+	public String getNext() {
+		return next;
+	}
+
+	public void setNext(String next) {
+		this.next = next;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		ProductPage that = (ProductPage) o;
+		return Objects.equals(products, that.products) &&
+				Objects.equals(next, that.next);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(products, next);
+	}
+
+	@Override
+	public String toString() {
+		return "ProductPage{" +
+				"products=" + products +
+				", next='" + next + '\'' +
+				'}';
+	}
+}
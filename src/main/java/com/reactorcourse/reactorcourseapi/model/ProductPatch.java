@@ -0,0 +1,175 @@
+package com.reactorcourse.reactorcourseapi.model;
+
+import org.springframework.http.MediaType;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A JSON merge patch (RFC 7396) of a product: a property with a value sets it, a property with null removes it and an
+ * absent one is left alone. name and price can be patched, a version is only compared with the stored one (409 on a
+ * mismatch, like an update) and an id has to be the one of the patched product.
+ * <p>
+ * Turned into a $set/$unset of just the patched properties, see ProductRepositoryCustom.patch.
+ */
+
+public final class ProductPatch {
+	public static final String MEDIA_TYPE_VALUE = "application/merge-patch+json";
+
+	public static final MediaType MEDIA_TYPE = MediaType.valueOf(MEDIA_TYPE_VALUE);
+
+	private final Map<String, Object> set;
+
+	private final Set<String> unset;
+
+	private final Long version;
+
+	private ProductPatch(Map<String, Object> set, Set<String> unset, Long version) {
+		this.set = Collections.unmodifiableMap(set);
+		this.unset = Collections.unmodifiableSet(unset);
+		this.version = version;
+	}
+
+	/**
+	 * @param id   of the patched product
+	 * @param body the decoded JSON object
+	 * @return
+	 * @throws IllegalArgumentException for an unknown property, a value of the wrong type or another id
+	 */
+	public static ProductPatch of(String id, Map<String, Object> body) {
+		Map<String, Object> set = new LinkedHashMap<>();
+		Set<String> unset = new LinkedHashSet<>();
+		Long version = null;
+
+		for (Map.Entry<String, Object> property : body.entrySet()) {
+			Object value = property.getValue();
+			switch (property.getKey()) {
+				case "id":
+					if (!id.equals(value)) {
+						throw new IllegalArgumentException("The id can't be changed");
+					}
+					break;
+				case "name":
+					if (value != null && !(value instanceof String)) {
+						throw new IllegalArgumentException("name has to be a string");
+					}
+					put(set, unset, "name", value);
+					break;
+				case "price":
+					if (value != null && !(value instanceof Number)) {
+						throw new IllegalArgumentException("price has to be a number");
+					}
+					put(set, unset, "price", value == null ? null : ((Number) value).doubleValue());
+					break;
+				case "version":
+					if (value != null && !(value instanceof Integer || value instanceof Long)) {
+						throw new IllegalArgumentException("version has to be an integer");
+					}
+					version = value == null ? null : ((Number) value).longValue();
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown property '" + property.getKey()
+							+ "', expected some of [id, name, price, version]");
+			}
+		}
+		return new ProductPatch(set, unset, version);
+	}
+
+	private static void put(Map<String, Object> set, Set<String> unset, String property, Object value) {
+		if (value == null) {
+			unset.add(property);
+		} else {
+			set.put(property, value);
+		}
+	}
+
+	/**
+	 * @return the properties to set and their values
+	 */
+	public Map<String, Object> getSet() {
+		return set;
+	}
+
+	/**
+	 * @return the properties to remove
+	 */
+	public Set<String> getUnset() {
+		return unset;
+	}
+
+	/**
+	 * @return the version the stored product has to have, null to patch unconditionally
+	 */
+	public Long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @param product
+	 * @return whether applying this patch would change product
+	 */
+	public boolean changes(Product product) {
+		for (Map.Entry<String, Object> property : set.entrySet()) {
+			if (!Objects.equals(property.getValue(), get(product, property.getKey()))) {
+				return true;
+			}
+		}
+		for (String property : unset) {
+			if (get(product, property) != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param product left as it is
+	 * @return a copy of product with this patch applied, same version
+	 */
+	public Product applyTo(Product product) {
+		Product patched = new Product(product.getId(),
+				set.containsKey("name") ? (String) set.get("name") : unset.contains("name") ? null : product.getName(),
+				set.containsKey("price") ? (Double) set.get("price") : unset.contains("price") ? null : product.getPrice());
+		patched.setVersion(product.getVersion());
+		return patched;
+	}
+
+	private static Object get(Product product, String property) {
+		return "name".equals(property) ? product.getName() : product.getPrice();
+	}
+
+	@Override
+	public String toString() {
+		return "ProductPatch{" +
+				"set=" + set +
+				", unset=" + unset +
+				", version=" + version +
+				'}';
+	}
+
+	/**
+	 * The product after a patch, modified is false when the patch didn't change anything and nothing was written.
+	 */
+	public static final class Result {
+		private final Product product;
+
+		private final boolean modified;
+
+		public Result(Product product, boolean modified) {
+			this.product = product;
+			this.modified = modified;
+		}
+
+		public Product getProduct() {
+			return product;
+		}
+
+		public boolean isModified() {
+			return modified;
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package com.reactorcourse.reactorcourseapi.model;
+
+import java.util.Objects;
+
+/**
+ * Price statistics of the products, either of all of them (group is null) or of those whose name starts with group.
+ * <p>
+ * Percentiles are nearest-rank: p90 is the lowest price that at least 90% of the products don't exceed. Products
+ * without a price are left out.
+ */
+
+public class ProductStats {
+	public static final int MAX_PREFIX_LENGTH = 32;
+
+	private String group;
+
+	private Long count;
+
+	private Double min;
+
+	private Double max;
+
+	private Double avg;
+
+	private Double p50;
+
+	private Double p90;
+
+	private Double p95;
+
+	private Double p99;
+
+	public ProductStats() {
+	}
+
+	public ProductStats(String group, Long count, Double min, Double max, Double avg, Double p50, Double p90, Double p95, Double p99) {
+		this.group = group;
+		this.count = count;
+		this.min = min;
+		this.max = max;
+		this.avg = avg;
+		this.p50 = p50;
+		this.p90 = p90;
+		this.p95 = p95;
+		this.p99 = p99;
+	}
+
+	public static boolean isValidPrefixLength(int prefixLength) {
+		return prefixLength > 0 && prefixLength <= MAX_PREFIX_LENGTH;
+	}
+
+	public String getGroup() {
+		return group;
+	}
+
+	public void setGroup(String group) {
+		this.group = group;
+	}
+
+	public Long getCount() {
+		return count;
+	}
+
+	public void setCount(Long count) {
+		this.count = count;
+	}
+
+	public Double getMin() {
+		return min;
+	}
+
+	public void setMin(Double min) {
+		this.min = min;
+	}
+
+	public Double getMax() {
+		return max;
+	}
+
+	public void setMax(Double max) {
+		this.max = max;
+	}
+
+	public Double getAvg() {
+		return avg;
+	}
+
+	public void setAvg(Double avg) {
+		this.avg = avg;
+	}
+
+	public Double getP50() {
+		return p50;
+	}
+
+	public void setP50(Double p50) {
+		this.p50 = p50;
+	}
+
+	public Double getP90() {
+		return p90;
+	}
+
+	public void setP90(Double p90) {
+		this.p90 = p90;
+	}
+
+	public Double getP95() {
+		return p95;
+	}
+
+	public void setP95(Double p95) {
+		this.p95 = p95;
+	}
+
+	public Double getP99() {
+		return p99;
+	}
+
+	public void setP99(Double p99) {
+		this.p99 = p99;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		ProductStats that = (ProductStats) o;
+		return Objects.equals(group, that.group) &&
+				Objects.equals(count, that.count) &&
+				Objects.equals(min, that.min) &&
+				Objects.equals(max, that.max) &&
+				Objects.equals(avg, that.avg) &&
+				Objects.equals(p50, that.p50) &&
+				Objects.equals(p90, that.p90) &&
+				Objects.equals(p95, that.p95) &&
+				Objects.equals(p99, that.p99);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(group, count, min, max, avg, p50, p90, p95, p99);
+	}
+
+	@Override
+	public String toString() {
+		return "ProductStats{" +
+				"group='" + group + '\'' +
+				", count=" + count +
+				", min=" + min +
+				", max=" + max +
+				", avg=" + avg +
+				", p50=" + p50 +
+				", p90=" + p90 +
+				", p95=" + p95 +
+				", p99=" + p99 +
+				'}';
+	}
+}
@@ -0,0 +1,137 @@
+package com.reactorcourse.reactorcourseapi.model;
+
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Winning plan of one query as chosen by the Mongo query planner, flattened for a quick look.
+ * <p>
+ * stages lists the plan stages from the outermost one inwards (e.g. LIMIT, FETCH, IXSCAN), collectionScan is true as
+ * soon as one of them is a COLLSCAN.
+ */
+
+public class QueryPlan {
+	private String query;
+
+	private String filter;
+
+	private List<String> stages;
+
+	private List<String> indexes;
+
+	private boolean collectionScan;
+
+	public QueryPlan() {
+	}
+
+	public QueryPlan(String query, String filter, List<String> stages, List<String> indexes, boolean collectionScan) {
+		this.query = query;
+		this.filter = filter;
+		this.stages = stages;
+		this.indexes = indexes;
+		this.collectionScan = collectionScan;
+	}
+
+	/**
+	 * @param query   name of the query
+	 * @param filter  the filter that was explained
+	 * @param explain result of the explain command (queryPlanner verbosity)
+	 * @return
+	 */
+	public static QueryPlan of(String query, Document filter, Document explain) {
+		List<String> stages = new ArrayList<>();
+		List<String> indexes = new ArrayList<>();
+		Document queryPlanner = explain.get("queryPlanner", Document.class);
+		collect(queryPlanner == null ? null : queryPlanner.get("winningPlan", Document.class), stages, indexes);
+
+		return new QueryPlan(query, filter.toJson(), stages, indexes, stages.contains("COLLSCAN"));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void collect(Document stage, List<String> stages, List<String> indexes) {
+		if (stage == null) {
+			return;
+		}
+		stages.add(stage.getString("stage"));
+		if (stage.containsKey("indexName")) {
+			indexes.add(stage.getString("indexName"));
+		}
+
+		collect(stage.get("inputStage", Document.class), stages, indexes);
+		List<Document> inputStages = stage.get("inputStages", List.class);
+		if (inputStages != null) {
+			inputStages.forEach(inputStage -> collect(inputStage, stages, indexes));
+		}
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	public void setQuery(String query) {
+		this.query = query;
+	}
+
+	public String getFilter() {
+		return filter;
+	}
+
+	public void setFilter(String filter) {
+		this.filter = filter;
+	}
+
+	public List<String> getStages() {
+		return stages;
+	}
+
+	public void setStages(List<String> stages) {
+		this.stages = stages;
+	}
+
+	public List<String> getIndexes() {
+		return indexes;
+	}
+
+	public void setIndexes(List<String> indexes) {
+		this.indexes = indexes;
+	}
+
+	public boolean isCollectionScan() {
+		return collectionScan;
+	}
+
+	public void setCollectionScan(boolean collectionScan) {
+		this.collectionScan = collectionScan;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		QueryPlan that = (QueryPlan) o;
+		return collectionScan == that.collectionScan &&
+				Objects.equals(query, that.query) &&
+				Objects.equals(filter, that.filter) &&
+				Objects.equals(stages, that.stages) &&
+				Objects.equals(indexes, that.indexes);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(query, filter, stages, indexes, collectionScan);
+	}
+
+	@Override
+	public String toString() {
+		return "QueryPlan{" +
+				"query='" + query + '\'' +
+				", filter='" + filter + '\'' +
+				", stages=" + stages +
+				", indexes=" + indexes +
+				", collectionScan=" + collectionScan +
+				'}';
+	}
+}
@@ -0,0 +1,96 @@
+package com.reactorcourse.reactorcourseapi.ratelimit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Per client admission control of the product routes, shared by RateLimitWebFilter (annotated controller),
+ * RateLimitHandlerFilter (functional routes) and the write routes of ProductRSocketController.
+ * <p>
+ * Reads (GET, HEAD and the POST .../lookup by ids, which only carries its ids in the body) and writes (everything
+ * else) are limited separately, a null RateLimiter leaves that group unlimited. HTTP clients are told apart by the clientHeader request header, by their remote address without it.
+ */
+
+public class ProductRateLimits {
+    private static final String LOOKUP = "/lookup";
+
+    private final RateLimiter reads;
+    private final RateLimiter writes;
+    private final String clientHeader;
+    private final Counter readsRejected;
+    private final Counter writesRejected;
+
+    public ProductRateLimits(RateLimiter reads, RateLimiter writes, String clientHeader, MeterRegistry meterRegistry) {
+        this.reads = reads;
+        this.writes = writes;
+        this.clientHeader = clientHeader;
+        ///> Registered up front, a rejection only increments
+        this.readsRejected = reads == null ? null : rejectedCounter(reads, meterRegistry);
+        this.writesRejected = writes == null ? null : rejectedCounter(writes, meterRegistry);
+    }
+
+    private static Counter rejectedCounter(RateLimiter rateLimiter, MeterRegistry meterRegistry) {
+        return Counter.builder("product.ratelimit.rejected")
+                .description("Requests over the limit, answered with 429 over HTTP")
+                .tag("group", rateLimiter.getGroup())
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param request
+     * @return 0 when admitted, otherwise the seconds the client should wait (Retry-After), at least 1
+     */
+    public long retryAfterSeconds(ServerHttpRequest request) {
+        return retryAfterSeconds(isRead(request) ? reads : writes, () -> client(request));
+    }
+
+    ///> Matches /products/lookup and /functional-products/lookup
+    private static boolean isRead(ServerHttpRequest request) {
+        HttpMethod method = request.getMethod();
+        return method == HttpMethod.GET || method == HttpMethod.HEAD
+                || method == HttpMethod.POST && request.getPath().pathWithinApplication().value().endsWith(LOOKUP);
+    }
+
+    /**
+     * For writes that don't come in as HTTP requests (RSocket), named by the caller.
+     *
+     * @param client
+     * @return 0 when admitted, otherwise the seconds the client should wait, at least 1
+     */
+    public long writeRetryAfterSeconds(String client) {
+        return retryAfterSeconds(writes, () -> client);
+    }
+
+    private long retryAfterSeconds(RateLimiter rateLimiter, Supplier<String> client) {
+        if (rateLimiter == null) {
+            return 0;
+        }
+
+        long waitNanos = rateLimiter.tryAcquire(client.get());
+        if (waitNanos == 0) {
+            return 0;
+        }
+
+        (rateLimiter == reads ? readsRejected : writesRejected).increment();
+        return Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+    }
+
+    String client(ServerHttpRequest request) {
+        String client = request.getHeaders().getFirst(clientHeader);
+        if (client != null && !client.isEmpty()) {
+            return client;
+        }
+
+        InetSocketAddress remoteAddress = request.getRemoteAddress();
+        if (remoteAddress == null) {
+            return "unknown";
+        }
+        return remoteAddress.getAddress() != null ? remoteAddress.getAddress().getHostAddress() : remoteAddress.getHostString();
+    }
+}
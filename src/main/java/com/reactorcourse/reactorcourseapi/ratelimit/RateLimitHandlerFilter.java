@@ -0,0 +1,33 @@
+package com.reactorcourse.reactorcourseapi.ratelimit;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.server.HandlerFilterFunction;
+import org.springframework.web.reactive.function.server.HandlerFunction;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+
+/**
+ * Applies ProductRateLimits to the /functional-products routes, see RateLimitWebFilter.
+ */
+
+public class RateLimitHandlerFilter implements HandlerFilterFunction<ServerResponse, ServerResponse> {
+    private final ProductRateLimits rateLimits;
+
+    public RateLimitHandlerFilter(ProductRateLimits rateLimits) {
+        this.rateLimits = rateLimits;
+    }
+
+    @Override
+    public Mono<ServerResponse> filter(ServerRequest request, HandlerFunction<ServerResponse> next) {
+        long retryAfter = rateLimits.retryAfterSeconds(request.exchange().getRequest());
+        if (retryAfter == 0) {
+            return next.handle(request);
+        }
+
+        return ServerResponse.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter))
+                .build();
+    }
+}
@@ -0,0 +1,40 @@
+package com.reactorcourse.reactorcourseapi.ratelimit;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+/**
+ * Applies ProductRateLimits to the annotated controller's /products routes, a rejected request is answered with 429
+ * and Retry-After without reaching the controller.
+ */
+
+public class RateLimitWebFilter implements WebFilter {
+    private static final String PATH = "/products";
+
+    private final ProductRateLimits rateLimits;
+
+    public RateLimitWebFilter(ProductRateLimits rateLimits) {
+        this.rateLimits = rateLimits;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        String path = exchange.getRequest().getPath().pathWithinApplication().value();
+        if (!path.equals(PATH) && !path.startsWith(PATH + "/")) {
+            return chain.filter(exchange);
+        }
+
+        long retryAfter = rateLimits.retryAfterSeconds(exchange.getRequest());
+        if (retryAfter == 0) {
+            return chain.filter(exchange);
+        }
+
+        exchange.getResponse().setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+        exchange.getResponse().getHeaders().set(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter));
+        return exchange.getResponse().setComplete();
+    }
+}
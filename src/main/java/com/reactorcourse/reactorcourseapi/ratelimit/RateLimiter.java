@@ -0,0 +1,55 @@
+package com.reactorcourse.reactorcourseapi.ratelimit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * One TokenBucket per client for a group of routes.
+ * <p>
+ * Buckets live in a Caffeine cache (lock-free reads of existing entries) and are dropped once unused for as long as
+ * they take to fill up, a fresh bucket for a returning client is then indistinguishable from the old one. The
+ * maximum size caps the memory a flood of made-up client ids can take.
+ */
+
+public class RateLimiter {
+    private static final long MAXIMUM_CLIENTS = 100_000;
+
+    private final String group;
+    private final long capacity;
+    private final double tokensPerSecond;
+    private final LongSupplier nanoTime;
+    private final Cache<String, TokenBucket> buckets;
+
+    public RateLimiter(String group, long capacity, double tokensPerSecond) {
+        this(group, capacity, tokensPerSecond, System::nanoTime);
+    }
+
+    RateLimiter(String group, long capacity, double tokensPerSecond, LongSupplier nanoTime) {
+        this.group = group;
+        this.capacity = capacity;
+        this.tokensPerSecond = tokensPerSecond;
+        this.nanoTime = nanoTime;
+
+        long refillNanos = new TokenBucket(capacity, tokensPerSecond, 0).refillNanos();
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(MAXIMUM_CLIENTS)
+                .expireAfterAccess(Duration.ofNanos(refillNanos))
+                .build();
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    /**
+     * @param client
+     * @return 0 when the request is admitted, otherwise the nanos until the client may try again
+     */
+    public long tryAcquire(String client) {
+        long now = nanoTime.getAsLong();
+        return buckets.get(client, key -> new TokenBucket(capacity, tokensPerSecond, now)).tryConsume(now);
+    }
+}
@@ -0,0 +1,56 @@
+package com.reactorcourse.reactorcourseapi.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket holding up to capacity tokens, refilled at tokensPerSecond.
+ * <p>
+ * Kept in the GCRA form: instead of a token count and a refill time the whole state is the time at which the bucket
+ * would be full again (theoretical arrival time), a single long updated with compareAndSet. No lock and no allocation
+ * per request, so it is safe to call from the event loop.
+ */
+
+public class TokenBucket {
+    private final long nanosPerToken;
+    private final long burstNanos;
+    private final AtomicLong theoreticalArrival;
+
+    /**
+     * @param capacity        burst size, at least 1
+     * @param tokensPerSecond refill rate
+     * @param now             System.nanoTime() at creation, the bucket starts full
+     */
+    public TokenBucket(long capacity, double tokensPerSecond, long now) {
+        if (capacity < 1 || tokensPerSecond <= 0) {
+            throw new IllegalArgumentException("capacity and tokensPerSecond must be positive");
+        }
+        this.nanosPerToken = Math.max(1, (long) (1_000_000_000L / tokensPerSecond));
+        this.burstNanos = (capacity - 1) * nanosPerToken;
+        this.theoreticalArrival = new AtomicLong(now);
+    }
+
+    /**
+     * @param now System.nanoTime()
+     * @return 0 when a token was taken, otherwise the nanos until the next one is available (nothing taken)
+     */
+    public long tryConsume(long now) {
+        while (true) {
+            long arrival = theoreticalArrival.get();
+            long start = Math.max(arrival, now);
+            long wait = start - now - burstNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (theoreticalArrival.compareAndSet(arrival, start + nanosPerToken)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * @return nanos an unused bucket takes to fill up completely, after that it is as good as a new one
+     */
+    public long refillNanos() {
+        return burstNanos + nanosPerToken;
+    }
+}
@@ -0,0 +1,384 @@
+package com.reactorcourse.reactorcourseapi.repository;
+
+import com.reactorcourse.reactorcourseapi.cache.ProductCache;
+import com.reactorcourse.reactorcourseapi.cache.SingleFlight;
+import com.reactorcourse.reactorcourseapi.model.Product;
+import com.reactorcourse.reactorcourseapi.model.ProductPatch;
+import com.reactorcourse.reactorcourseapi.model.ProductStats;
+import com.reactorcourse.reactorcourseapi.model.QueryPlan;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Read-through cache in front of the Mongo backed ProductRepository.
+ * <p>
+ * Marked as Primary so the controller, the handler and everything else autowiring a ProductRepository goes through the
+ * cache. findById is served from the cache, every write drops the entries it touched once the write is done.
+ * <p>
+ * Concurrent findById calls for the same id are coalesced into one lookup (SingleFlight) before they reach the cache,
+ * so a burst on one product costs a single cache miss and Mongo query however large it is. The calls that joined
+ * are counted as product.reads.coalesced.
+ * <p>
+ * priceStats results are kept per prefixLength for product.stats.time-to-live and dropped on every write, inserts
+ * included. A write during a computation drops the entry so later callers compute again, those already waiting get
+ * the result that was in the making when they asked. Failures aren't kept.
+ * <p>
+ * With product.write-behind.window set (off by default) updates without a version are buffered and coalesced per
+ * product, see ProductWriteBehind, and findById serves the buffered product until it is written. Updates with a
+ * version and patches write the buffered one first and then go straight to Mongo. Other writes of a product drop its buffered
+ * update. What is buffered gets written on shutdown.
+ * <p>
+ * Only findById (and the lookups by ids built on it) read buffered updates back. The listings, search, the export
+ * and priceStats read Mongo and see an update once it is written, until then hasPendingWrites is true and the listing
+ * goes without an ETag, see ProductETags.
+ */
+
+@Primary
+@Repository
+public class CachingProductRepository implements ProductRepository, DisposableBean {
+    private final ProductRepository delegate;
+    private final ProductCache productCache;
+    private final SingleFlight<String, Product> findByIdFlights = new SingleFlight<>();
+    private final Map<Integer, Mono<List<ProductStats>>> priceStats = new ConcurrentHashMap<>();
+    private final Duration statsTimeToLive;
+    private final ProductWriteBehind writeBehind;
+
+    ///> Qualified by bean name, otherwise this class (being the Primary ProductRepository) would be injected into itself
+    public CachingProductRepository(@Qualifier("productRepository") ProductRepository delegate,
+                                    ProductCache productCache,
+                                    MeterRegistry meterRegistry,
+                                    @Value("${product.stats.time-to-live:1m}") Duration statsTimeToLive,
+                                    @Value("${product.write-behind.window:0ms}") Duration writeBehindWindow) {
+        this.delegate = delegate;
+        this.productCache = productCache;
+        this.statsTimeToLive = statsTimeToLive;
+        ///> The version of a buffered product is a prediction, the write itself is unconditional
+        this.writeBehind = writeBehindWindow.isZero() ? null : new ProductWriteBehind(writeBehindWindow,
+                (id, product) -> delegate.update(id, new Product(id, product.getName(), product.getPrice()))
+                        .doOnTerminate(() -> {
+                            productCache.invalidate(id);
+                            priceStats.clear();
+                        }),
+                meterRegistry);
+
+        FunctionCounter.builder("product.reads.coalesced", findByIdFlights, SingleFlight::coalesced)
+                .description("findById calls that joined an in-flight lookup of the same id")
+                .register(meterRegistry);
+        Gauge.builder("product.reads.inflight", findByIdFlights, SingleFlight::inFlight)
+                .description("Distinct ids with a findById lookup in flight")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Mono<Product> findById(String id) {
+        if (writeBehind != null) {
+            return Mono.defer(() -> {
+                Product buffered = writeBehind.get(id);
+                return buffered != null ? Mono.just(buffered) : findStoredById(id);
+            });
+        }
+        return findStoredById(id);
+    }
+
+    @Override
+    public Mono<Product> findById(Publisher<String> id) {
+        return Mono.from(id).flatMap(this::findById);
+    }
+
+    @Override
+    public boolean hasPendingWrites() {
+        return writeBehind != null && !writeBehind.isEmpty();
+    }
+
+    @Override
+    public <S extends Product> Mono<S> save(S product) {
+        return discarding(product.getId(), delegate.save(product))
+                .doFinally(signal -> invalidate(product.getId()));
+    }
+
+    @Override
+    public <S extends Product> Flux<S> saveAll(Iterable<S> products) {
+        return delegate.saveAll(products)
+                .doOnNext(product -> {
+                    discard(product.getId());
+                    productCache.invalidate(product.getId());
+                })
+                .doFinally(signal -> priceStats.clear());
+    }
+
+    @Override
+    public <S extends Product> Flux<S> saveAll(Publisher<S> products) {
+        return delegate.saveAll(products)
+                .doOnNext(product -> {
+                    discard(product.getId());
+                    productCache.invalidate(product.getId());
+                })
+                .doFinally(signal -> priceStats.clear());
+    }
+
+    @Override
+    public Mono<Product> update(String id, Product product) {
+        if (writeBehind == null) {
+            return delegate.update(id, product)
+                    .doFinally(signal -> invalidate(id));
+        }
+        if (product.getVersion() != null) {
+            return writeBehind.flush(id)
+                    .then(Mono.defer(() -> delegate.update(id, product)))
+                    .doFinally(signal -> invalidate(id));
+        }
+
+        return Mono.defer(() -> {
+            Product buffered = writeBehind.get(id) != null ? writeBehind.put(id, product, null) : null;
+            if (buffered != null) {
+                return Mono.just(buffered);
+            }
+            return findStoredById(id)
+                    .flatMap(stored -> Mono.justOrEmpty(writeBehind.put(id, product, stored)));
+        });
+    }
+
+    ///> A buffered update is written first so the patch applies on top of it. Nothing to drop after a no-op patch.
+    @Override
+    public Mono<ProductPatch.Result> patch(String id, ProductPatch patch) {
+        Mono<Void> flush = writeBehind == null ? Mono.empty() : writeBehind.flush(id);
+        return flush
+                .then(Mono.defer(() -> delegate.patch(id, patch)))
+                .doOnNext(result -> {
+                    if (result.isModified()) {
+                        invalidate(id);
+                    }
+                })
+                .doOnError(e -> invalidate(id));
+    }
+
+    @Override
+    public Mono<Boolean> removeById(String id) {
+        return discarding(id, delegate.removeById(id))
+                .doFinally(signal -> invalidate(id));
+    }
+
+    @Override
+    public Flux<Product> search(Query query) {
+        return delegate.search(query);
+    }
+
+    @Override
+    public Mono<QueryPlan> explain(String name, Query query) {
+        return delegate.explain(name, query);
+    }
+
+    @Override
+    public Flux<ProductStats> priceStats(Integer prefixLength) {
+        return Flux.defer(() -> {
+            Integer key = prefixLength == null ? 0 : prefixLength;
+            Mono<List<ProductStats>> stats = priceStats.computeIfAbsent(key, k -> delegate.priceStats(prefixLength)
+                    .collectList()
+                    .cache(statsTimeToLive));
+            return stats
+                    .doOnError(e -> priceStats.remove(key, stats))
+                    .flatMapIterable(list -> list);
+        });
+    }
+
+    @Override
+    public <S extends Product> Mono<S> insert(S product) {
+        return delegate.insert(product)
+                .doFinally(signal -> priceStats.clear());
+    }
+
+    @Override
+    public <S extends Product> Flux<S> insert(Iterable<S> products) {
+        return delegate.insert(products)
+                .doFinally(signal -> priceStats.clear());
+    }
+
+    @Override
+    public <S extends Product> Flux<S> insert(Publisher<S> products) {
+        return delegate.insert(products)
+                .doFinally(signal -> priceStats.clear());
+    }
+
+    @Override
+    public Mono<Void> deleteById(String id) {
+        return discarding(id, delegate.deleteById(id))
+                .doFinally(signal -> invalidate(id));
+    }
+
+    @Override
+    public Mono<Void> deleteById(Publisher<String> id) {
+        return Mono.from(id).flatMap(this::deleteById);
+    }
+
+    @Override
+    public Mono<Void> delete(Product product) {
+        return discarding(product.getId(), delegate.delete(product))
+                .doFinally(signal -> invalidate(product.getId()));
+    }
+
+    @Override
+    public Mono<Void> deleteAll(Iterable<? extends Product> products) {
+        return discardingAll(delegate.deleteAll(products))
+                .doFinally(signal -> invalidateAll());
+    }
+
+    @Override
+    public Mono<Void> deleteAll(Publisher<? extends Product> products) {
+        return discardingAll(delegate.deleteAll(products))
+                .doFinally(signal -> invalidateAll());
+    }
+
+    @Override
+    public Mono<Void> deleteAll() {
+        return discardingAll(delegate.deleteAll())
+                .doFinally(signal -> invalidateAll());
+    }
+
+    @Override
+    public Mono<Boolean> existsById(String id) {
+        return delegate.existsById(id);
+    }
+
+    @Override
+    public Mono<Boolean> existsById(Publisher<String> id) {
+        return delegate.existsById(id);
+    }
+
+    @Override
+    public Flux<Product> findAll() {
+        return delegate.findAll();
+    }
+
+    @Override
+    public Flux<Product> findAll(Sort sort) {
+        return delegate.findAll(sort);
+    }
+
+    @Override
+    public Flux<Product> findAllBy(Pageable pageable) {
+        return delegate.findAllBy(pageable);
+    }
+
+    @Override
+    public Flux<Product> findByIdGreaterThan(String id, Pageable pageable) {
+        return delegate.findByIdGreaterThan(id, pageable);
+    }
+
+    @Override
+    public Flux<Product> findByIdGreaterThan(String id, Sort sort) {
+        return delegate.findByIdGreaterThan(id, sort);
+    }
+
+    ///> Bypasses the cache (one query for all of them), a buffered update still wins like it does for findById
+    @Override
+    public Flux<Product> findAllById(Iterable<String> ids) {
+        if (writeBehind == null) {
+            return delegate.findAllById(ids);
+        }
+        return delegate.findAllById(ids)
+                .map(product -> {
+                    Product buffered = writeBehind.get(product.getId());
+                    return buffered != null ? buffered : product;
+                });
+    }
+
+    @Override
+    public Flux<Product> findAllById(Publisher<String> ids) {
+        return delegate.findAllById(ids);
+    }
+
+    @Override
+    public Mono<Long> count() {
+        return delegate.count();
+    }
+
+    @Override
+    public <S extends Product> Mono<S> findOne(Example<S> example) {
+        return delegate.findOne(example);
+    }
+
+    @Override
+    public <S extends Product> Flux<S> findAll(Example<S> example) {
+        return delegate.findAll(example);
+    }
+
+    @Override
+    public <S extends Product> Flux<S> findAll(Example<S> example, Sort sort) {
+        return delegate.findAll(example, sort);
+    }
+
+    @Override
+    public <S extends Product> Mono<Long> count(Example<S> example) {
+        return delegate.count(example);
+    }
+
+    @Override
+    public <S extends Product> Mono<Boolean> exists(Example<S> example) {
+        return delegate.exists(example);
+    }
+
+    /**
+     * Writes what the write-behind buffer still holds, before the Mongo client goes away
+     */
+    @Override
+    public void destroy() {
+        if (writeBehind != null) {
+            writeBehind.flushAll().block();
+        }
+    }
+
+    private Mono<Product> findStoredById(String id) {
+        return findByIdFlights.get(id, key -> productCache.get(key, delegate::findById));
+    }
+
+    ///> Dropped before the write starts so a window ending meanwhile can't overwrite it with the older update
+    private <T> Mono<T> discarding(String id, Mono<T> write) {
+        return Mono.defer(() -> {
+            discard(id);
+            return write;
+        });
+    }
+
+    private <T> Mono<T> discardingAll(Mono<T> write) {
+        return Mono.defer(() -> {
+            if (writeBehind != null) {
+                writeBehind.discardAll();
+            }
+            return write;
+        });
+    }
+
+    private void discard(String id) {
+        if (writeBehind != null && id != null) {
+            writeBehind.discard(id);
+        }
+    }
+
+    private void invalidate(String id) {
+        productCache.invalidate(id);
+        priceStats.clear();
+    }
+
+    private void invalidateAll() {
+        productCache.invalidateAll();
+        priceStats.clear();
+    }
+}
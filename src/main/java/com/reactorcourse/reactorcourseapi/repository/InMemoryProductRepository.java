@@ -0,0 +1,596 @@
+package com.reactorcourse.reactorcourseapi.repository;
+
+import com.reactorcourse.reactorcourseapi.model.Product;
+import com.reactorcourse.reactorcourseapi.model.ProductPatch;
+import com.reactorcourse.reactorcourseapi.model.ProductStats;
+import com.reactorcourse.reactorcourseapi.model.QueryPlan;
+import org.bson.BsonRegularExpression;
+import org.bson.Document;
+import org.reactivestreams.Publisher;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.ExampleMatcher;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * ProductRepository kept in memory, for nodes without Mongo. Active with the in-memory profile (see
+ * application-in-memory.properties, which also switches off the Mongo auto-configuration), it then takes the place of
+ * the Spring Data repository behind CachingProductRepository.
+ * <p>
+ * Products live in a ConcurrentHashMap by id, an id lookup is a hash lookup, next to a ConcurrentSkipListSet of the
+ * ids for everything walking them in order (findPage, the after cursor, findAll). Every entry is an immutable
+ * StoredProduct with the price and the version as primitive fields, writes replace it atomically per id (compute), so
+ * versioned saves and updates behave like their Mongo counterparts. Inserts and removals change the id set inside that
+ * same compute, the two never disagree about an id once the write is done.
+ * <p>
+ * Generated ids are 24 hex digits like an ObjectId, taken from one shared counter so they sort in the order they were
+ * generated, which is what the after cursor relies on to list new products last. Contention-free generation (blocks
+ * of ids reserved per thread) was dropped for that: an id from a thread's block would sort before the ids another
+ * thread handed out earlier, so a client paging with after could miss a new product. The counter costs one atomic
+ * increment per insert, next to the compute on the map and the insert into the id set that every insert pays anyway.
+ * <p>
+ * search and explain understand the queries built by ProductQueries (equality, ranges, anchored regexes, sort, limit,
+ * and fields), any other operator or field fails with an IllegalArgumentException, like a query Mongo rejects.
+ * Everything is lost on restart.
+ */
+
+@Profile(InMemoryProductRepository.PROFILE)
+@Repository("productRepository")
+public class InMemoryProductRepository implements ProductRepository {
+    public static final String PROFILE = "in-memory";
+
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.95, 0.99};
+
+    private final Map<String, StoredProduct> products = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<String> ids = new ConcurrentSkipListSet<>();
+    private final AtomicLong nextId = new AtomicLong();
+
+    @Override
+    public Mono<Product> findById(String id) {
+        return Mono.fromCallable(() -> product(id));
+    }
+
+    @Override
+    public Mono<Product> findById(Publisher<String> id) {
+        return Mono.from(id).flatMap(this::findById);
+    }
+
+    @Override
+    public Mono<Boolean> existsById(String id) {
+        return Mono.fromCallable(() -> products.containsKey(id));
+    }
+
+    @Override
+    public Mono<Boolean> existsById(Publisher<String> id) {
+        return Mono.from(id).flatMap(this::existsById);
+    }
+
+    @Override
+    public Flux<Product> findAll() {
+        return Flux.defer(() -> Flux.fromStream(stream()));
+    }
+
+    @Override
+    public Flux<Product> findAll(Sort sort) {
+        return Flux.defer(() -> Flux.fromStream(stream().sorted(comparator(sort))));
+    }
+
+    @Override
+    public Flux<Product> findAllById(Iterable<String> ids) {
+        return Flux.fromIterable(ids).concatMap(this::findById);
+    }
+
+    @Override
+    public Flux<Product> findAllById(Publisher<String> ids) {
+        return Flux.from(ids).concatMap(this::findById);
+    }
+
+    @Override
+    public Mono<Long> count() {
+        return Mono.fromCallable(() -> (long) products.size());
+    }
+
+    @Override
+    public Flux<Product> findAllBy(Pageable pageable) {
+        return Flux.defer(() -> page(stream(), pageable));
+    }
+
+    @Override
+    public Flux<Product> findByIdGreaterThan(String id, Pageable pageable) {
+        return Flux.defer(() -> page(stream(ids.tailSet(id, false)), pageable));
+    }
+
+    @Override
+    public Flux<Product> findByIdGreaterThan(String id, Sort sort) {
+        return Flux.defer(() -> Flux.fromStream(stream(ids.tailSet(id, false)).sorted(comparator(sort))));
+    }
+
+    ///> Like Mongo's save of a versioned entity: no version inserts, a version has to match the stored one
+    @Override
+    public <S extends Product> Mono<S> save(S product) {
+        return Mono.fromCallable(() -> product.getVersion() == null ? doInsert(product) : doSaveVersioned(product));
+    }
+
+    @Override
+    public <S extends Product> Flux<S> saveAll(Iterable<S> products) {
+        return Flux.fromIterable(products).concatMap(this::save);
+    }
+
+    @Override
+    public <S extends Product> Flux<S> saveAll(Publisher<S> products) {
+        return Flux.from(products).concatMap(this::save);
+    }
+
+    @Override
+    public <S extends Product> Mono<S> insert(S product) {
+        return Mono.fromCallable(() -> doInsert(product));
+    }
+
+    @Override
+    public <S extends Product> Flux<S> insert(Iterable<S> products) {
+        return Flux.fromIterable(products).concatMap(this::insert);
+    }
+
+    @Override
+    public <S extends Product> Flux<S> insert(Publisher<S> products) {
+        return Flux.from(products).concatMap(this::insert);
+    }
+
+    @Override
+    public Mono<Product> update(String id, Product product) {
+        return Mono.fromCallable(() -> {
+            StoredProduct updated = products.computeIfPresent(id, (key, stored) -> {
+                if (product.getVersion() != null && product.getVersion() != stored.version) {
+                    throw new OptimisticLockingFailureException("Product " + id + " was modified concurrently");
+                }
+                return new StoredProduct(product.getName(), product.getPrice(), stored.version + 1);
+            });
+            return updated == null ? null : updated.toProduct(id);
+        });
+    }
+
+    @Override
+    public Mono<ProductPatch.Result> patch(String id, ProductPatch patch) {
+        return Mono.fromCallable(() -> {
+            boolean[] modified = {false};
+            StoredProduct patched = products.computeIfPresent(id, (key, stored) -> {
+                if (patch.getVersion() != null && patch.getVersion() != stored.version) {
+                    throw new OptimisticLockingFailureException("Product " + id + " was modified concurrently");
+                }
+                Product product = stored.toProduct(id);
+                if (!patch.changes(product)) {
+                    return stored;
+                }
+                modified[0] = true;
+                Product patchedProduct = patch.applyTo(product);
+                return new StoredProduct(patchedProduct.getName(), patchedProduct.getPrice(), stored.version + 1);
+            });
+            return patched == null ? null : new ProductPatch.Result(patched.toProduct(id), modified[0]);
+        });
+    }
+
+    @Override
+    public Mono<Boolean> removeById(String id) {
+        return Mono.fromCallable(() -> remove(id));
+    }
+
+    @Override
+    public Mono<Void> deleteById(String id) {
+        return Mono.fromRunnable(() -> remove(id));
+    }
+
+    @Override
+    public Mono<Void> deleteById(Publisher<String> id) {
+        return Mono.from(id).flatMap(this::deleteById);
+    }
+
+    @Override
+    public Mono<Void> delete(Product product) {
+        return deleteById(product.getId());
+    }
+
+    @Override
+    public Mono<Void> deleteAll(Iterable<? extends Product> products) {
+        return Flux.fromIterable(products).concatMap(this::delete).then();
+    }
+
+    @Override
+    public Mono<Void> deleteAll(Publisher<? extends Product> products) {
+        return Flux.from(products).concatMap(this::delete).then();
+    }
+
+    @Override
+    public Mono<Void> deleteAll() {
+        return Mono.fromRunnable(() -> ids.forEach(this::remove));
+    }
+
+    @Override
+    public Flux<Product> search(Query query) {
+        return Flux.defer(() -> {
+            Document fields = query.getFieldsObject();
+            Stream<Product> found = stream()
+                    .filter(matcher(query.getQueryObject()))
+                    .sorted(comparator(sort(query.getSortObject())))
+                    .skip(query.getSkip());
+            if (query.getLimit() > 0) {
+                found = found.limit(query.getLimit());
+            }
+            return Flux.fromStream(fields.isEmpty() ? found : found.map(product -> project(product, fields)));
+        });
+    }
+
+    @Override
+    public Mono<QueryPlan> explain(String name, Query query) {
+        return Mono.fromCallable(() -> {
+            Document filter = query.getQueryObject();
+            matcher(filter); // fails for what search couldn't answer either
+            List<String> stages = filter.size() == 1 && (filter.get("id") instanceof String || filter.get("_id") instanceof String)
+                    ? Collections.singletonList("IDHACK")
+                    : Arrays.asList("SORT", "COLLSCAN");
+            return new QueryPlan(name, filter.toJson(), stages, Collections.emptyList(), stages.contains("COLLSCAN"));
+        });
+    }
+
+    ///> Same nearest rank percentiles as the Mongo aggregation, over a primitive array of the prices of each group
+    @Override
+    public Flux<ProductStats> priceStats(Integer prefixLength) {
+        return Flux.defer(() -> {
+            Map<String, PriceList> groups = new TreeMap<>(Comparator.nullsFirst(Comparator.naturalOrder()));
+            products.values().forEach(stored -> {
+                if (stored.hasPrice) {
+                    String group = prefixLength == null ? null : prefix(stored.name == null ? "" : stored.name, prefixLength);
+                    groups.computeIfAbsent(group, key -> new PriceList()).add(stored.price);
+                }
+            });
+
+            List<ProductStats> stats = new ArrayList<>(groups.size());
+            groups.forEach((group, prices) -> stats.add(prices.stats(group)));
+            return Flux.fromIterable(stats);
+        });
+    }
+
+    @Override
+    public <S extends Product> Mono<S> findOne(Example<S> example) {
+        return findAll(example).next();
+    }
+
+    @Override
+    public <S extends Product> Flux<S> findAll(Example<S> example) {
+        return findAll(example, Sort.unsorted());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <S extends Product> Flux<S> findAll(Example<S> example, Sort sort) {
+        return Flux.defer(() -> Flux.fromStream(stream()
+                .filter(matcher(example))
+                .sorted(comparator(sort))
+                .map(product -> (S) product)));
+    }
+
+    @Override
+    public <S extends Product> Mono<Long> count(Example<S> example) {
+        return findAll(example).count();
+    }
+
+    @Override
+    public <S extends Product> Mono<Boolean> exists(Example<S> example) {
+        return findAll(example).hasElements();
+    }
+
+    private <S extends Product> S doInsert(S product) {
+        if (product.getVersion() == null) {
+            product.setVersion(0L);
+        }
+        StoredProduct stored = new StoredProduct(product.getName(), product.getPrice(), product.getVersion());
+
+        if (product.getId() == null) {
+            String id;
+            do {
+                id = nextId();
+            } while (!add(id, stored)); // only when a generated id was also given explicitly
+            product.setId(id);
+        } else if (!add(product.getId(), stored)) {
+            throw new DuplicateKeyException("Product " + product.getId() + " already exists");
+        }
+        return product;
+    }
+
+    private boolean add(String id, StoredProduct stored) {
+        boolean[] added = new boolean[1];
+        products.computeIfAbsent(id, key -> {
+            ids.add(key);
+            added[0] = true;
+            return stored;
+        });
+        return added[0];
+    }
+
+    private <S extends Product> S doSaveVersioned(S product) {
+        long version = product.getVersion();
+        products.compute(Objects.requireNonNull(product.getId(), "A product with a version needs an id"), (id, stored) -> {
+            if (stored == null || stored.version != version) {
+                throw new OptimisticLockingFailureException("Product " + id + " with version " + version + " not found");
+            }
+            return new StoredProduct(product.getName(), product.getPrice(), version + 1);
+        });
+        product.setVersion(version + 1);
+        return product;
+    }
+
+    private boolean remove(String id) {
+        boolean[] removed = new boolean[1];
+        products.computeIfPresent(id, (key, stored) -> {
+            ids.remove(key);
+            removed[0] = true;
+            return null;
+        });
+        return removed[0];
+    }
+
+    private Product product(String id) {
+        StoredProduct stored = products.get(id);
+        return stored == null ? null : stored.toProduct(id);
+    }
+
+    private Stream<Product> stream() {
+        return stream(ids);
+    }
+
+    ///> Ids removed while the stream runs come back as null from product and are skipped
+    private Stream<Product> stream(Collection<String> ids) {
+        return ids.stream()
+                .map(this::product)
+                .filter(Objects::nonNull);
+    }
+
+    private static Flux<Product> page(Stream<Product> products, Pageable pageable) {
+        if (pageable.getSort().isSorted()) {
+            products = products.sorted(comparator(pageable.getSort()));
+        }
+        if (pageable.isPaged()) {
+            products = products.skip(pageable.getOffset()).limit(pageable.getPageSize());
+        }
+        return Flux.fromStream(products);
+    }
+
+    int idCount() {
+        return ids.size();
+    }
+
+    String nextId() {
+        String hex = Long.toHexString(nextId.getAndIncrement());
+        char[] id = new char[24];
+        Arrays.fill(id, 0, id.length - hex.length(), '0');
+        hex.getChars(0, hex.length(), id, id.length - hex.length());
+        return new String(id);
+    }
+
+    private static Object field(Product product, String field) {
+        switch (field) {
+            case "id":
+            case "_id":
+                return product.getId();
+            case "name":
+                return product.getName();
+            case "price":
+                return product.getPrice();
+            case "version":
+                return product.getVersion();
+            default:
+                throw new IllegalArgumentException("Unknown product field " + field);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Comparator<Product> comparator(Sort sort) {
+        Comparator<Product> comparator = Comparator.comparing(Product::getId); // ties in id order
+        List<Sort.Order> orders = new ArrayList<>();
+        sort.forEach(orders::add);
+        Collections.reverse(orders);
+        for (Sort.Order order : orders) {
+            Comparator<Product> byField = Comparator.comparing(product -> (Comparable) field(product, order.getProperty()),
+                    Comparator.nullsFirst(Comparator.naturalOrder()));
+            comparator = (order.isAscending() ? byField : byField.reversed()).thenComparing(comparator);
+        }
+        return comparator;
+    }
+
+    private static Sort sort(Document sortObject) {
+        List<Sort.Order> orders = new ArrayList<>();
+        sortObject.forEach((field, direction) -> orders.add(((Number) direction).intValue() < 0
+                ? Sort.Order.desc(field)
+                : Sort.Order.asc(field)));
+        return Sort.by(orders);
+    }
+
+    private static Predicate<Product> matcher(Document filter) {
+        Predicate<Product> matcher = product -> true;
+        for (Map.Entry<String, Object> criterion : filter.entrySet()) {
+            String field = criterion.getKey();
+            Predicate<Object> condition = condition(criterion.getValue());
+            matcher = matcher.and(product -> condition.test(field(product, field)));
+        }
+        return matcher;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Predicate<Object> condition(Object expected) {
+        if (expected instanceof Pattern) {
+            Pattern pattern = (Pattern) expected;
+            return value -> value instanceof String && pattern.matcher((String) value).find();
+        }
+        if (!(expected instanceof Document)) {
+            return value -> equal(value, expected);
+        }
+
+        Predicate<Object> condition = value -> true;
+        for (Map.Entry<String, Object> operator : ((Document) expected).entrySet()) {
+            Object operand = operator.getValue();
+            switch (operator.getKey()) {
+                case "$eq":
+                    condition = condition.and(value -> equal(value, operand));
+                    break;
+                case "$gt":
+                    condition = condition.and(value -> value != null && compare(value, operand) > 0);
+                    break;
+                case "$gte":
+                    condition = condition.and(value -> value != null && compare(value, operand) >= 0);
+                    break;
+                case "$lt":
+                    condition = condition.and(value -> value != null && compare(value, operand) < 0);
+                    break;
+                case "$lte":
+                    condition = condition.and(value -> value != null && compare(value, operand) <= 0);
+                    break;
+                case "$in":
+                    condition = condition.and(value -> ((Collection<Object>) operand).stream().anyMatch(candidate -> equal(value, candidate)));
+                    break;
+                case "$regex":
+                    Pattern pattern = operand instanceof Pattern ? (Pattern) operand
+                            : Pattern.compile(operand instanceof BsonRegularExpression
+                            ? ((BsonRegularExpression) operand).getPattern()
+                            : operand.toString());
+                    condition = condition.and(condition(pattern));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Operator " + operator.getKey() + " isn't supported in memory");
+            }
+        }
+        return condition;
+    }
+
+    private static boolean equal(Object value, Object expected) {
+        if (value instanceof Number && expected instanceof Number) {
+            return ((Number) value).doubleValue() == ((Number) expected).doubleValue();
+        }
+        return Objects.equals(value, expected);
+    }
+
+    ///> Numbers compare across their types like in Mongo, a missing value never matches a range (checked by the caller)
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compare(Object value, Object operand) {
+        if (value instanceof Number && operand instanceof Number) {
+            return Double.compare(((Number) value).doubleValue(), ((Number) operand).doubleValue());
+        }
+        return ((Comparable) value).compareTo(operand);
+    }
+
+    ///> Exact matches of the properties set on the probe, all of them or any of them, which is all the default
+    ///> ExampleMatcher does for a Product
+    private static <S extends Product> Predicate<Product> matcher(Example<S> example) {
+        ExampleMatcher exampleMatcher = example.getMatcher();
+        if (exampleMatcher.getDefaultStringMatcher() != ExampleMatcher.StringMatcher.DEFAULT
+                && exampleMatcher.getDefaultStringMatcher() != ExampleMatcher.StringMatcher.EXACT
+                || exampleMatcher.getPropertySpecifiers().hasValues()) {
+            throw new UnsupportedOperationException("Only exact matches of the set properties are supported in memory");
+        }
+
+        Predicate<Product> matcher = null;
+        for (String field : Arrays.asList("id", "name", "price", "version")) {
+            Object expected = field(example.getProbe(), field);
+            if (expected == null || exampleMatcher.isIgnoredPath(field)) {
+                continue;
+            }
+            Predicate<Product> fieldMatcher = product -> Objects.equals(field(product, field), expected);
+            matcher = matcher == null ? fieldMatcher
+                    : exampleMatcher.isAnyMatching() ? matcher.or(fieldMatcher) : matcher.and(fieldMatcher);
+        }
+        return matcher == null ? product -> true : matcher;
+    }
+
+    private static Product project(Product product, Document fields) {
+        Product projected = new Product(product.getId(), null, null);
+        if (fields.containsKey("name")) {
+            projected.setName(product.getName());
+        }
+        if (fields.containsKey("price")) {
+            projected.setPrice(product.getPrice());
+        }
+        if (fields.containsKey("version")) {
+            projected.setVersion(product.getVersion());
+        }
+        return projected;
+    }
+
+    ///> $substrCP counts code points, so does this
+    private static String prefix(String name, int length) {
+        int codePoints = name.codePointCount(0, name.length());
+        return codePoints <= length ? name : name.substring(0, name.offsetByCodePoints(0, length));
+    }
+
+    /**
+     * One stored product, the id is the key it's stored under
+     */
+    private static final class StoredProduct {
+        private final String name;
+        private final double price;
+        private final boolean hasPrice;
+        private final long version;
+
+        private StoredProduct(String name, Double price, long version) {
+            this.name = name;
+            this.price = price == null ? 0 : price;
+            this.hasPrice = price != null;
+            this.version = version;
+        }
+
+        private Product toProduct(String id) {
+            Product product = new Product(id, name, hasPrice ? price : null);
+            product.setVersion(version);
+            return product;
+        }
+    }
+
+    /**
+     * Growable double[] of the prices of one statistics group
+     */
+    private static final class PriceList {
+        private double[] prices = new double[16];
+        private int size;
+
+        private void add(double price) {
+            if (size == prices.length) {
+                prices = Arrays.copyOf(prices, size * 2);
+            }
+            prices[size++] = price;
+        }
+
+        private ProductStats stats(String group) {
+            Arrays.sort(prices, 0, size);
+            double sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += prices[i];
+            }
+            double[] percentiles = new double[PERCENTILES.length];
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                percentiles[i] = prices[(int) Math.ceil(PERCENTILES[i] * size) - 1];
+            }
+            return new ProductStats(group, (long) size, prices[0], prices[size - 1], sum / size,
+                    percentiles[0], percentiles[1], percentiles[2], percentiles[3]);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.reactorcourse.reactorcourseapi.repository;
+
+import com.reactorcourse.reactorcourseapi.model.Product;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.index.ReactiveIndexOperations;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Creates the indexes declared on Product (@Indexed) before the runners, and with them the seeding, start.
+ * <p>
+ * Spring Data's own automatic index creation is fire and forget (and is going away as a default), this waits until
+ * Mongo confirmed every index so the query endpoints never run before their index exists. Creating an index that
+ * already exists is a no-op. ProductSeeder runs ensureIndexes again after dropping the collection, which deletes them.
+ * <p>
+ * Not there with the in-memory profile, see InMemoryProductRepository.
+ */
+
+@Profile("!" + InMemoryProductRepository.PROFILE)
+@Component
+public class ProductIndexInitializer {
+    private static final Logger log = LoggerFactory.getLogger(ProductIndexInitializer.class);
+
+    private final ReactiveMongoOperations operations;
+    private final MongoMappingContext mappingContext;
+
+    public ProductIndexInitializer(ReactiveMongoOperations operations, MongoMappingContext mappingContext) {
+        this.operations = operations;
+        this.mappingContext = mappingContext;
+    }
+
+    @EventListener(ApplicationStartedEvent.class)
+    public void createIndexes() {
+        ensureIndexes().block();
+    }
+
+    public Mono<Void> ensureIndexes() {
+        ReactiveIndexOperations indexOperations = operations.indexOps(Product.class);
+
+        return Flux.fromIterable(IndexResolver.create(mappingContext).resolveIndexFor(Product.class))
+                .concatMap(indexOperations::ensureIndex)
+                .doOnNext(index -> log.info("Index {} on {}", index, operations.getCollectionName(Product.class)))
+                .then();
+    }
+}
@@ -0,0 +1,154 @@
+package com.reactorcourse.reactorcourseapi.repository;
+
+import com.reactorcourse.reactorcourseapi.model.ProductPage;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * The queries behind /products/search and /products/top, each one answered by the name or the price index of
+ * Product (see AdminController.getQueryPlans to check that on a live database), the projected reads of the fields
+ * parameter and the full scan of /products/export.
+ * <p>
+ * Invalid parameter combinations throw IllegalArgumentException, mapped to 400 by the controller and the handler.
+ */
+
+public final class ProductQueries {
+    private static final int DEFAULT_SEARCH_LIMIT = 100;
+
+    private static final int DEFAULT_TOP_LIMIT = 10;
+
+    private static final Set<String> FIELDS = new HashSet<>(Arrays.asList("id", "name", "price", "version"));
+
+    private static final Pattern REGEX_SPECIAL_CHARACTERS = Pattern.compile("[\\\\^$.|?*+()\\[\\]{}]");
+
+    private ProductQueries() {
+    }
+
+    /**
+     * Exactly one of: name (exact match), prefix (name starts with), minPrice and/or maxPrice (inclusive range,
+     * cheapest first).
+     *
+     * @param name
+     * @param prefix
+     * @param minPrice
+     * @param maxPrice
+     * @param limit    100 when null
+     * @return
+     */
+    public static Query search(String name, String prefix, Double minPrice, Double maxPrice, Integer limit) {
+        limit = checkLimit(limit, DEFAULT_SEARCH_LIMIT);
+        boolean priceRange = minPrice != null || maxPrice != null;
+        int criteria = (name != null ? 1 : 0) + (prefix != null ? 1 : 0) + (priceRange ? 1 : 0);
+        if (criteria != 1) {
+            throw new IllegalArgumentException("Expected exactly one of name, prefix or minPrice/maxPrice");
+        }
+
+        if (name != null) {
+            return query(where("name").is(name)).limit(limit);
+        }
+        if (prefix != null) {
+            ///> An anchored regex of plain characters is turned into a range scan of the index by Mongo
+            return query(where("name").regex("^" + escape(prefix)))
+                    .with(Sort.by("name"))
+                    .limit(limit);
+        }
+
+        if (minPrice != null && maxPrice != null && minPrice > maxPrice) {
+            throw new IllegalArgumentException("minPrice must not be greater than maxPrice");
+        }
+        Criteria price = where("price");
+        if (minPrice != null) {
+            price = price.gte(minPrice);
+        }
+        if (maxPrice != null) {
+            price = price.lte(maxPrice);
+        }
+        return query(price)
+                .with(Sort.by("price"))
+                .limit(limit);
+    }
+
+    /**
+     * @param by    name or price, price when null
+     * @param order asc or desc, desc when null
+     * @param limit 10 when null
+     * @return the first limit products in that order, read off the index without an in-memory sort
+     */
+    public static Query top(String by, String order, Integer limit) {
+        limit = checkLimit(limit, DEFAULT_TOP_LIMIT);
+        by = by == null ? "price" : by;
+        order = order == null ? "desc" : order;
+        if (!"name".equals(by) && !"price".equals(by)) {
+            throw new IllegalArgumentException("Can only order by name or price");
+        }
+        Sort.Direction direction = Sort.Direction.fromString(order); // throws IllegalArgumentException as well
+
+        return new Query()
+                .with(Sort.by(direction, by))
+                .limit(limit);
+    }
+
+    /**
+     * @param afterId
+     * @return every product, or the ones past afterId in _id order when it isn't null (same as findByIdGreaterThan)
+     */
+    public static Query all(String afterId) {
+        return afterId == null
+                ? new Query()
+                : query(where("id").gt(afterId)).with(ProductRepository.ID_ORDER);
+    }
+
+    /**
+     * @param batchSize products per round trip of the cursor
+     * @return every product, in natural order (no sort, nothing for Mongo to hold in memory)
+     */
+    public static Query export(int batchSize) {
+        return new Query().cursorBatchSize(batchSize);
+    }
+
+    public static Query byId(String id) {
+        return query(where("id").is(id));
+    }
+
+    /**
+     * Narrows query down to a projection, Mongo then only reads and returns those fields and the other properties of
+     * the returned products stay null (left out of the response). The id is always returned.
+     *
+     * @param query
+     * @param fields comma separated property names of Product, e.g. id,name
+     * @return query
+     */
+    public static Query withFields(Query query, String fields) {
+        for (String field : fields.split(",")) {
+            field = field.trim();
+            if (!FIELDS.contains(field)) {
+                throw new IllegalArgumentException("Unknown field '" + field + "', expected some of " + FIELDS);
+            }
+            query.fields().include(field);
+        }
+        return query;
+    }
+
+    static String escape(String literal) {
+        return REGEX_SPECIAL_CHARACTERS.matcher(literal).replaceAll("\\\\$0");
+    }
+
+    private static int checkLimit(Integer limit, int defaultLimit) {
+        if (limit == null) {
+            return defaultLimit;
+        }
+        if (!ProductPage.isValidLimit(limit)) {
+            throw new IllegalArgumentException("limit must be between 1 and " + ProductPage.MAX_LIMIT);
+        }
+        return limit;
+    }
+}
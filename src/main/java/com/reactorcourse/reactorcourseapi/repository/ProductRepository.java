@@ -1,13 +1,67 @@
 package com.reactorcourse.reactorcourseapi.repository;
 
 import com.reactorcourse.reactorcourseapi.model.Product;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
 import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
 
 /**
  * Created by Jonathan on 4/20/2020.
  */
 
 @Repository
-public interface ProductRepository extends ReactiveMongoRepository<Product, String> {
+public interface ProductRepository extends ReactiveMongoRepository<Product, String>, ProductRepositoryCustom {
+	Sort ID_ORDER = Sort.by("id");
+
+	int ID_CHUNK_SIZE = 500;
+
+	Flux<Product> findAllBy(Pageable pageable);
+
+	Flux<Product> findByIdGreaterThan(String id, Pageable pageable);
+
+	Flux<Product> findByIdGreaterThan(String id, Sort sort);
+
+	/**
+	 * Keyset pagination, the page starts right after afterId (or at the start when null) and walks the _id index, so
+	 * deep pages cost the same as the first one.
+	 *
+	 * @param afterId
+	 * @param limit
+	 * @return
+	 */
+	default Flux<Product> findPage(String afterId, int limit) {
+		Pageable pageable = PageRequest.of(0, limit, ID_ORDER);
+		return afterId == null ? findAllBy(pageable) : findByIdGreaterThan(afterId, pageable);
+	}
+
+	/**
+	 * True while updates accepted by update aren't in the store yet (write-behind, see CachingProductRepository), the
+	 * listings don't show them until then.
+	 *
+	 * @return
+	 */
+	default boolean hasPendingWrites() {
+		return false;
+	}
+
+	/**
+	 * findAllById (a single $in query on _id) per ID_CHUNK_SIZE ids, so a long list doesn't end up as one huge query
+	 * document. The chunks are queried concurrently.
+	 *
+	 * @param ids
+	 * @return the products found, in no particular order
+	 */
+	default Flux<Product> findAllByIdInChunks(List<String> ids) {
+		if (ids.size() <= ID_CHUNK_SIZE) {
+			return findAllById(ids);
+		}
+		return Flux.fromIterable(ids)
+				.buffer(ID_CHUNK_SIZE)
+				.flatMap(this::findAllById);
+	}
 }
@@ -0,0 +1,72 @@
+package com.reactorcourse.reactorcourseapi.repository;
+
+import com.reactorcourse.reactorcourseapi.model.Product;
+import com.reactorcourse.reactorcourseapi.model.ProductPatch;
+import com.reactorcourse.reactorcourseapi.model.ProductStats;
+import com.reactorcourse.reactorcourseapi.model.QueryPlan;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Writes done in a single server side operation instead of a findById followed by a save or delete, and the queries
+ * built by ProductQueries.
+ */
+
+public interface ProductRepositoryCustom {
+
+	/**
+	 * Sets name and price and bumps the version in one findAndModify.
+	 * <p>
+	 * When product carries a version the update only applies if it still matches the stored one.
+	 *
+	 * @param id
+	 * @param product
+	 * @return the updated product, empty if there is no product with that id
+	 * @throws org.springframework.dao.OptimisticLockingFailureException (as an error signal) on a version mismatch
+	 */
+	Mono<Product> update(String id, Product product);
+
+	/**
+	 * Sets and unsets only the patched properties and bumps the version in one findAndModify, which only matches when
+	 * the patch changes something. A patch that changes nothing isn't written, the product is read instead.
+	 * <p>
+	 * When patch carries a version the patch only applies if it still matches the stored one.
+	 *
+	 * @param id
+	 * @param patch
+	 * @return the patched product and whether it was modified, empty if there is no product with that id
+	 * @throws org.springframework.dao.OptimisticLockingFailureException (as an error signal) on a version mismatch
+	 */
+	Mono<ProductPatch.Result> patch(String id, ProductPatch patch);
+
+	/**
+	 * @param id
+	 * @return whether a product was deleted, from the deleted count of a single deleteOne
+	 */
+	Mono<Boolean> removeById(String id);
+
+	/**
+	 * @param query one of ProductQueries
+	 * @return
+	 */
+	Flux<Product> search(Query query);
+
+	/**
+	 * Runs the explain command (queryPlanner verbosity) for query, nothing is read from the collection.
+	 *
+	 * @param name  reported back as QueryPlan.query
+	 * @param query
+	 * @return
+	 */
+	Mono<QueryPlan> explain(String name, Query query);
+
+	/**
+	 * Computed by Mongo in one aggregation, only the statistics come back.
+	 *
+	 * @param prefixLength null for the statistics of all products, otherwise one ProductStats per distinct name
+	 *                     prefix of that length, ordered by prefix
+	 * @return
+	 */
+	Flux<ProductStats> priceStats(Integer prefixLength);
+}
@@ -0,0 +1,198 @@
+package com.reactorcourse.reactorcourseapi.repository;
+
+import com.mongodb.client.result.DeleteResult;
+import com.reactorcourse.reactorcourseapi.model.Product;
+import com.reactorcourse.reactorcourseapi.model.ProductPatch;
+import com.reactorcourse.reactorcourseapi.model.ProductStats;
+import com.reactorcourse.reactorcourseapi.model.QueryPlan;
+import org.bson.Document;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Picked up by Spring Data as the implementation of ProductRepositoryCustom (Impl postfix).
+ */
+
+class ProductRepositoryCustomImpl implements ProductRepositoryCustom {
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.95, 0.99};
+
+    private final ReactiveMongoOperations operations;
+
+    ProductRepositoryCustomImpl(ReactiveMongoOperations operations) {
+        this.operations = operations;
+    }
+
+    @Override
+    public Mono<Product> update(String id, Product product) {
+        Criteria criteria = where("id").is(id);
+        if (product.getVersion() != null) {
+            criteria = criteria.and("version").is(product.getVersion());
+        }
+
+        Update update = new Update()
+                .set("name", product.getName())
+                .set("price", product.getPrice())
+                .inc("version", 1);
+
+        ///> No match with a version given means either the product is gone (404) or someone else updated it first,
+        ///> only this failure path pays for the extra exists query
+        return operations.findAndModify(query(criteria), update, FindAndModifyOptions.options().returnNew(true), Product.class)
+                .switchIfEmpty(Mono.defer(() -> product.getVersion() == null
+                        ? Mono.empty()
+                        : operations.exists(query(where("id").is(id)), Product.class)
+                        .flatMap(exists -> exists
+                                ? Mono.error(new OptimisticLockingFailureException("Product " + id + " was modified concurrently"))
+                                : Mono.empty())));
+    }
+
+    ///> No match is either a patch that changes nothing, a version mismatch or no such product, the product is read
+    ///> to tell which. Changed since the findAndModify (the patch would change it now), the patch is tried again.
+    @Override
+    public Mono<ProductPatch.Result> patch(String id, ProductPatch patch) {
+        List<Criteria> changes = new ArrayList<>();
+        Update update = new Update();
+        patch.getSet().forEach((property, value) -> {
+            changes.add(where(property).ne(value));
+            update.set(property, value);
+        });
+        patch.getUnset().forEach(property -> {
+            changes.add(where(property).ne(null));
+            update.unset(property);
+        });
+        update.inc("version", 1);
+
+        Mono<Product> patched = Mono.empty();
+        if (!changes.isEmpty()) {
+            Criteria criteria = where("id").is(id);
+            if (patch.getVersion() != null) {
+                criteria = criteria.and("version").is(patch.getVersion());
+            }
+            patched = operations.findAndModify(query(criteria.orOperator(changes.toArray(new Criteria[0]))), update,
+                    FindAndModifyOptions.options().returnNew(true), Product.class);
+        }
+
+        return patched
+                .map(product -> new ProductPatch.Result(product, true))
+                .switchIfEmpty(Mono.defer(() -> operations.findOne(query(where("id").is(id)), Product.class)
+                        .flatMap(stored -> {
+                            if (patch.getVersion() != null && !patch.getVersion().equals(stored.getVersion())) {
+                                return Mono.error(new OptimisticLockingFailureException("Product " + id + " was modified concurrently"));
+                            }
+                            return patch.changes(stored)
+                                    ? patch(id, patch)
+                                    : Mono.just(new ProductPatch.Result(stored, false));
+                        })));
+    }
+
+    @Override
+    public Mono<Boolean> removeById(String id) {
+        return operations.remove(query(where("id").is(id)), Product.class)
+                .map(DeleteResult::getDeletedCount)
+                .map(deletedCount -> deletedCount > 0);
+    }
+
+    @Override
+    public Flux<Product> search(Query query) {
+        return operations.find(query, Product.class);
+    }
+
+    @Override
+    public Mono<QueryPlan> explain(String name, Query query) {
+        Document find = new Document("find", operations.getCollectionName(Product.class))
+                .append("filter", query.getQueryObject())
+                .append("sort", query.getSortObject());
+        if (query.getLimit() > 0) {
+            find.append("limit", query.getLimit());
+        }
+
+        return operations.executeCommand(new Document("explain", find).append("verbosity", "queryPlanner"))
+                .map(explain -> QueryPlan.of(name, query.getQueryObject(), explain));
+    }
+
+    ///> Two aggregations whatever the number of groups, and no document ever holds the prices of a whole group: one
+    ///> $group for the counts, then one cursor over all prices sorted by group and price (the price index without
+    ///> groups) that picks each percentile's nearest rank as it streams by. Only the counts are kept in memory.
+    @Override
+    public Flux<ProductStats> priceStats(Integer prefixLength) {
+        Object group = prefixLength == null
+                ? null
+                : new Document("$substrCP", Arrays.asList(new Document("$ifNull", Arrays.asList("$name", "")), 0, prefixLength));
+        String collection = operations.getCollectionName(Product.class);
+
+        Aggregation summary = Aggregation.newAggregation(
+                stage(new Document("$match", new Document("price", new Document("$ne", null)))),
+                stage(new Document("$group", new Document("_id", group)
+                        .append("count", new Document("$sum", 1))
+                        .append("min", new Document("$min", "$price"))
+                        .append("max", new Document("$max", "$price"))
+                        .append("avg", new Document("$avg", "$price")))),
+                stage(new Document("$project", new Document("_id", 0)
+                        .append("group", "$_id")
+                        .append("count", 1)
+                        .append("min", 1)
+                        .append("max", 1)
+                        .append("avg", 1))))
+                .withOptions(Aggregation.newAggregationOptions().allowDiskUse(true).build());
+
+        Document projection = new Document("_id", 0).append("price", 1);
+        Document sort = new Document("price", 1);
+        if (group != null) {
+            projection.append("group", group);
+            sort = new Document("group", 1).append("price", 1);
+        }
+        Aggregation prices = Aggregation.newAggregation(
+                stage(new Document("$match", new Document("price", new Document("$ne", null)))),
+                stage(new Document("$project", projection)),
+                stage(new Document("$sort", sort)))
+                .withOptions(Aggregation.newAggregationOptions().allowDiskUse(true).build());
+
+        return operations.aggregate(summary, collection, ProductStats.class)
+                .collectMap(stats -> groupKey(stats.getGroup()))
+                .flatMapMany(groups -> operations.aggregate(prices, collection, Document.class)
+                        .windowUntilChanged(price -> groupKey(price.getString("group")))
+                        .concatMap(groupPrices -> groupPrices.switchOnFirst((first, rest) -> {
+                            ProductStats stats = first.hasValue() ? groups.get(groupKey(first.get().getString("group"))) : null;
+                            ///> A group that only came up between the two passes has no count to rank against
+                            return stats == null ? rest.then(Mono.<ProductStats>empty()) : percentiles(stats, rest);
+                        })));
+    }
+
+    ///> The prices of the group in order, the one at the nearest rank ceil(p * count) - 1 of each percentile is kept
+    private static Mono<ProductStats> percentiles(ProductStats stats, Flux<Document> prices) {
+        List<Long> ranks = new ArrayList<>();
+        for (double percentile : PERCENTILES) {
+            ranks.add(Math.max((long) Math.ceil(percentile * stats.getCount()) - 1, 0));
+        }
+
+        return prices.index()
+                .filter(price -> ranks.contains(price.getT1()))
+                .collectMap(Tuple2::getT1, price -> ((Number) price.getT2().get("price")).doubleValue())
+                .map(byRank -> new ProductStats(stats.getGroup(), stats.getCount(), stats.getMin(), stats.getMax(), stats.getAvg(),
+                        byRank.get(ranks.get(0)), byRank.get(ranks.get(1)), byRank.get(ranks.get(2)), byRank.get(ranks.get(3))));
+    }
+
+    ///> Null (no prefixLength, one group of all products) can't be a map key or a window key
+    private static String groupKey(String group) {
+        return group == null ? "" : group;
+    }
+
+    private static AggregationOperation stage(Document stage) {
+        return context -> stage;
+    }
+}
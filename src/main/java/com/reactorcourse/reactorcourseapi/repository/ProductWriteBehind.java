@@ -0,0 +1,282 @@
+package com.reactorcourse.reactorcourseapi.repository;
+
+import com.reactorcourse.reactorcourseapi.model.Product;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Write-behind buffer for unversioned product updates, see CachingProductRepository.update.
+ * <p>
+ * The first update of a product starts a window, the updates coming in during it replace each other and only the last
+ * one is written once the window is over. At most one write per product is in flight, an update arriving meanwhile
+ * starts the next window and waits for it. Until its write is done the buffered product is what get returns.
+ * <p>
+ * A buffered product carries the version the store will have after the write (one version bump per write however many
+ * updates were coalesced). A write is retried a few times, one that still fails is logged, counted and buffered
+ * again for the next window unless a newer update or a discard replaced it in the meantime. What is still buffered
+ * when the process dies without going through flushAll is lost, that's the durability write-behind trades for fewer
+ * writes.
+ * <p>
+ * The state of a product is one immutable Slot swapped with ConcurrentHashMap.compute, so callers only ever contend
+ * on the same product and never wait for a write.
+ * <p>
+ * Metrics: product.writebehind.updates (accepted), product.writebehind.writes, product.writebehind.failures (writes
+ * given up on and buffered again), product.writebehind.coalesce.ratio (updates per write),
+ * product.writebehind.pending and product.writebehind.lag (first buffered update to the end of its write).
+ */
+
+final class ProductWriteBehind {
+    private static final Logger log = LoggerFactory.getLogger(ProductWriteBehind.class);
+
+    private static final int WRITE_RETRIES = 2;
+    private static final Duration RETRY_BACKOFF = Duration.ofMillis(50);
+
+    private final Duration window;
+    private final BiFunction<String, Product, Mono<Product>> writer;
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+    private final Counter updates;
+    private final Counter writes;
+    private final Counter failures;
+    private final Timer lag;
+
+    /**
+     * @param window        how long updates to the same product are coalesced
+     * @param writer        writes the latest update of a product (unconditionally, the version it carries is the
+     *                      predicted one)
+     * @param meterRegistry
+     */
+    ProductWriteBehind(Duration window, BiFunction<String, Product, Mono<Product>> writer, MeterRegistry meterRegistry) {
+        this.window = window;
+        this.writer = writer;
+        this.updates = Counter.builder("product.writebehind.updates")
+                .description("Product updates accepted into the write-behind buffer")
+                .register(meterRegistry);
+        this.writes = Counter.builder("product.writebehind.writes")
+                .description("Writes of buffered product updates")
+                .register(meterRegistry);
+        this.failures = Counter.builder("product.writebehind.failures")
+                .description("Writes of buffered product updates that failed after their retries")
+                .register(meterRegistry);
+        this.lag = Timer.builder("product.writebehind.lag")
+                .description("Time from the first buffered update of a product until its write completed")
+                .register(meterRegistry);
+        Gauge.builder("product.writebehind.coalesce.ratio", this, ProductWriteBehind::coalesceRatio)
+                .description("Buffered updates per write")
+                .register(meterRegistry);
+        Gauge.builder("product.writebehind.pending", slots, ProductWriteBehind::pendingCount)
+                .description("Products with a buffered update waiting for their window to end")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param id
+     * @return the latest buffered product, null when none is waiting or being written
+     */
+    Product get(String id) {
+        Slot slot = slots.get(id);
+        if (slot == null) {
+            return null;
+        }
+        return slot.pending != null ? slot.pending : slot.writing;
+    }
+
+    /**
+     * @return whether no update is buffered or being written, an entry is removed only once its write is done
+     */
+    boolean isEmpty() {
+        return slots.isEmpty();
+    }
+
+    /**
+     * @param id
+     * @param update name and price to write
+     * @param stored the product as read from the store, only needed when get(id) is null
+     * @return the buffered product, null when nothing was buffered for id anymore and stored is null (read the store
+     * and try again)
+     */
+    Product put(String id, Product update, Product stored) {
+        Product[] buffered = new Product[1];
+        boolean[] windowStarted = new boolean[1];
+        slots.compute(id, (key, slot) -> {
+            Long version;
+            long since;
+            if (slot != null && slot.pending != null) {
+                version = slot.pending.getVersion(); // still one write away
+                since = slot.pendingSince;
+            } else {
+                Product base = slot != null ? slot.writing : stored;
+                if (base == null) {
+                    return slot;
+                }
+                version = (base.getVersion() == null ? 0 : base.getVersion()) + 1;
+                since = System.nanoTime();
+                windowStarted[0] = true;
+            }
+
+            Product product = new Product(id, update.getName(), update.getPrice());
+            product.setVersion(version);
+            buffered[0] = product;
+            return slot == null ? new Slot(product, since, null, null, false) : slot.withPending(product, since);
+        });
+        if (buffered[0] == null) {
+            return null;
+        }
+
+        updates.increment();
+        if (windowStarted[0]) {
+            startWindow(id);
+        }
+        return buffered[0];
+    }
+
+    /**
+     * Drops the buffered update of a product, for writes that replace or remove it. A write already in flight still
+     * completes, but isn't buffered again when it fails.
+     *
+     * @param id
+     */
+    void discard(String id) {
+        slots.computeIfPresent(id, (key, slot) -> slot.writing == null ? null : slot.discarded());
+    }
+
+    void discardAll() {
+        slots.keySet().forEach(this::discard);
+    }
+
+    /**
+     * Writes the buffered update of a product now, after the one in flight if there is one.
+     *
+     * @param id
+     * @return completes once nothing of id is buffered or being written anymore, or its write failed and it is
+     * buffered again
+     */
+    Mono<Void> flush(String id) {
+        return Mono.defer(() -> {
+            Slot[] before = new Slot[1];
+            Slot after = slots.computeIfPresent(id, (key, slot) -> {
+                before[0] = slot;
+                if (slot.writing != null || slot.pending == null) {
+                    return slot;
+                }
+                return new Slot(null, 0, slot.pending, write(id, slot.pending, slot.pendingSince), false);
+            });
+
+            if (after == null) {
+                return Mono.empty();
+            }
+            if (after != before[0]) {
+                return after.done;
+            }
+            return after.done.then(flush(id)); // another write is in flight
+        });
+    }
+
+    /**
+     * @return completes once everything buffered so far is written, used on shutdown
+     */
+    Mono<Void> flushAll() {
+        return Flux.defer(() -> Flux.fromIterable(new HashSet<>(slots.keySet())))
+                .flatMap(this::flush)
+                .then();
+    }
+
+    ///> Only assembled here, inside compute, subscribed by whoever flushes once the slot is swapped
+    private Mono<Void> write(String id, Product product, long since) {
+        return writer.apply(id, product)
+                .retryBackoff(WRITE_RETRIES, RETRY_BACKOFF)
+                .then(Mono.fromRunnable(() -> {
+                    writes.increment();
+                    lag.record(System.nanoTime() - since, TimeUnit.NANOSECONDS);
+                    slots.computeIfPresent(id, (key, slot) -> slot.writing != product ? slot : slot.written());
+                }))
+                .onErrorResume(e -> Mono.fromRunnable(() -> failed(id, product, since, e)))
+                .then()
+                .cache();
+    }
+
+    private void failed(String id, Product product, long since, Throwable e) {
+        failures.increment();
+
+        boolean[] bufferedAgain = new boolean[1];
+        slots.computeIfPresent(id, (key, slot) -> {
+            if (slot.writing != product) {
+                return slot;
+            }
+            if (slot.pending != null || slot.isDiscarded) {
+                return slot.written();
+            }
+            bufferedAgain[0] = true;
+            return new Slot(product, since, null, null, false);
+        });
+
+        if (bufferedAgain[0]) {
+            log.error("Write-behind update of product {} failed, buffered again for the next window", id, e);
+            startWindow(id);
+        } else {
+            log.error("Write-behind update of product {} failed, a newer write replaced it", id, e);
+        }
+    }
+
+    private void startWindow(String id) {
+        Mono.delay(window)
+                .flatMap(tick -> flush(id))
+                .subscribe();
+    }
+
+    private double coalesceRatio() {
+        double written = writes.count();
+        return written == 0 ? 0 : updates.count() / written;
+    }
+
+    private static long pendingCount(Map<String, Slot> slots) {
+        return slots.values().stream()
+                .filter(slot -> slot.pending != null)
+                .count();
+    }
+
+    /**
+     * What is buffered for one product: the update waiting for its window to end and the one being written, either
+     * may be null but not both (the entry is removed then).
+     */
+    private static final class Slot {
+        private final Product pending;
+        private final long pendingSince;
+        private final Product writing;
+        private final Mono<Void> done;
+        private final boolean isDiscarded;
+
+        private Slot(Product pending, long pendingSince, Product writing, Mono<Void> done, boolean isDiscarded) {
+            this.pending = pending;
+            this.pendingSince = pendingSince;
+            this.writing = writing;
+            this.done = done;
+            this.isDiscarded = isDiscarded;
+        }
+
+        private Slot withPending(Product product, long since) {
+            return new Slot(product, since, writing, done, isDiscarded);
+        }
+
+        private Slot discarded() {
+            return new Slot(null, 0, writing, done, true);
+        }
+
+        ///> Null (removing the entry) when no update came in during the write
+        private Slot written() {
+            return pending == null ? null : new Slot(pending, pendingSince, null, null, false);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.reactorcourse.reactorcourseapi.seed;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.RuntimeJsonMappingException;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvParser;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import com.reactorcourse.reactorcourseapi.config.SchedulerConfig;
+import com.reactorcourse.reactorcourseapi.model.Product;
+import com.reactorcourse.reactorcourseapi.repository.ProductIndexInitializer;
+import com.reactorcourse.reactorcourseapi.repository.ProductRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.StringDecoder;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Seeds the products collection at startup from product.seed.file, a CSV file (header line with the column names,
+ * id is optional) or NDJSON (one product per line, for any other extension).
+ * <p>
+ * An NDJSON file is read in chunks through an AsynchronousFileChannel and split into lines as it comes in. A CSV file
+ * is streamed through Jackson's CSV parser on the seed scheduler, quoted values may contain commas and line breaks.
+ * Either way memory use doesn't depend on the size of the file. Products are inserted batch-size at a time (one
+ * insertMany per batch) with at most concurrency batches in flight. Progress is logged.
+ * <p>
+ * Without Mongo (in-memory profile) there are no ReactiveMongoOperations, drop-collection deletes all products
+ * instead.
+ */
+
+@Component
+public class ProductSeeder {
+    private static final Logger log = LoggerFactory.getLogger(ProductSeeder.class);
+
+    private final ProductRepository productRepository;
+    private final ReactiveMongoOperations mongoOperations;
+    private final ProductIndexInitializer indexInitializer;
+    private final ObjectMapper objectMapper;
+    private final Scheduler seedScheduler;
+    private final String file;
+    private final boolean dropCollection;
+    private final int batchSize;
+    private final int concurrency;
+    private final int chunkSize;
+
+    private volatile boolean seeding;
+
+    public ProductSeeder(ProductRepository productRepository,
+                         @Nullable ReactiveMongoOperations mongoOperations,
+                         @Nullable ProductIndexInitializer indexInitializer,
+                         ObjectMapper objectMapper,
+                         @Qualifier(SchedulerConfig.SEED) Scheduler seedScheduler,
+                         @Value("${product.seed.file:}") String file,
+                         @Value("${product.seed.drop-collection:false}") boolean dropCollection,
+                         @Value("${product.seed.batch-size:1000}") int batchSize,
+                         @Value("${product.seed.concurrency:4}") int concurrency,
+                         @Value("${product.seed.chunk-size:65536}") int chunkSize) {
+        this.productRepository = productRepository;
+        this.mongoOperations = mongoOperations;
+        this.indexInitializer = indexInitializer;
+        this.objectMapper = objectMapper;
+        this.seedScheduler = seedScheduler;
+        this.file = file;
+        this.dropCollection = dropCollection;
+        this.batchSize = batchSize;
+        this.concurrency = concurrency;
+        this.chunkSize = chunkSize;
+        this.seeding = isConfigured(); // not healthy from the start, the server is up before the seeding begins
+    }
+
+    public boolean isConfigured() {
+        return !file.isEmpty();
+    }
+
+    public boolean isSeeding() {
+        return seeding;
+    }
+
+    /**
+     * Drops and recreates the collection first when product.seed.drop-collection is set, together with its indexes
+     * (see ProductIndexInitializer), dropping a collection drops its indexes too.
+     *
+     * @return the number of inserted products
+     */
+    public Mono<Long> seed() {
+        Path path = Paths.get(file);
+        Mono<Void> prepare = !dropCollection
+                ? Mono.empty()
+                : mongoOperations != null
+                ? mongoOperations.dropCollection(Product.class)
+                        .then(mongoOperations.createCollection(Product.class))
+                        .then(indexInitializer != null ? indexInitializer.ensureIndexes() : Mono.empty())
+                : productRepository.deleteAll();
+
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            log.info("Seeding products from {}", path.toAbsolutePath());
+
+            return prepare
+                    .thenMany(products(path))
+                    .buffer(batchSize)
+                    .flatMap(batch -> productRepository.insert(batch).count(), concurrency)
+                    .reduce(0L, Long::sum)
+                    .doOnNext(count -> {
+                        long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                        log.info("Seeded {} products in {} ms ({} products/s)", count, millis, count * 1000 / millis);
+                    });
+        })
+                .doOnSubscribe(subscription -> seeding = true)
+                .doFinally(signal -> seeding = false);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void reportReady() {
+        if (isConfigured()) {
+            log.info("Ready {} ms after JVM start", ManagementFactory.getRuntimeMXBean().getUptime());
+        }
+    }
+
+    ///> Opening the file blocks, so the read is subscribed to on the seed scheduler, see SchedulerConfig
+    Flux<Product> products(Path path) {
+        if (path.getFileName().toString().toLowerCase().endsWith(".csv")) {
+            return csvProducts(path);
+        }
+
+        Flux<String> lines = StringDecoder.allMimeTypes().decode(
+                DataBufferUtils.read(path, new DefaultDataBufferFactory(), chunkSize).subscribeOn(seedScheduler),
+                ResolvableType.forClass(String.class), null, Collections.emptyMap());
+        ObjectReader reader = objectMapper.readerFor(Product.class);
+
+        return lines
+                .filter(line -> !line.trim().isEmpty())
+                .map(line -> {
+                    try {
+                        return withGeneratedId(reader.readValue(line));
+                    } catch (IOException e) {
+                        throw new IllegalArgumentException("Unreadable product: " + line, e);
+                    }
+                });
+    }
+
+    ///> The parser blocks on the file, every request is served on the seed scheduler (subscribeOn moves them there)
+    private Flux<Product> csvProducts(Path path) {
+        ObjectReader reader = new CsvMapper()
+                .enable(CsvParser.Feature.SKIP_EMPTY_LINES)
+                .readerFor(Product.class)
+                .with(CsvSchema.emptySchema().withHeader());
+
+        return Flux.<Product, MappingIterator<Product>>using(
+                () -> reader.readValues(Files.newBufferedReader(path, StandardCharsets.UTF_8)),
+                products -> Flux.fromIterable(() -> products),
+                products -> {
+                    try {
+                        products.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .map(ProductSeeder::withGeneratedId)
+                ///> MappingIterator wraps mapping errors in RuntimeJsonMappingException and parse errors in a plain
+                ///> RuntimeException around the IOException
+                .onErrorMap(e -> e instanceof RuntimeJsonMappingException || e.getCause() instanceof IOException,
+                        e -> new IllegalArgumentException("Unreadable product: " + e.getMessage(), e))
+                .subscribeOn(seedScheduler);
+    }
+
+    private static Product withGeneratedId(Product product) {
+        if (product.getId() != null && product.getId().isEmpty()) {
+            product.setId(null); // empty id column, let Mongo generate one
+        }
+        return product;
+    }
+}
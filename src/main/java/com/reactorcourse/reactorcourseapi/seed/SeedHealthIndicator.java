@@ -0,0 +1,28 @@
+package com.reactorcourse.reactorcourseapi.seed;
+
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps /actuator/health OUT_OF_SERVICE while the startup seeding runs, the server already accepts connections by
+ * then but the data isn't there yet.
+ */
+
+@Component
+public class SeedHealthIndicator extends AbstractHealthIndicator {
+    private final ProductSeeder productSeeder;
+
+    public SeedHealthIndicator(ProductSeeder productSeeder) {
+        this.productSeeder = productSeeder;
+    }
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) {
+        if (productSeeder.isSeeding()) {
+            builder.outOfService();
+        } else {
+            builder.up();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.reactorcourse.reactorcourseapi.webclient;
+
+import com.reactorcourse.reactorcourseapi.model.Product;
+import org.HdrHistogram.Histogram;
+import org.springframework.http.ResponseEntity;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives a running api with a mix of reads, writes and SSE subscriptions and reports p50/p99/p999 per operation.
+ * <p>
+ * Start the api first, its default profile runs on embedded Mongo so nothing else is needed
+ * <pre>
+ *     mvn spring-boot:run
+ *     mvn package -DskipTests
+ *     java -cp target/reactor-course-api-0.0.1-SNAPSHOT-exec.jar \
+ *          -Dloader.main=com.reactorcourse.reactorcourseapi.webclient.WebClientAPI \
+ *          org.springframework.boot.loader.PropertiesLauncher --rps=500 --mix=read:80,write:15,sse:5 --duration=2m
+ * </pre>
+ * Without --rps every worker sends its next request as soon as the previous one is answered (closed model). With
+ * --rps requests are scheduled at a fixed rate and latency is measured from the scheduled time rather than from when
+ * the request actually went out, so a saturated api shows up as growing latency instead of fewer samples.
+ * <p>
+ * A read is a GET of one of the seeded products. Writes cycle through POST, PUT of the newest created product and
+ * DELETE of the oldest one. An SSE operation subscribes to /events and takes the time until the first event, so it
+ * needs writes in the mix.
+ */
+
+public class LoadGenerator {
+    enum Operation {GET, POST, PUT, DELETE, SSE}
+
+    private final WebClientAPI webClientAPI;
+    private final LoadOptions options;
+    private final Map<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+    private final Deque<String> createdIds = new ConcurrentLinkedDeque<>();
+    private final AtomicLong writes = new AtomicLong();
+    private List<String> seededIds;
+
+    public LoadGenerator(WebClientAPI webClientAPI, LoadOptions options) {
+        this.webClientAPI = webClientAPI;
+        this.options = options;
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new OperationStats());
+        }
+    }
+
+    public void run() {
+        System.out.println("Load generator: " + options);
+
+        seededIds = Flux.range(0, options.getSeed())
+                .flatMap(i -> webClientAPI.postNewProduct(newProduct()).map(this::createdProduct), options.getConcurrency())
+                .map(Product::getId)
+                .collectList()
+                .block();
+
+        Duration total = options.getWarmup().plus(options.getDuration());
+        Flux<Void> load = options.getRps() > 0 ? openModel() : closedModel();
+
+        Mono.delay(options.getWarmup())
+                .subscribe(tick -> {
+                    stats.values().forEach(OperationStats::reset);
+                    System.out.println("Warmup done, measuring for " + options.getDuration());
+                });
+        load.take(total).blockLast();
+
+        report();
+
+        Flux.concat(Flux.fromIterable(seededIds), Flux.fromIterable(createdIds))
+                .flatMap(id -> webClientAPI.deleteProduct(id).onErrorResume(e -> Mono.empty()), options.getConcurrency())
+                .blockLast();
+    }
+
+    private Flux<Void> closedModel() {
+        return Flux.range(0, options.getConcurrency())
+                .flatMap(worker -> Mono.defer(() -> execute(System.nanoTime())).repeat(), options.getConcurrency());
+    }
+
+    private Flux<Void> openModel() {
+        long intervalNanos = 1_000_000_000L / options.getRps();
+        long start = System.nanoTime();
+
+        ///> Ticks that find all slots in flight are buffered, their wait counts towards the latency
+        return Flux.interval(Duration.ofNanos(intervalNanos))
+                .onBackpressureBuffer()
+                .flatMap(tick -> execute(start + (tick + 1) * intervalNanos), options.getConcurrency());
+    }
+
+    private Mono<Void> execute(long startNanos) {
+        Operation operation = nextOperation();
+        OperationStats operationStats = stats.get(operation);
+
+        return call(operation)
+                .doOnSuccess(v -> operationStats.recordLatency(System.nanoTime() - startNanos))
+                .onErrorResume(e -> {
+                    operationStats.recordError(e);
+                    return Mono.empty();
+                });
+    }
+
+    private Operation nextOperation() {
+        int pick = ThreadLocalRandom.current().nextInt(options.getTotalWeight());
+        if (pick < options.getReadWeight()) {
+            return Operation.GET;
+        }
+        if (pick >= options.getReadWeight() + options.getWriteWeight()) {
+            return Operation.SSE;
+        }
+
+        ///> PUT and DELETE need a product created by an earlier POST
+        Operation write = Operation.values()[1 + (int) (writes.getAndIncrement() % 3)];
+        return write == Operation.POST || createdIds.isEmpty() ? Operation.POST : write;
+    }
+
+    private Mono<Void> call(Operation operation) {
+        switch (operation) {
+            case GET:
+                return webClientAPI.getProduct(seededIds.get(ThreadLocalRandom.current().nextInt(seededIds.size())))
+                        .then();
+            case POST:
+                return webClientAPI.postNewProduct(newProduct())
+                        .map(this::createdProduct)
+                        .doOnNext(product -> createdIds.addLast(product.getId()))
+                        .then();
+            case PUT:
+                return Mono.justOrEmpty(createdIds.peekLast())
+                        .flatMap(id -> webClientAPI.updateProduct(id, "White Tea", 0.99))
+                        .then();
+            case DELETE:
+                return Mono.justOrEmpty(createdIds.pollFirst())
+                        .flatMap(webClientAPI::deleteProduct);
+            default:
+                return webClientAPI.getAllEvents()
+                        .next()
+                        .timeout(options.getSseTimeout())
+                        .then();
+        }
+    }
+
+    private Product newProduct() {
+        return new Product(null, "Black Tea", 1.99);
+    }
+
+    private Product createdProduct(ResponseEntity<Product> response) {
+        if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
+            throw new IllegalStateException("POST answered " + response.getStatusCode());
+        }
+        return response.getBody();
+    }
+
+    private void report() {
+        double seconds = options.getDuration().toMillis() / 1000.0;
+
+        System.out.println(String.format("%-8s %10s %8s %10s %10s %10s %10s %10s",
+                "op", "count", "errors", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+        for (Map.Entry<Operation, OperationStats> entry : stats.entrySet()) {
+            Histogram histogram = entry.getValue().histogram();
+            long errors = entry.getValue().errors();
+            if (histogram.getTotalCount() == 0 && errors == 0) {
+                continue;
+            }
+
+            System.out.println(String.format("%-8s %10d %8d %10.1f %10.3f %10.3f %10.3f %10.3f",
+                    entry.getKey(),
+                    histogram.getTotalCount(),
+                    errors,
+                    histogram.getTotalCount() / seconds,
+                    histogram.getValueAtPercentile(50) / 1000.0,
+                    histogram.getValueAtPercentile(99) / 1000.0,
+                    histogram.getValueAtPercentile(99.9) / 1000.0,
+                    histogram.getMaxValue() / 1000.0));
+        }
+        ///> Counted over the whole run, seeding and warmup included
+        if (webClientAPI.getRetries() > 0 || webClientAPI.getHedges() > 0) {
+            System.out.println("Retries: " + webClientAPI.getRetries() + ", hedged GETs: " + webClientAPI.getHedges());
+        }
+        stats.forEach((operation, operationStats) -> {
+            if (operationStats.lastError() != null) {
+                System.out.println("Last " + operation + " error: " + operationStats.lastError());
+            }
+        });
+    }
+}
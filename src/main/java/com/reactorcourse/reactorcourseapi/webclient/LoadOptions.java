@@ -0,0 +1,230 @@
+package com.reactorcourse.reactorcourseapi.webclient;
+
+import com.reactorcourse.reactorcourseapi.config.CodecConfig;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.http.MediaType;
+
+import java.time.Duration;
+
+/**
+ * Command line options of the load generator, all given as --name=value
+ * <pre>
+ *     --base-url=http://localhost:8080/products   products endpoint to load
+ *     --rps=500                                   target requests per second, 0 (default) runs a fixed concurrency
+ *     --concurrency=16                            workers (fixed concurrency) or max requests in flight (target rps)
+ *     --mix=read:80,write:20,sse:0                weights of the operations
+ *     --warmup=10s                                run before measuring, latencies of the warmup are discarded
+ *     --duration=60s                              measured run
+ *     --seed=100                                  products created up front for the reads, deleted afterwards
+ *     --sse-timeout=5s                            how long an sse operation waits for its first event
+ *     --codec=json                                body encoding, json, smile or cbor
+ *     --retries=0                                 retries of failed GET, PUT and DELETE, see WebClientOptions
+ *     --hedge-delay=20ms                          hedge GETs unanswered after that long, not hedged by default
+ * </pre>
+ * Retries are off by default so failures show up as errors of the run instead of as extra latency.
+ */
+
+public class LoadOptions {
+    private String baseUrl = WebClientAPI.DEFAULT_BASE_URL;
+    private int rps;
+    private int concurrency = 16;
+    private int readWeight = 80;
+    private int writeWeight = 20;
+    private int sseWeight;
+    private Duration warmup = Duration.ofSeconds(10);
+    private Duration duration = Duration.ofSeconds(60);
+    private int seed = 100;
+    private Duration sseTimeout = Duration.ofSeconds(5);
+    private MediaType mediaType = MediaType.APPLICATION_JSON;
+    private int retries;
+    private Duration hedgeDelay;
+
+    public static LoadOptions parse(String... args) {
+        LoadOptions options = new LoadOptions();
+
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            String value = arg.substring(separator + 1);
+
+            switch (arg.substring(2, separator)) {
+                case "base-url":
+                    options.baseUrl = value;
+                    break;
+                case "rps":
+                    options.rps = Integer.parseInt(value);
+                    break;
+                case "concurrency":
+                    options.concurrency = Integer.parseInt(value);
+                    break;
+                case "mix":
+                    options.parseMix(value);
+                    break;
+                case "warmup":
+                    options.warmup = DurationStyle.detectAndParse(value);
+                    break;
+                case "duration":
+                    options.duration = DurationStyle.detectAndParse(value);
+                    break;
+                case "seed":
+                    options.seed = Integer.parseInt(value);
+                    break;
+                case "sse-timeout":
+                    options.sseTimeout = DurationStyle.detectAndParse(value);
+                    break;
+                case "codec":
+                    options.mediaType = parseCodec(value);
+                    break;
+                case "retries":
+                    options.retries = Integer.parseInt(value);
+                    break;
+                case "hedge-delay":
+                    options.hedgeDelay = DurationStyle.detectAndParse(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+
+        if (options.rps < 0 || options.retries < 0 || options.concurrency < 1 || options.seed < 1) {
+            throw new IllegalArgumentException("rps and retries must not be negative, concurrency and seed must be positive");
+        }
+        if (options.getTotalWeight() == 0) {
+            throw new IllegalArgumentException("At least one operation of the mix needs a weight");
+        }
+        return options;
+    }
+
+    private static MediaType parseCodec(String codec) {
+        switch (codec) {
+            case "json":
+                return MediaType.APPLICATION_JSON;
+            case "smile":
+                return CodecConfig.APPLICATION_SMILE;
+            case "cbor":
+                return MediaType.APPLICATION_CBOR;
+            default:
+                throw new IllegalArgumentException("Unknown codec " + codec + ", expected json, smile or cbor");
+        }
+    }
+
+    private void parseMix(String mix) {
+        readWeight = 0;
+        writeWeight = 0;
+        sseWeight = 0;
+
+        for (String entry : mix.split(",")) {
+            String[] operationAndWeight = entry.split(":");
+            if (operationAndWeight.length != 2) {
+                throw new IllegalArgumentException("Expected operation:weight but got " + entry);
+            }
+            int weight = Integer.parseInt(operationAndWeight[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Weight must not be negative: " + entry);
+            }
+
+            switch (operationAndWeight[0].trim()) {
+                case "read":
+                    readWeight = weight;
+                    break;
+                case "write":
+                    writeWeight = weight;
+                    break;
+                case "sse":
+                    sseWeight = weight;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown operation " + entry + ", expected read, write or sse");
+            }
+        }
+    }
+
+    ///> SSE operations keep their connection until the first event arrives, so they get pooled connections on top
+    public int getMaxConnections() {
+        return sseWeight > 0 ? concurrency * 2 : concurrency;
+    }
+
+    public WebClientOptions getClientOptions() {
+        return new WebClientOptions()
+                .baseUrl(baseUrl)
+                .mediaType(mediaType)
+                .maxConnections(getMaxConnections())
+                .maxRetries(retries)
+                .hedgeDelay(hedgeDelay);
+    }
+
+    public int getTotalWeight() {
+        return readWeight + writeWeight + sseWeight;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public int getRps() {
+        return rps;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public int getReadWeight() {
+        return readWeight;
+    }
+
+    public int getWriteWeight() {
+        return writeWeight;
+    }
+
+    public int getSseWeight() {
+        return sseWeight;
+    }
+
+    public Duration getWarmup() {
+        return warmup;
+    }
+
+    public Duration getDuration() {
+        return duration;
+    }
+
+    public int getSeed() {
+        return seed;
+    }
+
+    public Duration getSseTimeout() {
+        return sseTimeout;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    public Duration getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    @Override
+    public String toString() {
+        return "LoadOptions{" +
+                "baseUrl='" + baseUrl + '\'' +
+                ", rps=" + rps +
+                ", concurrency=" + concurrency +
+                ", mix=read:" + readWeight + ",write:" + writeWeight + ",sse:" + sseWeight +
+                ", warmup=" + warmup +
+                ", duration=" + duration +
+                ", seed=" + seed +
+                ", sseTimeout=" + sseTimeout +
+                ", mediaType=" + mediaType +
+                ", retries=" + retries +
+                ", hedgeDelay=" + hedgeDelay +
+                '}';
+    }
+}
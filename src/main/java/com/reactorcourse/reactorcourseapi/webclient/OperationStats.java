@@ -0,0 +1,45 @@
+package com.reactorcourse.reactorcourseapi.webclient;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies (in microseconds) and errors of one operation of the load generator, safe to record from any thread.
+ */
+
+class OperationStats {
+    private final Recorder recorder = new Recorder(3);
+    private final LongAdder errors = new LongAdder();
+    private volatile Throwable lastError;
+
+    void recordLatency(long nanos) {
+        recorder.recordValue(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    void recordError(Throwable error) {
+        errors.increment();
+        lastError = error;
+    }
+
+    void reset() {
+        recorder.reset();
+        errors.reset();
+        lastError = null;
+    }
+
+    ///> Everything recorded since the last reset, clears the recorder
+    Histogram histogram() {
+        return recorder.getIntervalHistogram();
+    }
+
+    long errors() {
+        return errors.sum();
+    }
+
+    Throwable lastError() {
+        return lastError;
+    }
+}
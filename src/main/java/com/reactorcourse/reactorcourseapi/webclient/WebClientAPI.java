@@ -1,58 +1,153 @@
 package com.reactorcourse.reactorcourseapi.webclient;
 
+import com.reactorcourse.reactorcourseapi.config.CodecConfig;
 import com.reactorcourse.reactorcourseapi.model.Product;
 import com.reactorcourse.reactorcourseapi.model.ProductEvent;
+import io.netty.channel.ChannelOption;
+import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggingSystem;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.reactive.function.client.ExchangeStrategies;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.util.retry.Retry;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
  * Created by Jonathan Tuta on 4/21/2020.
+ * <p>
+ * Client of the products api on a pool of its own (WebClientOptions), the idempotent calls are retried with jittered
+ * exponential backoff on connection errors, timeouts, 429 and 5xx, getProduct can be hedged. Call dispose once done to
+ * close the pooled connections.
  */
 
 public class WebClientAPI {
-    private WebClient webClient;
+    public static final String DEFAULT_BASE_URL = "http://localhost:8080/products";
+
+    private final WebClient webClient;
+
+    private final MediaType mediaType;
+
+    private final WebClientOptions options;
+
+    private final ConnectionProvider connectionProvider;
+
+    private final LongAdder retries = new LongAdder();
+
+    private final LongAdder hedges = new LongAdder();
 
     public WebClientAPI() {
+        this(new WebClientOptions());
+    }
+
+    public WebClientAPI(String baseUrl, int maxConnections, MediaType mediaType) {
+        this(new WebClientOptions().baseUrl(baseUrl).maxConnections(maxConnections).mediaType(mediaType));
+    }
+
+    public WebClientAPI(WebClientOptions options) {
+        this.connectionProvider = ConnectionProvider.builder("web-client-api")
+                .maxConnections(options.getMaxConnections())
+                .pendingAcquireMaxCount(options.getPendingAcquireMaxCount())
+                .pendingAcquireTimeout(options.getPendingAcquireTimeout())
+                .maxIdleTime(options.getMaxIdleTime())
+                .metrics(options.isMetrics())
+                .build();
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .tcpConfiguration(tcpClient ->
+                        tcpClient.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) options.getConnectTimeout().toMillis()));
+
         this.webClient = WebClient.builder()
-                .baseUrl("http://localhost:8080/products")
+                .baseUrl(options.getBaseUrl())
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .exchangeStrategies(ExchangeStrategies.builder()
+                        .codecs(configurer -> CodecConfig.registerBinaryCodecs(configurer, Jackson2ObjectMapperBuilder.json()))
+                        .build())
                 .build();
+        this.mediaType = options.getMediaType();
+        this.options = options;
     }
 
     /**
-     * First run the api (Spring Boot Project) then run main
+     * First run the api (Spring Boot Project) then run main, see LoadGenerator for the options
      *
      * @param args
      */
     public static void main(String[] args) {
-        WebClientAPI webClientAPI = new WebClientAPI();
+        ///> Outside of Spring Boot logback logs everything at DEBUG, which would slow down the client more than the api
+        LoggingSystem loggingSystem = LoggingSystem.get(WebClientAPI.class.getClassLoader());
+        loggingSystem.beforeInitialize();
+        loggingSystem.setLogLevel(LoggingSystem.ROOT_LOGGER_NAME, LogLevel.WARN);
 
-        webClientAPI.postNewProduct()
-                .thenMany(webClientAPI.getAllProducts())
-                .take(1)
-                .flatMap(p -> webClientAPI.updateProduct(p.getId(), "White Tea", 0.99))
-                .flatMap(p -> webClientAPI.deleteProduct(p.getId()))
-                .thenMany(webClientAPI.getAllProducts())
-                .thenMany(webClientAPI.getAllEvents())
-                .subscribe(System.out::println);
+        LoadOptions options = LoadOptions.parse(args);
+
+        WebClientAPI webClientAPI = new WebClientAPI(options.getClientOptions());
+        try {
+            new LoadGenerator(webClientAPI, options).run();
+        } finally {
+            webClientAPI.dispose();
+        }
     }
 
-    private Mono<ResponseEntity<Product>> postNewProduct() {
+    /**
+     * Not retried, a POST that timed out might still have created the product
+     *
+     * @param product
+     * @return
+     */
+    public Mono<ResponseEntity<Product>> postNewProduct(Product product) {
         return webClient
                 .post()
-                .body(Mono.just(new Product(null, "Black Tea", 1.99)), Product.class)
+                .contentType(mediaType)
+                .accept(mediaType)
+                .body(Mono.just(product), Product.class)
                 .exchange()
                 .flatMap(clientResponse -> clientResponse.toEntity(Product.class))
-                .doOnSuccess(o -> System.out.println("**************** POST: " + o));
+                .timeout(options.getResponseTimeout());
     }
 
-    private Flux<Product> getAllProducts() {
-        return webClient
+    /**
+     * Retried only as long as no product has been received yet, a retry past that point would repeat products
+     *
+     * @return
+     */
+    public Flux<Product> getAllProducts() {
+        return Flux.defer(() -> {
+            AtomicBoolean received = new AtomicBoolean();
+            return webClient
+                    .get()
+                    .accept(mediaType)
+                    .retrieve()
+                    .bodyToFlux(Product.class)
+                    .timeout(options.getResponseTimeout())
+                    .doOnNext(product -> received.set(true))
+                    .retryWhen(retry(error -> !received.get()));
+        });
+    }
+
+    public Mono<Product> getProduct(String id) {
+        return hedged(() -> webClient
                 .get()
+                .uri("/{id}", id)
+                .accept(mediaType)
                 .retrieve()
-                .bodyToFlux(Product.class)
-                .doOnNext(o -> System.out.println("******************* GET: " + o));
+                .bodyToMono(Product.class)
+                .timeout(options.getResponseTimeout()))
+                .retryWhen(retry(error -> true));
     }
 
     /**
@@ -63,31 +158,90 @@ public class WebClientAPI {
      * @param price
      * @return
      */
-    private Mono<Product> updateProduct(String id, String name, double price) {
+    public Mono<Product> updateProduct(String id, String name, double price) {
         return webClient
                 .put()
                 .uri("/{id}", id)
+                .contentType(mediaType)
+                .accept(mediaType)
                 .body(Mono.just(new Product(null, name, price)), Product.class)
                 .retrieve() // to perform the request, if exchange used instead then map operation needed, see postNewProduct method above
                 .bodyToMono(Product.class)
-                .doOnSuccess(o -> System.out.println("*********************** UPDATE: " + o));
+                .timeout(options.getResponseTimeout())
+                .retryWhen(retry(error -> true));
     }
 
-    private Mono<Void> deleteProduct(String id) {
+    /**
+     * Retried as well, when the response of a successful delete got lost the retry fails with 404
+     *
+     * @param id
+     * @return
+     */
+    public Mono<Void> deleteProduct(String id) {
         return webClient
                 .delete()
                 .uri("/{id}", id)
                 .retrieve()
                 .bodyToMono(Void.class)
-                .doOnSuccess(o -> System.out.println("********************* DELETE: " + o));
-
+                .timeout(options.getResponseTimeout())
+                .retryWhen(retry(error -> true));
     }
 
-    private Flux<ProductEvent> getAllEvents() {
+    ///> No timeout nor retry, the stream is idle between events and a resubscription would miss the events in between
+    public Flux<ProductEvent> getAllEvents() {
         return webClient
                 .get()
                 .uri("/events")
                 .retrieve()
                 .bodyToFlux(ProductEvent.class);
     }
+
+    /**
+     * @return retries done so far, over all calls
+     */
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * @return hedged requests sent so far
+     */
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    public void dispose() {
+        connectionProvider.dispose();
+    }
+
+    ///> The first of the two attempts to signal wins, the other one is cancelled (and its connection released)
+    private <T> Mono<T> hedged(Supplier<Mono<T>> attempt) {
+        Duration hedgeDelay = options.getHedgeDelay();
+        if (hedgeDelay == null) {
+            return Mono.defer(attempt);
+        }
+
+        return Mono.first(
+                Mono.defer(attempt),
+                Mono.delay(hedgeDelay).then(Mono.defer(() -> {
+                    hedges.increment();
+                    return attempt.get();
+                })));
+    }
+
+    private Retry retry(Predicate<Throwable> retryable) {
+        return Retry.backoff(options.getMaxRetries(), options.getRetryBackoff())
+                .jitter(0.5)
+                .filter(error -> isTransient(error) && retryable.test(error))
+                .doBeforeRetry(signal -> retries.increment())
+                .onRetryExhaustedThrow((spec, signal) -> signal.failure());
+    }
+
+    static boolean isTransient(Throwable error) {
+        if (error instanceof WebClientResponseException) {
+            int status = ((WebClientResponseException) error).getRawStatusCode();
+            return status == HttpStatus.TOO_MANY_REQUESTS.value() || status >= 500;
+        }
+        return error instanceof TimeoutException || error instanceof IOException;
+    }
 }
@@ -0,0 +1,186 @@
+package com.reactorcourse.reactorcourseapi.webclient;
+
+import org.springframework.http.MediaType;
+
+import java.time.Duration;
+
+/**
+ * Settings of a WebClientAPI, every setter returns this so they can be chained
+ * <pre>
+ *     new WebClientAPI(new WebClientOptions().baseUrl("http://catalog:8080/products").maxConnections(64))
+ * </pre>
+ * Defaults suit a client talking to one api instance over a LAN. Retries only ever apply to the idempotent calls (GET,
+ * PUT, DELETE), hedging only to getProduct, and is off unless hedgeDelay is set.
+ */
+
+public class WebClientOptions {
+    private String baseUrl = WebClientAPI.DEFAULT_BASE_URL;
+    private MediaType mediaType = MediaType.APPLICATION_JSON;
+    private int maxConnections = 16;
+    private int pendingAcquireMaxCount = 256;
+    private Duration pendingAcquireTimeout = Duration.ofSeconds(5);
+    private Duration maxIdleTime = Duration.ofSeconds(30);
+    private Duration connectTimeout = Duration.ofSeconds(2);
+    private Duration responseTimeout = Duration.ofSeconds(5);
+    private int maxRetries = 2;
+    private Duration retryBackoff = Duration.ofMillis(100);
+    private Duration hedgeDelay;
+    private boolean metrics = true;
+
+    /**
+     * @param baseUrl products endpoint of the api, annotated (/products) or functional (/functional-products)
+     * @return this
+     */
+    public WebClientOptions baseUrl(String baseUrl) {
+        this.baseUrl = baseUrl;
+        return this;
+    }
+
+    /**
+     * @param mediaType JSON or one of the binary types of CodecConfig (Smile, CBOR), used for request and response
+     *                  bodies
+     * @return this
+     */
+    public WebClientOptions mediaType(MediaType mediaType) {
+        this.mediaType = mediaType;
+        return this;
+    }
+
+    /**
+     * @param maxConnections size of the connection pool, requests beyond it wait for a free connection
+     * @return this
+     */
+    public WebClientOptions maxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    /**
+     * @param pendingAcquireMaxCount requests allowed to wait for a connection, any more fail right away
+     * @return this
+     */
+    public WebClientOptions pendingAcquireMaxCount(int pendingAcquireMaxCount) {
+        this.pendingAcquireMaxCount = pendingAcquireMaxCount;
+        return this;
+    }
+
+    /**
+     * @param pendingAcquireTimeout how long a request waits for a connection before failing
+     * @return this
+     */
+    public WebClientOptions pendingAcquireTimeout(Duration pendingAcquireTimeout) {
+        this.pendingAcquireTimeout = pendingAcquireTimeout;
+        return this;
+    }
+
+    /**
+     * @param maxIdleTime connections unused for that long are closed instead of being handed out again (the api or a
+     *                    load balancer might have dropped them in the meantime)
+     * @return this
+     */
+    public WebClientOptions maxIdleTime(Duration maxIdleTime) {
+        this.maxIdleTime = maxIdleTime;
+        return this;
+    }
+
+    public WebClientOptions connectTimeout(Duration connectTimeout) {
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    /**
+     * @param responseTimeout per attempt, until the response (of a stream, until each next element) has arrived
+     * @return this
+     */
+    public WebClientOptions responseTimeout(Duration responseTimeout) {
+        this.responseTimeout = responseTimeout;
+        return this;
+    }
+
+    /**
+     * @param maxRetries retries of an idempotent call after a connection error, a timeout, a 429 or a 5xx, 0 for none
+     * @return this
+     */
+    public WebClientOptions maxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    /**
+     * @param retryBackoff delay before the first retry, doubled on each further one with up to 50% jitter
+     * @return this
+     */
+    public WebClientOptions retryBackoff(Duration retryBackoff) {
+        this.retryBackoff = retryBackoff;
+        return this;
+    }
+
+    /**
+     * @param hedgeDelay a GET still unanswered after that long is sent a second time and the first of the two
+     *                   responses is used, null (default) to never hedge. Somewhere around the p95 latency of the api
+     *                   cuts the tail at the cost of about 5% more requests.
+     * @return this
+     */
+    public WebClientOptions hedgeDelay(Duration hedgeDelay) {
+        this.hedgeDelay = hedgeDelay;
+        return this;
+    }
+
+    /**
+     * @param metrics reactor.netty.connection.provider.* gauges of the pool on Micrometer's global registry (which
+     *                Spring Boot feeds into its own, so they show up on /actuator/prometheus)
+     * @return this
+     */
+    public WebClientOptions metrics(boolean metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getPendingAcquireMaxCount() {
+        return pendingAcquireMaxCount;
+    }
+
+    public Duration getPendingAcquireTimeout() {
+        return pendingAcquireTimeout;
+    }
+
+    public Duration getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    public Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public Duration getResponseTimeout() {
+        return responseTimeout;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public Duration getRetryBackoff() {
+        return retryBackoff;
+    }
+
+    public Duration getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    public boolean isMetrics() {
+        return metrics;
+    }
+}
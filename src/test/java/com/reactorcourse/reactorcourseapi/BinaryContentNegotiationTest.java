@@ -0,0 +1,187 @@
+package com.reactorcourse.reactorcourseapi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactorcourse.reactorcourseapi.bulk.BulkProductLoader;
+import com.reactorcourse.reactorcourseapi.config.CodecConfig;
+import com.reactorcourse.reactorcourseapi.controller.ProductController;
+import com.reactorcourse.reactorcourseapi.event.ProductEventBus;
+import com.reactorcourse.reactorcourseapi.export.ProductExporter;
+import com.reactorcourse.reactorcourseapi.handler.ProductHandler;
+import com.reactorcourse.reactorcourseapi.model.BulkResult;
+import com.reactorcourse.reactorcourseapi.model.Product;
+import com.reactorcourse.reactorcourseapi.repository.ProductRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.server.HandlerStrategies;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Smile and CBOR round trips against the annotated controller and the functional routes, in this package because
+ * ReactorCourseApiApplication.routes is package private.
+ */
+
+class BinaryContentNegotiationTest {
+
+    private ProductRepository repository;
+
+    private ProductEventBus productEventBus;
+
+    private BulkProductLoader bulkProductLoader;
+
+    private ProductExporter productExporter;
+
+    private List<Product> products;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(ProductRepository.class);
+        productEventBus = new ProductEventBus(256);
+        bulkProductLoader = new BulkProductLoader(repository, productEventBus, 2, 1);
+        productExporter = new ProductExporter(repository, new ObjectMapper(), Schedulers.boundedElastic(), 2, new SimpleMeterRegistry());
+
+        products = Arrays.asList(
+                new Product("1", "Big Latte", 2.99),
+                new Product("2", "Big Decaf", 2.49)
+        );
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {CodecConfig.APPLICATION_SMILE_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    void getAllProducts_annotated(String mediaType) {
+        getAllProducts(annotatedClient(), MediaType.valueOf(mediaType));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {CodecConfig.APPLICATION_SMILE_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    void getAllProducts_functional(String mediaType) {
+        getAllProducts(functionalClient(), MediaType.valueOf(mediaType));
+    }
+
+    @Test
+    void getAllProducts_annotated_noAccept_json() {
+        when(repository.findAll()).thenReturn(Flux.fromIterable(products));
+
+        annotatedClient().get()
+                .uri("/")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_JSON)
+                .expectBodyList(Product.class)
+                .isEqualTo(products);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {CodecConfig.APPLICATION_SMILE_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    void saveProduct_annotated(String mediaType) {
+        saveProduct(annotatedClient(), MediaType.valueOf(mediaType));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {CodecConfig.APPLICATION_SMILE_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    void saveProduct_functional(String mediaType) {
+        saveProduct(functionalClient(), MediaType.valueOf(mediaType));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {CodecConfig.APPLICATION_SMILE_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    void saveProducts_annotated(String mediaType) {
+        saveProducts(annotatedClient(), MediaType.valueOf(mediaType));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {CodecConfig.APPLICATION_SMILE_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    void saveProducts_functional(String mediaType) {
+        saveProducts(functionalClient(), MediaType.valueOf(mediaType));
+    }
+
+    private void getAllProducts(WebTestClient client, MediaType mediaType) {
+        when(repository.findAll()).thenReturn(Flux.fromIterable(products));
+
+        client.get()
+                .uri("/")
+                .accept(mediaType)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(mediaType)
+                .expectBodyList(Product.class)
+                .isEqualTo(products);
+    }
+
+    private void saveProduct(WebTestClient client, MediaType mediaType) {
+        Product product = new Product(null, "Black Tea", 1.99);
+        Product savedProduct = new Product("3", "Black Tea", 1.99);
+        when(repository.save(any(Product.class))).thenReturn(Mono.just(savedProduct));
+
+        client.post()
+                .contentType(mediaType)
+                .accept(mediaType)
+                .bodyValue(product)
+                .exchange()
+                .expectStatus().isCreated()
+                .expectHeader().contentType(mediaType)
+                .expectBody(Product.class)
+                .isEqualTo(savedProduct);
+    }
+
+    private void saveProducts(WebTestClient client, MediaType mediaType) {
+        when(repository.saveAll(anyIterable())).thenAnswer(invocation -> Flux.fromIterable(invocation.getArgument(0)));
+
+        List<BulkResult> results = client.post()
+                .uri("/bulk")
+                .contentType(mediaType)
+                .accept(mediaType)
+                .body(Flux.fromIterable(products), Product.class)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(BulkResult.class)
+                .returnResult()
+                .getResponseBody();
+
+        assertEquals(Arrays.asList(new BulkResult(0L, 2, null)), results);
+    }
+
+    private WebTestClient annotatedClient() {
+        return WebTestClient
+                .bindToController(new ProductController(repository, productEventBus, bulkProductLoader, productExporter))
+                .httpMessageCodecs(configurer -> CodecConfig.registerBinaryCodecs(configurer, Jackson2ObjectMapperBuilder.json()))
+                .contentTypeResolver(CodecConfig::configureContentTypeResolver)
+                .configureClient()
+                .codecs(configurer -> CodecConfig.registerBinaryCodecs(configurer, Jackson2ObjectMapperBuilder.json()))
+                .baseUrl("/products")
+                .build();
+    }
+
+    private WebTestClient functionalClient() {
+        RouterFunction<ServerResponse> routerFunction = new ReactorCourseApiApplication()
+                .routes(new ProductHandler(repository, productEventBus, bulkProductLoader, productExporter));
+
+        return WebTestClient
+                .bindToRouterFunction(routerFunction)
+                .handlerStrategies(HandlerStrategies.builder()
+                        .codecs(configurer -> CodecConfig.registerBinaryCodecs(configurer, Jackson2ObjectMapperBuilder.json()))
+                        .build())
+                .configureClient()
+                .codecs(configurer -> CodecConfig.registerBinaryCodecs(configurer, Jackson2ObjectMapperBuilder.json()))
+                .baseUrl("/functional-products")
+                .build();
+    }
+}
@@ -0,0 +1,174 @@
+package com.reactorcourse.reactorcourseapi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactorcourse.reactorcourseapi.bulk.BulkProductLoader;
+import com.reactorcourse.reactorcourseapi.controller.ProductController;
+import com.reactorcourse.reactorcourseapi.event.ProductEventBus;
+import com.reactorcourse.reactorcourseapi.export.ProductExporter;
+import com.reactorcourse.reactorcourseapi.handler.ProductHandler;
+import com.reactorcourse.reactorcourseapi.model.Product;
+import com.reactorcourse.reactorcourseapi.model.ProductEventType;
+import com.reactorcourse.reactorcourseapi.repository.ProductRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * ETag and If-None-Match against the annotated controller and the functional routes, in this package because
+ * ReactorCourseApiApplication.routes is package private.
+ */
+
+class ConditionalGetTest {
+
+    private ProductRepository repository;
+
+    private ProductEventBus productEventBus;
+
+    private Product product;
+
+    private AtomicInteger queries;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(ProductRepository.class);
+        productEventBus = new ProductEventBus(256);
+        product = new Product("1", "Big Latte", 2.99);
+        product.setVersion(3L);
+
+        queries = new AtomicInteger();
+        when(repository.findAll()).thenReturn(Flux.just(product).doOnSubscribe(subscription -> queries.incrementAndGet()));
+        when(repository.findById("1")).thenReturn(Mono.just(product));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"annotated", "functional"})
+    void getAllProducts_matchingETag_notModifiedWithoutQuery(String stack) {
+        WebTestClient client = client(stack);
+        String eTag = eTag(client, "/");
+
+        client.get()
+                .uri("/")
+                .accept(MediaType.APPLICATION_JSON)
+                .ifNoneMatch(eTag)
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectHeader().valueEquals("ETag", eTag)
+                .expectBody().isEmpty();
+
+        assertEquals(1, queries.get()); // only the first request ran the query
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"annotated", "functional"})
+    void getAllProducts_afterWrite_newETag(String stack) {
+        WebTestClient client = client(stack);
+        String eTag = eTag(client, "/");
+
+        productEventBus.publish(ProductEventType.UPDATED, "1");
+
+        client.get()
+                .uri("/")
+                .accept(MediaType.APPLICATION_JSON)
+                .ifNoneMatch(eTag)
+                .exchange()
+                .expectStatus().isOk();
+        assertNotEquals(eTag, eTag(client, "/"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"annotated", "functional"})
+    void getAllProducts_pendingWrites_noETag(String stack) {
+        WebTestClient client = client(stack);
+        String eTag = eTag(client, "/");
+        when(repository.hasPendingWrites()).thenReturn(true);
+
+        client.get()
+                .uri("/")
+                .accept(MediaType.APPLICATION_JSON)
+                .ifNoneMatch(eTag)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().doesNotExist("ETag");
+        assertEquals(2, queries.get());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"annotated", "functional"})
+    void getProduct_matchingETag_notModified(String stack) {
+        WebTestClient client = client(stack);
+        String eTag = eTag(client, "/1");
+
+        client.get()
+                .uri("/1")
+                .accept(MediaType.APPLICATION_JSON)
+                .ifNoneMatch(eTag)
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectBody().isEmpty();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"annotated", "functional"})
+    void getProduct_newVersion_newETag(String stack) {
+        WebTestClient client = client(stack);
+        String eTag = eTag(client, "/1");
+
+        Product updatedProduct = new Product("1", "Big Latte", 3.49);
+        updatedProduct.setVersion(4L);
+        when(repository.findById("1")).thenReturn(Mono.just(updatedProduct));
+
+        client.get()
+                .uri("/1")
+                .accept(MediaType.APPLICATION_JSON)
+                .ifNoneMatch(eTag)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(Product.class)
+                .isEqualTo(updatedProduct);
+    }
+
+    private String eTag(WebTestClient client, String uri) {
+        String eTag = client.get()
+                .uri(uri)
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(String.class)
+                .getResponseHeaders()
+                .getETag();
+
+        assertNotNull(eTag);
+        return eTag;
+    }
+
+    private WebTestClient client(String stack) {
+        BulkProductLoader bulkProductLoader = new BulkProductLoader(repository, productEventBus, 2, 1);
+        ProductExporter productExporter = new ProductExporter(repository, new ObjectMapper(), Schedulers.boundedElastic(), 2, new SimpleMeterRegistry());
+
+        if ("annotated".equals(stack)) {
+            return WebTestClient
+                    .bindToController(new ProductController(repository, productEventBus, bulkProductLoader, productExporter))
+                    .configureClient()
+                    .baseUrl("/products")
+                    .build();
+        }
+        return WebTestClient
+                .bindToRouterFunction(new ReactorCourseApiApplication()
+                        .routes(new ProductHandler(repository, productEventBus, bulkProductLoader, productExporter)))
+                .configureClient()
+                .baseUrl("/functional-products")
+                .build();
+    }
+}
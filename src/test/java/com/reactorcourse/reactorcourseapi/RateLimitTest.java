@@ -0,0 +1,153 @@
+package com.reactorcourse.reactorcourseapi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactorcourse.reactorcourseapi.bulk.BulkProductLoader;
+import com.reactorcourse.reactorcourseapi.controller.ProductController;
+import com.reactorcourse.reactorcourseapi.event.ProductEventBus;
+import com.reactorcourse.reactorcourseapi.export.ProductExporter;
+import com.reactorcourse.reactorcourseapi.handler.ProductHandler;
+import com.reactorcourse.reactorcourseapi.model.Product;
+import com.reactorcourse.reactorcourseapi.ratelimit.ProductRateLimits;
+import com.reactorcourse.reactorcourseapi.ratelimit.RateLimitHandlerFilter;
+import com.reactorcourse.reactorcourseapi.ratelimit.RateLimitWebFilter;
+import com.reactorcourse.reactorcourseapi.ratelimit.RateLimiter;
+import com.reactorcourse.reactorcourseapi.repository.ProductRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 429 and Retry-After from the WebFilter (annotated controller) and the HandlerFilterFunction (functional routes),
+ * in this package because ReactorCourseApiApplication.routes is package private.
+ */
+
+class RateLimitTest {
+
+    private ProductRepository repository;
+
+    private ProductEventBus productEventBus;
+
+    private MeterRegistry meterRegistry;
+
+    private ProductRateLimits rateLimits;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(ProductRepository.class);
+        productEventBus = new ProductEventBus(256);
+        meterRegistry = new SimpleMeterRegistry();
+        rateLimits = new ProductRateLimits(null, new RateLimiter("writes", 2, 0.5), "X-Client-Id", meterRegistry);
+
+        when(repository.save(any(Product.class))).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        when(repository.findAll()).thenReturn(Flux.empty());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"annotated", "functional"})
+    void saveProduct_overLimit_tooManyRequests(String stack) {
+        WebTestClient client = client(stack);
+        assertEquals(0, meterRegistry.get("product.ratelimit.rejected").tag("group", "writes").counter().count());
+
+        saveProduct(client, "batch").expectStatus().isCreated();
+        saveProduct(client, "batch").expectStatus().isCreated();
+        saveProduct(client, "batch")
+                .expectStatus().isEqualTo(HttpStatus.TOO_MANY_REQUESTS)
+                .expectHeader().valueEquals(HttpHeaders.RETRY_AFTER, "2");
+
+        assertEquals(1, meterRegistry.get("product.ratelimit.rejected").tag("group", "writes").counter().count());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"annotated", "functional"})
+    void saveProduct_otherClient_admitted(String stack) {
+        WebTestClient client = client(stack);
+
+        saveProduct(client, "batch").expectStatus().isCreated();
+        saveProduct(client, "batch").expectStatus().isCreated();
+        saveProduct(client, "interactive").expectStatus().isCreated();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"annotated", "functional"})
+    void getAllProducts_readsUnlimited(String stack) {
+        WebTestClient client = client(stack);
+
+        for (int i = 0; i < 5; i++) {
+            client.get()
+                    .uri("/")
+                    .accept(MediaType.APPLICATION_JSON)
+                    .header("X-Client-Id", "batch")
+                    .exchange()
+                    .expectStatus().isOk();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"annotated", "functional"})
+    void lookupProducts_writesExhausted_admittedAsRead(String stack) {
+        WebTestClient client = client(stack);
+        when(repository.findAllByIdInChunks(any())).thenReturn(Flux.just(new Product("1", "Big Latte", 2.99)));
+
+        saveProduct(client, "batch").expectStatus().isCreated();
+        saveProduct(client, "batch").expectStatus().isCreated();
+        saveProduct(client, "batch").expectStatus().isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+
+        client.post()
+                .uri("/lookup")
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON)
+                .header("X-Client-Id", "batch")
+                .bodyValue(Arrays.asList("1", "2"))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.products[0].id").isEqualTo("1");
+        assertEquals(1, meterRegistry.get("product.ratelimit.rejected").tag("group", "writes").counter().count());
+    }
+
+    private WebTestClient.ResponseSpec saveProduct(WebTestClient client, String clientId) {
+        return client.post()
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON)
+                .header("X-Client-Id", clientId)
+                .bodyValue(new Product(null, "Black Tea", 1.99))
+                .exchange();
+    }
+
+    private WebTestClient client(String stack) {
+        BulkProductLoader bulkProductLoader = new BulkProductLoader(repository, productEventBus, 2, 1);
+        ProductExporter productExporter = new ProductExporter(repository, new ObjectMapper(), Schedulers.boundedElastic(), 2, new SimpleMeterRegistry());
+
+        if ("annotated".equals(stack)) {
+            return WebTestClient
+                    .bindToController(new ProductController(repository, productEventBus, bulkProductLoader, productExporter))
+                    .webFilter(new RateLimitWebFilter(rateLimits))
+                    .configureClient()
+                    .baseUrl("/products")
+                    .build();
+        }
+        return WebTestClient
+                .bindToRouterFunction(new ReactorCourseApiApplication()
+                        .routes(new ProductHandler(repository, productEventBus, bulkProductLoader, productExporter))
+                        .filter(new RateLimitHandlerFilter(rateLimits)))
+                .configureClient()
+                .baseUrl("/functional-products")
+                .build();
+    }
+}
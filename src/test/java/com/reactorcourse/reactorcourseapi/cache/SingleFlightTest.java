@@ -0,0 +1,71 @@
+package com.reactorcourse.reactorcourseapi.cache;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.test.StepVerifier;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    private SingleFlight<String, String> singleFlight;
+
+    private AtomicInteger lookups;
+
+    @BeforeEach
+    void setUp() {
+        singleFlight = new SingleFlight<>();
+        lookups = new AtomicInteger();
+    }
+
+    @Test
+    void get_sameKeyInFlight_sharesOneLookup() {
+        MonoProcessor<String> lookup = MonoProcessor.create();
+
+        MonoProcessor<String> first = singleFlight.get("1", key -> count(lookup)).toProcessor();
+        MonoProcessor<String> second = singleFlight.get("1", key -> count(lookup)).toProcessor();
+        assertEquals(1, singleFlight.inFlight());
+
+        lookup.onNext("Big Latte");
+
+        assertEquals("Big Latte", first.peek());
+        assertEquals("Big Latte", second.peek());
+        assertEquals(1, lookups.get());
+        assertEquals(1, singleFlight.coalesced());
+        assertEquals(0, singleFlight.inFlight());
+    }
+
+    @Test
+    void get_afterCompletion_startsNewLookup() {
+        StepVerifier.create(singleFlight.get("1", key -> count(Mono.just("Big Latte")))).expectNext("Big Latte").verifyComplete();
+        StepVerifier.create(singleFlight.get("1", key -> count(Mono.just("Green Tea")))).expectNext("Green Tea").verifyComplete();
+
+        assertEquals(2, lookups.get());
+        assertEquals(0, singleFlight.coalesced());
+    }
+
+    @Test
+    void get_differentKeys_notCoalesced() {
+        singleFlight.get("1", key -> count(Mono.never())).subscribe();
+        singleFlight.get("2", key -> count(Mono.never())).subscribe();
+
+        assertEquals(2, lookups.get());
+        assertEquals(2, singleFlight.inFlight());
+    }
+
+    @Test
+    void get_failedLookup_released() {
+        StepVerifier.create(singleFlight.get("1", key -> count(Mono.error(new IllegalStateException()))))
+                .verifyError(IllegalStateException.class);
+
+        assertEquals(0, singleFlight.inFlight());
+    }
+
+    private Mono<String> count(Mono<String> lookup) {
+        return lookup.doOnSubscribe(subscription -> lookups.incrementAndGet());
+    }
+}
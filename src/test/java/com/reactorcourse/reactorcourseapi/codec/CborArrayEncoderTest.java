@@ -0,0 +1,66 @@
+package com.reactorcourse.reactorcourseapi.codec;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.reactorcourse.reactorcourseapi.model.Product;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+import reactor.test.publisher.TestPublisher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CborArrayEncoderTest {
+
+    private final ObjectMapper cborMapper = new ObjectMapper(new CBORFactory());
+
+    private final CborArrayEncoder encoder = new CborArrayEncoder(cborMapper);
+
+    @Test
+    void encode_flux_readAsOneArray() throws IOException {
+        List<Product> products = Arrays.asList(new Product("1", "Big Latte", 2.99), new Product("2", "Big Decaf", 2.49));
+
+        assertEquals(products, decode(encode(Flux.fromIterable(products))));
+        assertEquals(Collections.emptyList(), decode(encode(Flux.empty())));
+    }
+
+    @Test
+    void encode_elementWrittenBeforeFluxCompletes() {
+        TestPublisher<Product> products = TestPublisher.create();
+
+        StepVerifier.create(encode(products.flux()))
+                .expectNextMatches(buffer -> buffer.readableByteCount() == 1) // start of the array
+                .then(() -> products.next(new Product("1", "Big Latte", 2.99)))
+                .expectNextMatches(buffer -> buffer.readableByteCount() > 1)
+                .then(products::complete)
+                .expectNextMatches(buffer -> buffer.readableByteCount() == 1) // break
+                .verifyComplete();
+    }
+
+    private Flux<DataBuffer> encode(Flux<Product> products) {
+        return encoder.encode(products, new DefaultDataBufferFactory(), ResolvableType.forClass(Product.class),
+                MediaType.APPLICATION_CBOR, Collections.emptyMap());
+    }
+
+    private List<Product> decode(Flux<DataBuffer> buffers) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (DataBuffer buffer : buffers.collectList().block()) {
+            byte[] chunk = new byte[buffer.readableByteCount()];
+            buffer.read(chunk);
+            bytes.write(chunk);
+        }
+        return cborMapper.readValue(bytes.toByteArray(), new TypeReference<List<Product>>() {
+        });
+    }
+}
@@ -0,0 +1,82 @@
+package com.reactorcourse.reactorcourseapi.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.blockhound.BlockingOperationError;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * BlockHound is installed for every test (blockhound-junit-platform), these make sure it is and that the bounded
+ * schedulers are where blocking is fine.
+ */
+
+class SchedulerConfigTest {
+
+    private MeterRegistry meterRegistry;
+
+    private Scheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        scheduler = SchedulerConfig.boundedScheduler("product-test", 1, 1, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.dispose();
+    }
+
+    @Test
+    void blockingOnParallel_error() {
+        StepVerifier.create(Mono.fromCallable(SchedulerConfigTest::sleep).subscribeOn(Schedulers.parallel()))
+                .verifyError(BlockingOperationError.class);
+    }
+
+    @Test
+    void blockingOnBoundedScheduler_allowed() {
+        StepVerifier.create(Mono.fromCallable(SchedulerConfigTest::sleep).subscribeOn(scheduler))
+                .assertNext(thread -> assertTrue(thread.startsWith("product-test-"), thread))
+                .verifyComplete();
+
+        assertEquals(1, meterRegistry.get("executor.completed").tag("name", "product-test").functionCounter().count());
+    }
+
+    @Test
+    void queueFull_rejected() {
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.schedule(() -> await(release)); // running
+        scheduler.schedule(() -> await(release)); // queued
+
+        assertEquals(1, meterRegistry.get("executor.active").tag("name", "product-test").gauge().value());
+        assertEquals(1, meterRegistry.get("executor.queued").tag("name", "product-test").gauge().value());
+        StepVerifier.create(Mono.just(1).subscribeOn(scheduler))
+                .verifyError(RejectedExecutionException.class);
+
+        release.countDown();
+    }
+
+    private static String sleep() throws InterruptedException {
+        Thread.sleep(1);
+        return Thread.currentThread().getName();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
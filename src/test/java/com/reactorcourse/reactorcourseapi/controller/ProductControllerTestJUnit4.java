@@ -1,7 +1,11 @@
 package com.reactorcourse.reactorcourseapi.controller;
 
+import com.reactorcourse.reactorcourseapi.bulk.BulkProductLoader;
+import com.reactorcourse.reactorcourseapi.event.ProductEventBus;
+import com.reactorcourse.reactorcourseapi.export.ProductExporter;
 import com.reactorcourse.reactorcourseapi.model.Product;
 import com.reactorcourse.reactorcourseapi.model.ProductEvent;
+import com.reactorcourse.reactorcourseapi.model.ProductEventType;
 import com.reactorcourse.reactorcourseapi.repository.ProductRepository;
 import org.junit.Before;
 import org.junit.Test;
@@ -12,12 +16,12 @@ import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.reactive.server.FluxExchangeResult;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
 import reactor.test.StepVerifier;
 
+import java.time.Duration;
 import java.util.List;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
-
 @RunWith(SpringRunner.class)
 @SpringBootTest
 public class ProductControllerTestJUnit4 {
@@ -29,11 +33,20 @@ public class ProductControllerTestJUnit4 {
     @Autowired
     private ProductRepository productRepository;
 
+    @Autowired
+    private ProductEventBus productEventBus;
+
+    @Autowired
+    private BulkProductLoader bulkProductLoader;
+
+    @Autowired
+    private ProductExporter productExporter;
+
     @Before
     public void setUp() {
         webTestClient =
                 WebTestClient
-                        .bindToController(new ProductController(productRepository))// autowiring the controller and directly passing it also possible
+                        .bindToController(new ProductController(productRepository, productEventBus, bulkProductLoader, productExporter))// autowiring the controller and directly passing it also possible
                         .configureClient()
                         .baseUrl("/products")
                         .build();
@@ -78,7 +91,14 @@ public class ProductControllerTestJUnit4 {
 
     @Test
     public void getProductEvents() {
-        ProductEvent expectedEvent = new ProductEvent(0L, "Product Event");
+        ///> The response is only committed once the first event is written, so that event is published while exchange() waits,
+        ///> as soon as the stream subscribed to the bus (an event published before would never reach it)
+        long subscribers = productEventBus.subscriberCount();
+        Flux.interval(Duration.ofMillis(5))
+                .take(Duration.ofSeconds(5))
+                .filter(tick -> productEventBus.subscriberCount() > subscribers)
+                .next()
+                .subscribe(tick -> productEventBus.publish(ProductEventType.CREATED, "1"));
 
         FluxExchangeResult<ProductEvent> result =
                 webTestClient.get().uri("/events")
@@ -90,10 +110,10 @@ public class ProductControllerTestJUnit4 {
         ///> StepVerifier used here because webTestClient doesn't have a functionality to assert events as they come
         ///> or cancel the stream ones the test is done.
         StepVerifier.create(result.getResponseBody())
-                .expectNext(expectedEvent)
-                .expectNextCount(2)
-                .consumeNextWith(productEvent ->
-                        assertEquals(Long.valueOf(3), productEvent.getEventId()))  // event started with 0 so after 2 next will be 3
+                .expectNextMatches(productEvent ->
+                        productEvent.getEventType() == ProductEventType.CREATED && "1".equals(productEvent.getProductId()))
+                .then(() -> productEventBus.publish(ProductEventType.DELETED, "1"))
+                .expectNextMatches(productEvent -> productEvent.getEventType() == ProductEventType.DELETED)
                 .thenCancel()
                 .verify();
     }
@@ -1,8 +1,13 @@
 package com.reactorcourse.reactorcourseapi.controller;
 
+import com.reactorcourse.reactorcourseapi.bulk.BulkProductLoader;
+import com.reactorcourse.reactorcourseapi.event.ProductEventBus;
+import com.reactorcourse.reactorcourseapi.export.ProductExporter;
 import com.reactorcourse.reactorcourseapi.handler.ProductHandler;
 import com.reactorcourse.reactorcourseapi.model.Product;
 import com.reactorcourse.reactorcourseapi.model.ProductEvent;
+import com.reactorcourse.reactorcourseapi.model.ProductEventType;
+import com.reactorcourse.reactorcourseapi.ratelimit.RateLimitHandlerFilter;
 import com.reactorcourse.reactorcourseapi.repository.ProductRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -11,6 +16,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.reactive.server.FluxExchangeResult;
@@ -19,6 +25,7 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
 
@@ -26,6 +33,7 @@ import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(SpringExtension.class)
+@Import({ProductEventBus.class, BulkProductLoader.class})
 @WebFluxTest(ProductController.class) // By default configures beans with @Controller, @JsonComponent, @Converters, @WebFluxConfigurer
     // But not @Service, @Component or @Repository beans so those have to be mocked, can't be autowired
 class ProductControllerTestJUnit5Annotation {
@@ -38,6 +46,9 @@ class ProductControllerTestJUnit5Annotation {
     @MockBean
     private ProductRepository productRepository;
 
+    @Autowired
+    private ProductEventBus productEventBus;
+
     @MockBean
     private CommandLineRunner commandLineRunner;
 
@@ -45,6 +56,12 @@ class ProductControllerTestJUnit5Annotation {
     @MockBean
     private ProductHandler productHandler;
 
+    @MockBean
+    private RateLimitHandlerFilter rateLimitHandlerFilter;
+
+    @MockBean
+    private ProductExporter productExporter;
+
     @BeforeEach
     void setUp() {
         this.expectedList = Arrays.asList(
@@ -95,7 +112,14 @@ class ProductControllerTestJUnit5Annotation {
 
     @Test
     void getProductEvents() {
-        ProductEvent expectedEvent = new ProductEvent(0L, "Product Event");
+        ///> The response is only committed once the first event is written, so that event is published while exchange() waits,
+        ///> as soon as the stream subscribed to the bus (an event published before would never reach it)
+        long subscribers = productEventBus.subscriberCount();
+        Flux.interval(Duration.ofMillis(5))
+                .take(Duration.ofSeconds(5))
+                .filter(tick -> productEventBus.subscriberCount() > subscribers)
+                .next()
+                .subscribe(tick -> productEventBus.publish(ProductEventType.CREATED, "1"));
 
         FluxExchangeResult<ProductEvent> result =
                 webTestClient.get().uri("/products/events")
@@ -107,10 +131,10 @@ class ProductControllerTestJUnit5Annotation {
         ///> StepVerifier used here because webTestClient doesn't have a functionality to assert events as they come
         ///> or cancel the stream ones the test is done.
         StepVerifier.create(result.getResponseBody())
-                .expectNext(expectedEvent)
-                .expectNextCount(2)
-                .consumeNextWith(productEvent ->
-                        assertEquals(Long.valueOf(3), productEvent.getEventId()))  // event started with 0 so after 2 next will be 3
+                .expectNextMatches(productEvent ->
+                        productEvent.getEventType() == ProductEventType.CREATED && "1".equals(productEvent.getProductId()))
+                .then(() -> productEventBus.publish(ProductEventType.DELETED, "1"))
+                .expectNextMatches(productEvent -> productEvent.getEventType() == ProductEventType.DELETED)
                 .thenCancel()
                 .verify();
     }
@@ -1,24 +1,63 @@
 package com.reactorcourse.reactorcourseapi.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.WriteRequest;
+import com.reactorcourse.reactorcourseapi.bulk.BulkProductLoader;
+import com.reactorcourse.reactorcourseapi.config.CodecConfig;
+import com.reactorcourse.reactorcourseapi.event.ProductEventBus;
+import com.reactorcourse.reactorcourseapi.export.ProductExporter;
+import com.reactorcourse.reactorcourseapi.model.BulkResult;
 import com.reactorcourse.reactorcourseapi.model.Product;
 import com.reactorcourse.reactorcourseapi.model.ProductEvent;
+import com.reactorcourse.reactorcourseapi.model.ProductEventType;
+import com.reactorcourse.reactorcourseapi.model.ProductLookup;
+import com.reactorcourse.reactorcourseapi.model.ProductPage;
+import com.reactorcourse.reactorcourseapi.model.ProductPatch;
+import com.reactorcourse.reactorcourseapi.model.ProductStats;
 import com.reactorcourse.reactorcourseapi.repository.ProductRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.BsonDocument;
+import org.bson.Document;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.reactive.server.FluxExchangeResult;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 import reactor.test.StepVerifier;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(SpringExtension.class)
@@ -31,11 +70,16 @@ class ProductControllerTestJUnit5Mockito {
     @MockBean
     private ProductRepository repository;
 
+    private ProductEventBus productEventBus;
+
     @BeforeEach
     void beforeEach() {
+        this.productEventBus = new ProductEventBus(256);
+
         this.client =
                 WebTestClient
-                        .bindToController(new ProductController(repository))
+                        .bindToController(new ProductController(repository, productEventBus, new BulkProductLoader(repository, productEventBus, 2, 1),
+                                new ProductExporter(repository, new ObjectMapper(), Schedulers.boundedElastic(), 2, new SimpleMeterRegistry())))
                         .configureClient()
                         .baseUrl("/products")
                         .build();
@@ -59,6 +103,227 @@ class ProductControllerTestJUnit5Mockito {
                 .isEqualTo(expectedList);
     }
 
+    @Test
+    void getProductPage() {
+        when(repository.findPage(null, 1)).thenReturn(Flux.fromIterable(this.expectedList));
+
+        client
+                .get()
+                .uri("/?limit={limit}", 1)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody(ProductPage.class)
+                .isEqualTo(new ProductPage(expectedList, ProductPage.encodeCursor("1")));
+    }
+
+    @Test
+    void getProductsById_requestOrderKept_missingReported() {
+        Product decaf = new Product("2", "Big Decaf", 2.49);
+        when(repository.findAllByIdInChunks(Arrays.asList("2", "x", "1")))
+                .thenReturn(Flux.just(expectedList.get(0), decaf));
+
+        client
+                .get()
+                .uri("/?ids={ids}", "2,x, 1,2")
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody(ProductLookup.class)
+                .isEqualTo(new ProductLookup(Arrays.asList(decaf, expectedList.get(0)), Collections.singletonList("x")));
+    }
+
+    @Test
+    void getProductsById_noIds_badRequest() {
+        client
+                .get()
+                .uri("/?ids={ids}", " ,")
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+
+        verify(repository, never()).findAllByIdInChunks(any());
+    }
+
+    @Test
+    void getProductsById_withLimit_badRequest() {
+        client
+                .get()
+                .uri("/?ids={ids}&limit=5", "1,2")
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+
+        verify(repository, never()).findAllByIdInChunks(any());
+        verify(repository, never()).findPage(any(), anyInt());
+    }
+
+    @Test
+    void lookupProducts() {
+        when(repository.findAllByIdInChunks(Arrays.asList("1", "x")))
+                .thenReturn(Flux.fromIterable(expectedList));
+
+        client
+                .post()
+                .uri("/lookup")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Arrays.asList("1", "x"))
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody(ProductLookup.class)
+                .isEqualTo(new ProductLookup(expectedList, Collections.singletonList("x")));
+    }
+
+    @Test
+    void lookupProducts_tooManyIds_badRequest() {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i <= ProductLookup.MAX_IDS; i++) {
+            ids.add(String.valueOf(i));
+        }
+
+        client
+                .post()
+                .uri("/lookup")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(ids)
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+
+        verify(repository, never()).findAllByIdInChunks(any());
+    }
+
+    @Test
+    void getProductPage_invalidLimit_badRequest() {
+        client
+                .get()
+                .uri("/?limit={limit}", ProductPage.MAX_LIMIT + 1)
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+    }
+
+    @Test
+    void getAllProducts_fields_projected() {
+        when(repository.search(any(Query.class))).thenReturn(Flux.just(new Product("1", "Big Latte", null)));
+
+        client
+                .get()
+                .uri("/?fields={fields}", "id,name")
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody()
+                .json("[{\"id\":\"1\",\"name\":\"Big Latte\"}]")
+                .jsonPath("$[0].price").doesNotExist();
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(repository).search(query.capture());
+        assertEquals(new Document("id", 1).append("name", 1), query.getValue().getFieldsObject());
+    }
+
+    @Test
+    void getAllProducts_unknownField_badRequest() {
+        client
+                .get()
+                .uri("/?fields={fields}", "id,color")
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+    }
+
+    @Test
+    void getProduct_fields_projected() {
+        when(repository.search(any(Query.class))).thenReturn(Flux.just(new Product("1", null, 2.99)));
+
+        client
+                .get()
+                .uri("/{id}?fields={fields}", "1", "price")
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody(Product.class)
+                .isEqualTo(new Product("1", null, 2.99));
+    }
+
+    @Test
+    void searchProducts() {
+        when(repository.search(any(Query.class))).thenReturn(Flux.fromIterable(this.expectedList));
+
+        client
+                .get()
+                .uri("/search?prefix={prefix}", "Big")
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBodyList(Product.class)
+                .isEqualTo(expectedList);
+    }
+
+    @Test
+    void searchProducts_twoCriteria_badRequest() {
+        client
+                .get()
+                .uri("/search?name={name}&minPrice={minPrice}", "Big Latte", 1)
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+    }
+
+    @Test
+    void getTopProducts() {
+        when(repository.search(any(Query.class))).thenReturn(Flux.fromIterable(this.expectedList));
+
+        client
+                .get()
+                .uri("/top?by=price&limit=1")
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBodyList(Product.class)
+                .isEqualTo(expectedList);
+    }
+
+    @Test
+    void getTopProducts_invalidField_badRequest() {
+        client
+                .get()
+                .uri("/top?by=id")
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+    }
+
+    @Test
+    void getPriceStats() {
+        List<ProductStats> stats = Arrays.asList(
+                new ProductStats("B", 2L, 1.99, 2.99, 2.49, 1.99, 2.99, 2.99, 2.99),
+                new ProductStats("W", 1L, 0.99, 0.99, 0.99, 0.99, 0.99, 0.99, 0.99));
+        when(repository.priceStats(1)).thenReturn(Flux.fromIterable(stats));
+
+        client
+                .get()
+                .uri("/stats?prefixLength=1")
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBodyList(ProductStats.class)
+                .isEqualTo(stats);
+    }
+
+    @Test
+    void getPriceStats_invalidPrefixLength_badRequest() {
+        client
+                .get()
+                .uri("/stats?prefixLength=0")
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+
+        verify(repository, never()).priceStats(any());
+    }
+
     @Test
     void getProduct_invalidId_notFound() {
         String id = "aaa";
@@ -72,6 +337,40 @@ class ProductControllerTestJUnit5Mockito {
                 .isNotFound();
     }
 
+    @Test
+    void exportProducts_gzipNdjson() throws IOException {
+        when(repository.search(any(Query.class))).thenReturn(Flux.fromIterable(expectedList));
+
+        byte[] body = client
+                .get()
+                .uri("/export")
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectHeader().contentType(CodecConfig.APPLICATION_NDJSON)
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .expectBody(byte[].class)
+                .returnResult()
+                .getResponseBody();
+
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            assertEquals("{\"id\":\"1\",\"name\":\"Big Latte\",\"price\":2.99}\n",
+                    new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void exportProducts_unknownFormat_badRequest() {
+        client
+                .get()
+                .uri("/export?format={format}", "xml")
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+
+        verify(repository, never()).search(any(Query.class));
+    }
+
     @Test
     void getProduct_validId_found() {
         Product expectedProduct = this.expectedList.get(0);
@@ -89,8 +388,14 @@ class ProductControllerTestJUnit5Mockito {
 
     @Test
     void getProductEvents() {
-        ProductEvent expectedEvent =
-                new ProductEvent(0L, "Product Event");
+        ///> The response is only committed once the first event is written, so that event is published while exchange() waits,
+        ///> as soon as the stream subscribed to the bus (an event published before would never reach it)
+        long subscribers = productEventBus.subscriberCount();
+        Flux.interval(Duration.ofMillis(5))
+                .take(Duration.ofSeconds(5))
+                .filter(tick -> productEventBus.subscriberCount() > subscribers)
+                .next()
+                .subscribe(tick -> productEventBus.publish(ProductEventType.CREATED, "1"));
 
         FluxExchangeResult<ProductEvent> result =
                 client.get().uri("/events")
@@ -100,10 +405,10 @@ class ProductControllerTestJUnit5Mockito {
                         .returnResult(ProductEvent.class);
 
         StepVerifier.create(result.getResponseBody())
-                .expectNext(expectedEvent)
-                .expectNextCount(2)
-                .consumeNextWith(event ->
-                        assertEquals(Long.valueOf(3), event.getEventId()))
+                .expectNextMatches(productEvent ->
+                        productEvent.getEventType() == ProductEventType.CREATED && "1".equals(productEvent.getProductId()))
+                .then(() -> productEventBus.publish(ProductEventType.DELETED, "1"))
+                .expectNextMatches(productEvent -> productEvent.getEventType() == ProductEventType.DELETED)
                 .thenCancel()
                 .verify();
     }
@@ -112,12 +417,210 @@ class ProductControllerTestJUnit5Mockito {
     void saveProduct() {
     }
 
+    @Test
+    void saveProduct_existingId_conflict() {
+        Product product = new Product("1", "Big Latte", 2.99);
+        when(repository.save(product)).thenReturn(Mono.error(new DuplicateKeyException("E11000 duplicate key error")));
+
+        client
+                .post()
+                .uri("/")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(product)
+                .exchange()
+                .expectStatus()
+                .isEqualTo(HttpStatus.CONFLICT);
+
+        assertEquals(0, productEventBus.sequence());
+    }
+
+    @Test
+    void saveProducts() {
+        when(repository.saveAll(anyIterable())).thenAnswer(invocation -> Flux.fromIterable(invocation.getArgument(0)));
+
+        List<Product> products = Arrays.asList(
+                new Product("1", "Big Latte", 2.99),
+                new Product("2", "Big Decaf", 2.49),
+                new Product("3", "Green Tea", 1.99)
+        );
+
+        client
+                .post()
+                .uri("/bulk")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Flux.fromIterable(products), Product.class)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBodyList(BulkResult.class)
+                .isEqualTo(Arrays.asList(new BulkResult(0L, 2, null), new BulkResult(1L, 1, null)));
+    }
+
+    @Test
+    void saveProducts_insertManyFailsPartway_insertedCountReported() {
+        BulkWriteResult writeResult = BulkWriteResult.acknowledged(WriteRequest.Type.INSERT, 1, Collections.emptyList());
+        BulkWriteError writeError = new BulkWriteError(11000, "E11000 duplicate key error", new BsonDocument(), 1);
+        when(repository.saveAll(anyIterable())).thenReturn(Flux.error(new DuplicateKeyException("E11000 duplicate key error",
+                new MongoBulkWriteException(writeResult, Collections.singletonList(writeError), null, new ServerAddress()))));
+
+        client
+                .post()
+                .uri("/bulk")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Flux.fromIterable(Arrays.asList(new Product("1", "Big Latte", 2.99), new Product("1", "Big Decaf", 2.49))),
+                        Product.class)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBodyList(BulkResult.class)
+                .value(results -> {
+                    assertEquals(1, results.size());
+                    assertEquals(1, results.get(0).getSaved());
+                    assertTrue(results.get(0).getError().startsWith("E11000 duplicate key error"));
+                });
+    }
+
     @Test
     void updateProduct() {
+        Product product = new Product(null, "White Tea", 0.99);
+        Product updatedProduct = new Product("1", "White Tea", 0.99);
+        updatedProduct.setVersion(1L);
+        when(repository.update("1", product)).thenReturn(Mono.just(updatedProduct));
+
+        client
+                .put()
+                .uri("/{id}", "1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(product)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody(Product.class)
+                .isEqualTo(updatedProduct);
+    }
+
+    @Test
+    void updateProduct_invalidId_notFound() {
+        when(repository.update(eq("aaa"), any(Product.class))).thenReturn(Mono.empty());
+
+        client
+                .put()
+                .uri("/{id}", "aaa")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new Product(null, "White Tea", 0.99))
+                .exchange()
+                .expectStatus()
+                .isNotFound();
+    }
+
+    @Test
+    void updateProduct_staleVersion_conflict() {
+        when(repository.update(eq("1"), any(Product.class)))
+                .thenReturn(Mono.error(new OptimisticLockingFailureException("Product 1 was modified concurrently")));
+
+        client
+                .put()
+                .uri("/{id}", "1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new Product(null, "White Tea", 0.99))
+                .exchange()
+                .expectStatus()
+                .isEqualTo(HttpStatus.CONFLICT);
+    }
+
+    @Test
+    void patchProduct_modified_updatedEventPublished() {
+        Product patchedProduct = new Product("1", "Big Latte", 3.49);
+        patchedProduct.setVersion(1L);
+        ArgumentCaptor<ProductPatch> patch = ArgumentCaptor.forClass(ProductPatch.class);
+        when(repository.patch(eq("1"), patch.capture())).thenReturn(Mono.just(new ProductPatch.Result(patchedProduct, true)));
+
+        client
+                .patch()
+                .uri("/{id}", "1")
+                .contentType(ProductPatch.MEDIA_TYPE)
+                .bodyValue("{\"price\":3.49,\"name\":null}")
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody(Product.class)
+                .isEqualTo(patchedProduct);
+
+        assertEquals(Collections.singletonMap("price", 3.49), patch.getValue().getSet());
+        assertEquals(Collections.singleton("name"), patch.getValue().getUnset());
+        assertEquals(1, productEventBus.sequence());
+    }
+
+    @Test
+    void patchProduct_noChange_noEvent() {
+        when(repository.patch(eq("1"), any(ProductPatch.class)))
+                .thenReturn(Mono.just(new ProductPatch.Result(expectedList.get(0), false)));
+
+        client
+                .patch()
+                .uri("/{id}", "1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"price\":2.99}")
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody(Product.class)
+                .isEqualTo(expectedList.get(0));
+
+        assertEquals(0, productEventBus.sequence());
+    }
+
+    @Test
+    void patchProduct_invalidPatch_badRequest() {
+        client
+                .patch()
+                .uri("/{id}", "1")
+                .contentType(ProductPatch.MEDIA_TYPE)
+                .bodyValue("{\"price\":\"cheap\"}")
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+
+        verify(repository, never()).patch(any(), any());
+    }
+
+    @Test
+    void patchProduct_staleVersion_conflict() {
+        when(repository.patch(eq("1"), any(ProductPatch.class)))
+                .thenReturn(Mono.error(new OptimisticLockingFailureException("Product 1 was modified concurrently")));
+
+        client
+                .patch()
+                .uri("/{id}", "1")
+                .contentType(ProductPatch.MEDIA_TYPE)
+                .bodyValue("{\"price\":3.49,\"version\":0}")
+                .exchange()
+                .expectStatus()
+                .isEqualTo(HttpStatus.CONFLICT);
     }
 
     @Test
     void deleteProduct() {
+        when(repository.removeById("1")).thenReturn(Mono.just(true));
+
+        client
+                .delete()
+                .uri("/{id}", "1")
+                .exchange()
+                .expectStatus()
+                .isOk();
+    }
+
+    @Test
+    void deleteProduct_invalidId_notFound() {
+        when(repository.removeById("aaa")).thenReturn(Mono.just(false));
+
+        client
+                .delete()
+                .uri("/{id}", "aaa")
+                .exchange()
+                .expectStatus()
+                .isNotFound();
     }
 
     @Test
@@ -0,0 +1,188 @@
+package com.reactorcourse.reactorcourseapi.controller;
+
+import com.reactorcourse.reactorcourseapi.bulk.BulkProductLoader;
+import com.reactorcourse.reactorcourseapi.event.ProductEventBus;
+import com.reactorcourse.reactorcourseapi.model.BulkResult;
+import com.reactorcourse.reactorcourseapi.model.Product;
+import com.reactorcourse.reactorcourseapi.model.ProductEventType;
+import com.reactorcourse.reactorcourseapi.ratelimit.ProductRateLimits;
+import com.reactorcourse.reactorcourseapi.ratelimit.RateLimiter;
+import com.reactorcourse.reactorcourseapi.repository.ProductRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.rsocket.RSocketFactory;
+import io.rsocket.exceptions.ApplicationErrorException;
+import io.rsocket.exceptions.RejectedException;
+import io.rsocket.transport.netty.server.CloseableChannel;
+import io.rsocket.transport.netty.server.TcpServerTransport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.codec.cbor.Jackson2CborDecoder;
+import org.springframework.http.codec.cbor.Jackson2CborEncoder;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.messaging.rsocket.annotation.support.RSocketMessageHandler;
+import org.springframework.util.MimeTypeUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.Mockito.*;
+
+/**
+ * ProductRSocketController on a real TCP transport, with CBOR payloads both ways.
+ */
+
+class ProductRSocketControllerTest {
+
+    private ProductRepository repository;
+
+    private ProductEventBus productEventBus;
+
+    private MeterRegistry meterRegistry;
+
+    private CloseableChannel server;
+
+    private RSocketRequester requester;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        repository = mock(ProductRepository.class);
+        productEventBus = new ProductEventBus(16);
+        meterRegistry = new SimpleMeterRegistry();
+        ProductRSocketController controller = new ProductRSocketController(repository, productEventBus,
+                new BulkProductLoader(repository, productEventBus, 2, 1),
+                new ProductRateLimits(null, new RateLimiter("writes", 2, 0.01), "X-Client-Id", meterRegistry));
+
+        RSocketStrategies strategies = RSocketStrategies.builder()
+                .encoder(new Jackson2CborEncoder())
+                .decoder(new Jackson2CborDecoder())
+                .build();
+        RSocketMessageHandler messageHandler = new RSocketMessageHandler();
+        messageHandler.setHandlers(Collections.singletonList(controller));
+        messageHandler.setRSocketStrategies(strategies);
+        messageHandler.afterPropertiesSet();
+
+        server = RSocketFactory.receive()
+                .acceptor(messageHandler.responder())
+                .transport(TcpServerTransport.create("localhost", 0))
+                .start()
+                .block();
+        requester = RSocketRequester.builder()
+                .rsocketStrategies(strategies)
+                .dataMimeType(MimeTypeUtils.parseMimeType("application/cbor"))
+                .connectTcp("localhost", server.address().getPort())
+                .block();
+    }
+
+    @AfterEach
+    void tearDown() {
+        requester.rsocket().dispose();
+        server.dispose();
+    }
+
+    @Test
+    void getProduct() {
+        Product product = new Product("1", "Big Latte", 2.99);
+        when(repository.findById("1")).thenReturn(Mono.just(product));
+
+        StepVerifier.create(requester.route("products.get.1").retrieveMono(Product.class))
+                .expectNext(product)
+                .verifyComplete();
+    }
+
+    @Test
+    void saveProduct_publishesCreated() {
+        Product product = new Product(null, "Big Latte", 2.99);
+        Product savedProduct = new Product("1", "Big Latte", 2.99);
+        when(repository.save(product)).thenReturn(Mono.just(savedProduct));
+
+        StepVerifier.create(productEventBus.events().take(1))
+                .then(() -> StepVerifier.create(requester.route("products.save").data(product).retrieveMono(Product.class))
+                        .expectNext(savedProduct)
+                        .verifyComplete())
+                .assertNext(event -> {
+                    assertEquals(ProductEventType.CREATED, event.getEventType());
+                    assertEquals("1", event.getProductId());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void saveProduct_overWriteLimit_rejected() {
+        Product product = new Product("1", "Big Latte", 2.99);
+        when(repository.save(product)).thenReturn(Mono.just(product));
+
+        for (int i = 0; i < 2; i++) {
+            StepVerifier.create(requester.route("products.save").data(product).retrieveMono(Product.class))
+                    .expectNext(product)
+                    .verifyComplete();
+        }
+        StepVerifier.create(requester.route("products.delete.1").retrieveMono(Boolean.class))
+                .verifyErrorSatisfies(e -> {
+                    assertTrue(e instanceof RejectedException);
+                    assertTrue(e.getMessage().startsWith("Too many writes, retry after "), e.getMessage());
+                });
+
+        verify(repository, times(2)).save(product);
+        verify(repository, never()).removeById(any());
+        assertEquals(1, meterRegistry.get("product.ratelimit.rejected").tag("group", "writes").counter().count());
+    }
+
+    @Test
+    void updateProduct_staleVersion_error() {
+        Product product = new Product("1", "Big Latte", 2.99);
+        when(repository.update(eq("1"), any(Product.class)))
+                .thenReturn(Mono.error(new OptimisticLockingFailureException("Stale version")));
+
+        StepVerifier.create(requester.route("products.update.1").data(product).retrieveMono(Product.class))
+                .verifyErrorSatisfies(e -> {
+                    assertTrue(e instanceof ApplicationErrorException);
+                    assertEquals("Stale version", e.getMessage());
+                });
+    }
+
+    @Test
+    void getAllProducts_onlyRequestedProductsRead() {
+        AtomicLong requested = new AtomicLong();
+        when(repository.findAll()).thenReturn(Flux.range(1, 10_000)
+                .map(i -> new Product(String.valueOf(i), "Product " + i, (double) i))
+                .doOnRequest(requested::addAndGet));
+
+        StepVerifier.create(requester.route("products").retrieveFlux(Product.class), 5)
+                .expectNextCount(5)
+                .thenAwait(Duration.ofMillis(100))
+                .thenCancel()
+                .verify();
+
+        assertTrue(requested.get() < 10_000, "requested " + requested.get());
+    }
+
+    @Test
+    void searchProducts_invalidParameters_error() {
+        StepVerifier.create(requester.route("products.search").retrieveFlux(Product.class))
+                .verifyError(ApplicationErrorException.class);
+
+        verify(repository, never()).search(any());
+    }
+
+    @Test
+    void saveProducts_channel() {
+        when(repository.saveAll(anyIterable())).thenAnswer(invocation -> Flux.fromIterable(invocation.getArgument(0)));
+        Flux<Product> products = Flux.range(1, 3).map(i -> new Product(String.valueOf(i), "Product " + i, (double) i));
+
+        StepVerifier.create(requester.route("products.bulk").data(products).retrieveFlux(BulkResult.class))
+                .expectNext(new BulkResult(0L, 2, null))
+                .expectNext(new BulkResult(1L, 1, null))
+                .verifyComplete();
+    }
+}
@@ -0,0 +1,261 @@
+package com.reactorcourse.reactorcourseapi.event;
+
+import com.reactorcourse.reactorcourseapi.model.Product;
+import com.reactorcourse.reactorcourseapi.model.ProductEventType;
+import com.reactorcourse.reactorcourseapi.model.ProductMutation;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import reactor.blockhound.BlockingOperationError;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductMutationLogTest {
+
+    @TempDir
+    Path tempDir;
+
+    private MeterRegistry meterRegistry;
+
+    private List<ProductMutationLog> logs;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        logs = new ArrayList<>();
+    }
+
+    @AfterEach
+    void tearDown() {
+        logs.forEach(ProductMutationLog::destroy);
+    }
+
+    @Test
+    void publish_appendedInEventOrder() throws IOException {
+        ProductMutationLog log = log(DataSize.ofMegabytes(1), 8);
+        ProductEventBus productEventBus = new ProductEventBus(16, log);
+        Product product = new Product("1", "Big Latte", 2.99);
+        product.setVersion(2L);
+
+        productEventBus.publish(ProductEventType.CREATED, product);
+        productEventBus.publish(ProductEventType.DELETED, "1");
+        productEventBus.publish(ProductEventType.CLEARED, (String) null);
+
+        StepVerifier.create(log.read(0))
+                .assertNext(mutation -> {
+                    assertEquals(0L, mutation.getOffset());
+                    assertEquals(1L, mutation.getEventId());
+                    assertEquals(ProductEventType.CREATED, mutation.getEventType());
+                    assertEquals("1", mutation.getProductId());
+                    assertEquals("Big Latte", mutation.getName());
+                    assertEquals(2.99, mutation.getPrice());
+                    assertEquals(2L, mutation.getVersion());
+                    assertNull(mutation.getTruncated());
+                    assertTrue(mutation.getTimestamp() > 0);
+                })
+                .assertNext(mutation -> {
+                    assertEquals(ProductEventType.DELETED, mutation.getEventType());
+                    assertEquals("1", mutation.getProductId());
+                    assertNull(mutation.getName());
+                    assertNull(mutation.getPrice());
+                })
+                .assertNext(mutation -> {
+                    assertEquals(ProductEventType.CLEARED, mutation.getEventType());
+                    assertNull(mutation.getProductId());
+                })
+                .verifyComplete();
+        assertEquals(3, productEventBus.sequence());
+    }
+
+    @Test
+    void read_fromOffset_onlyRequestedRead() throws IOException {
+        ProductMutationLog log = log(DataSize.ofMegabytes(1), 8);
+        append(log, 10);
+
+        StepVerifier.create(log.read(4).map(ProductMutation::getOffset), 2)
+                .expectNext(4L, 5L)
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    void append_segmentFull_rolledAndOldestDropped() throws IOException {
+        ProductMutationLog log = log(DataSize.ofBytes(2 * ProductMutationLog.RECORD_SIZE), 2);
+        append(log, 5);
+        log.destroy(); // waits for the deletes
+        logs.remove(log);
+
+        assertEquals(2, segmentFiles().size());
+        assertEquals(2, log.first());
+        StepVerifier.create(log.read(0).map(ProductMutation::getOffset))
+                .expectNext(2L, 3L, 4L)
+                .verifyComplete();
+    }
+
+    @Test
+    void reopen_appendingContinues() throws IOException {
+        ProductMutationLog log = log(DataSize.ofMegabytes(1), 8);
+        append(log, 3);
+        log.destroy();
+        logs.remove(log);
+
+        ProductMutationLog reopened = log(DataSize.ofMegabytes(1), 8);
+        assertEquals(3, reopened.end());
+        assertEquals(3, reopened.append(4, ProductEventType.DELETED, "4", null));
+        StepVerifier.create(reopened.read(0).map(ProductMutation::getProductId))
+                .expectNext("1", "2", "3", "4")
+                .verifyComplete();
+    }
+
+    @Test
+    void reopen_afterCrash_segmentAllocatedAheadSkipped() throws IOException {
+        ProductMutationLog crashed = new ProductMutationLog(tempDir.toString(), DataSize.ofBytes(4 * ProductMutationLog.RECORD_SIZE), 8,
+                Duration.ofHours(1), Schedulers.boundedElastic(), meterRegistry);
+        append(crashed, 2);
+        awaitSegmentFiles(2); // never destroyed, the empty one allocated ahead is left behind
+
+        ProductMutationLog reopened = log(DataSize.ofBytes(4 * ProductMutationLog.RECORD_SIZE), 8);
+        assertEquals(2, reopened.end());
+        assertEquals(2, reopened.append(3, ProductEventType.DELETED, "3", null));
+        StepVerifier.create(reopened.read(0).map(ProductMutation::getProductId))
+                .expectNext("1", "2", "3")
+                .verifyComplete();
+    }
+
+    @Test
+    void append_segmentAllocatedAhead_rollDoesNoIO() throws IOException {
+        ProductMutationLog log = log(DataSize.ofBytes(2 * ProductMutationLog.RECORD_SIZE), 8);
+        for (int i = 1; i <= 6; i++) {
+            awaitSegmentFiles(Math.max(1, i / 2) + 1); // the segments written so far and the one allocated ahead
+            log.append(i, ProductEventType.CREATED, String.valueOf(i), null);
+        }
+
+        assertEquals(0, meterRegistry.get("product.mutationlog.rolls.unprepared").counter().count());
+        StepVerifier.create(log.read(0).map(ProductMutation::getOffset))
+                .expectNext(0L, 1L, 2L, 3L, 4L, 5L)
+                .verifyComplete();
+    }
+
+    @Test
+    void append_nonBlockingThread_rollPassesBlockHound() throws IOException {
+        ProductMutationLog log = log(DataSize.ofBytes(2 * ProductMutationLog.RECORD_SIZE), 2);
+        for (int i = 1; i <= 6; i++) {
+            awaitSegmentFiles(Math.min(Math.max(1, i / 2), 2) + 1);
+            long eventId = i;
+            Mono.fromCallable(() -> log.append(eventId, ProductEventType.CREATED, String.valueOf(eventId), null))
+                    .subscribeOn(Schedulers.parallel())
+                    .block();
+        }
+
+        assertEquals(2, log.first());
+    }
+
+    @Test
+    void segmentIO_nonBlockingThread_reportedByBlockHound() throws IOException {
+        Path file = Files.createFile(tempDir.resolve("segment"));
+
+        StepVerifier.create(Mono.fromCallable(() -> Files.deleteIfExists(file)).subscribeOn(Schedulers.parallel()))
+                .verifyError(BlockingOperationError.class);
+        StepVerifier.create(Mono.fromCallable(() -> FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+                .subscribeOn(Schedulers.parallel()))
+                .verifyError(BlockingOperationError.class);
+    }
+
+    @Test
+    void reopen_tornRecord_droppedFromThereOn() throws IOException {
+        ProductMutationLog log = log(DataSize.ofMegabytes(1), 8);
+        append(log, 3);
+        log.destroy();
+        logs.remove(log);
+
+        try (RandomAccessFile file = new RandomAccessFile(segmentFiles().get(0).toFile(), "rw")) {
+            file.seek(ProductMutationLog.RECORD_SIZE + 50);
+            file.write(0x7f);
+        }
+
+        ProductMutationLog reopened = log(DataSize.ofMegabytes(1), 8);
+        assertEquals(1, reopened.end());
+        StepVerifier.create(reopened.read(0).map(ProductMutation::getProductId))
+                .expectNext("1")
+                .verifyComplete();
+    }
+
+    @Test
+    void append_longName_truncated() throws IOException {
+        ProductMutationLog log = log(DataSize.ofMegabytes(1), 8);
+        String name = Stream.generate(() -> "Café ").limit(50).collect(Collectors.joining());
+
+        log.append(1, ProductEventType.CREATED, "1", new Product("1", name, 2.99));
+
+        StepVerifier.create(log.read(0))
+                .assertNext(mutation -> {
+                    assertTrue(mutation.getTruncated());
+                    assertTrue(name.startsWith(mutation.getName()));
+                    assertTrue(mutation.getName().getBytes(StandardCharsets.UTF_8).length <= ProductMutationLog.NAME_CAPACITY);
+                    assertEquals(2.99, mutation.getPrice());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void sync_onlyWhenAppended() throws IOException {
+        ProductMutationLog log = log(DataSize.ofMegabytes(1), 8);
+        log.sync();
+        append(log, 2);
+        log.sync();
+        log.sync();
+
+        assertEquals(1, meterRegistry.get("product.mutationlog.sync").timer().count());
+        assertEquals(2, meterRegistry.get("product.mutationlog.appends").counter().count());
+    }
+
+    private ProductMutationLog log(DataSize segmentSize, int retainedSegments) throws IOException {
+        ProductMutationLog log = new ProductMutationLog(tempDir.toString(), segmentSize, retainedSegments,
+                Duration.ofHours(1), Schedulers.boundedElastic(), meterRegistry);
+        logs.add(log);
+        return log;
+    }
+
+    private void append(ProductMutationLog log, int count) {
+        for (int i = 1; i <= count; i++) {
+            log.append(i, ProductEventType.CREATED, String.valueOf(i), new Product(String.valueOf(i), "Product " + i, (double) i));
+        }
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(tempDir)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private void awaitSegmentFiles(int count) throws IOException {
+        for (int i = 0; i < 100 && segmentFiles().size() < count; i++) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        assertEquals(count, segmentFiles().size());
+    }
+}
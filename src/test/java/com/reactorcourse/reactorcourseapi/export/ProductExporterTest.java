@@ -0,0 +1,190 @@
+package com.reactorcourse.reactorcourseapi.export;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactorcourse.reactorcourseapi.model.Product;
+import com.reactorcourse.reactorcourseapi.repository.ProductRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.search.MeterNotFoundException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ProductExporterTest {
+
+    private ProductRepository repository;
+
+    private MeterRegistry meterRegistry;
+
+    private ProductExporter exporter;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(ProductRepository.class);
+        meterRegistry = new SimpleMeterRegistry();
+        exporter = new ProductExporter(repository, new ObjectMapper(), Schedulers.boundedElastic(), 2, meterRegistry);
+    }
+
+    @Test
+    void export_ndjson_oneLinePerProduct() throws IOException {
+        Product versioned = new Product("2", "Big Decaf", 2.49);
+        versioned.setVersion(3L);
+        when(repository.search(any(Query.class))).thenReturn(Flux.just(new Product("1", "Big Latte", 2.99), versioned));
+
+        assertEquals("{\"id\":\"1\",\"name\":\"Big Latte\",\"price\":2.99}\n"
+                        + "{\"id\":\"2\",\"name\":\"Big Decaf\",\"price\":2.49,\"version\":3}\n",
+                gunzip(exporter.export(ProductExporter.Format.NDJSON, new DefaultDataBufferFactory())));
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(repository).search(query.capture());
+        assertEquals(2, query.getValue().getMeta().getCursorBatchSize());
+    }
+
+    @Test
+    void export_csv_headerAndQuoting() throws IOException {
+        when(repository.search(any(Query.class))).thenReturn(Flux.just(
+                new Product("1", "Tea, green", 1.99), new Product("2", "The \"Big\" Latte", null)));
+
+        assertEquals("id,name,price,version\n"
+                        + "1,\"Tea, green\",1.99,\n"
+                        + "2,\"The \"\"Big\"\" Latte\",,\n",
+                gunzip(exporter.export(ProductExporter.Format.CSV, new DefaultDataBufferFactory())));
+    }
+
+    @Test
+    void export_noProducts_emptyGzip() throws IOException {
+        when(repository.search(any(Query.class))).thenReturn(Flux.empty());
+
+        assertEquals("", gunzip(exporter.export(ProductExporter.Format.NDJSON, new DefaultDataBufferFactory())));
+    }
+
+    @Test
+    void export_bufferPerBatch_decompressibleAsItComes() {
+        when(repository.search(any(Query.class))).thenReturn(Flux.range(1, 5)
+                .map(i -> new Product(String.valueOf(i), "Product " + i, (double) i)));
+        Inflater inflater = new Inflater(true);
+        List<String> batches = new ArrayList<>();
+
+        ///> Every buffer but the last (the gzip trailer) inflates to whole lines, 10 bytes of gzip header first
+        StepVerifier.create(exporter.export(ProductExporter.Format.NDJSON, new DefaultDataBufferFactory()))
+                .recordWith(ArrayList::new)
+                .thenConsumeWhile(buffer -> true)
+                .consumeRecordedWith(buffers -> {
+                    boolean first = true;
+                    for (DataBuffer buffer : buffers) {
+                        byte[] bytes = new byte[buffer.readableByteCount()];
+                        buffer.read(bytes);
+                        int offset = first ? 10 : 0;
+                        first = false;
+                        inflater.setInput(bytes, offset, bytes.length - offset);
+                        batches.add(inflate(inflater));
+                    }
+                })
+                .verifyComplete();
+
+        assertEquals(4, batches.size()); // 2 + 2 + 1 products and the trailer
+        assertTrue(batches.get(0).startsWith("{\"id\":\"1\""));
+        assertTrue(batches.get(0).endsWith("\n"));
+        assertEquals(2, batches.get(1).split("\n").length);
+        assertTrue(batches.get(2).startsWith("{\"id\":\"5\""));
+        assertEquals("", batches.get(3));
+        inflater.end();
+    }
+
+    @Test
+    void export_cancelled_onlyRequestedWritten() {
+        when(repository.search(any(Query.class))).thenReturn(Flux.range(1, 100)
+                .map(i -> new Product(String.valueOf(i), "Product " + i, (double) i)));
+        List<DataBuffer> allocated = new ArrayList<>();
+        NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT) {
+            @Override
+            public NettyDataBuffer allocateBuffer() {
+                NettyDataBuffer buffer = super.allocateBuffer();
+                allocated.add(buffer);
+                return buffer;
+            }
+        };
+        exporter = new ProductExporter(repository, new ObjectMapper(), Schedulers.immediate(), 2, meterRegistry);
+
+        StepVerifier.create(exporter.export(ProductExporter.Format.NDJSON, bufferFactory), 1)
+                .expectNextCount(1)
+                .thenCancel()
+                .verify();
+
+        assertEquals(1, allocated.size());
+        DataBufferUtils.release(allocated.get(0));
+        assertThrows(MeterNotFoundException.class, () -> meterRegistry.get("product.export").timer());
+    }
+
+    @Test
+    void export_completed_reported() {
+        when(repository.search(any(Query.class))).thenReturn(Flux.range(1, 3)
+                .map(i -> new Product(String.valueOf(i), "Product " + i, (double) i)));
+
+        StepVerifier.create(exporter.export(ProductExporter.Format.CSV, new DefaultDataBufferFactory()))
+                .thenConsumeWhile(buffer -> true)
+                .verifyComplete();
+
+        assertEquals(1, meterRegistry.get("product.export").tag("format", "csv").timer().count());
+        assertEquals(3, meterRegistry.get("product.export.products").tag("format", "csv").counter().count());
+    }
+
+    @Test
+    void format_of() {
+        assertEquals(ProductExporter.Format.NDJSON, ProductExporter.Format.of(null));
+        assertEquals(ProductExporter.Format.CSV, ProductExporter.Format.of("CSV"));
+        assertThrows(IllegalArgumentException.class, () -> ProductExporter.Format.of("xml"));
+    }
+
+    private static String gunzip(Flux<DataBuffer> buffers) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        for (DataBuffer buffer : buffers.collectList().block()) {
+            byte[] bytes = new byte[buffer.readableByteCount()];
+            buffer.read(bytes);
+            compressed.write(bytes);
+        }
+
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String inflate(Inflater inflater) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[1024];
+        try {
+            int inflated;
+            while ((inflated = inflater.inflate(chunk)) > 0) {
+                out.write(chunk, 0, inflated);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException(e);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
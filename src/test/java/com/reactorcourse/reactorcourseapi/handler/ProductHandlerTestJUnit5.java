@@ -1,21 +1,38 @@
 package com.reactorcourse.reactorcourseapi.handler;
 
+import com.reactorcourse.reactorcourseapi.event.ProductEventBus;
 import com.reactorcourse.reactorcourseapi.model.Product;
 import com.reactorcourse.reactorcourseapi.model.ProductEvent;
+import com.reactorcourse.reactorcourseapi.model.ProductEventType;
+import com.reactorcourse.reactorcourseapi.model.ProductLookup;
+import com.reactorcourse.reactorcourseapi.model.ProductPatch;
 import com.reactorcourse.reactorcourseapi.repository.ProductRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.reactive.server.FluxExchangeResult;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import org.springframework.web.reactive.function.server.RouterFunction;
+import reactor.core.publisher.Flux;
 import reactor.test.StepVerifier;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -30,6 +47,9 @@ class ProductHandlerTestJUnit5 {
     @Autowired
     private ProductRepository productRepository;
 
+    @Autowired
+    private ProductEventBus productEventBus;
+
     @Autowired
     private RouterFunction routerFunction;
 
@@ -80,9 +100,94 @@ class ProductHandlerTestJUnit5 {
                 .isEqualTo(expectedProduct);
     }
 
+    @Test
+    void exportProducts_gzipCsv() throws IOException {
+        byte[] body = webTestClient
+                .get()
+                .uri("/export?format=csv")
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .expectBody(byte[].class)
+                .returnResult()
+                .getResponseBody();
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(body)), StandardCharsets.UTF_8))) {
+            List<String> lines = reader.lines().collect(Collectors.toList());
+            assertEquals("id,name,price,version", lines.get(0));
+            assertEquals(expectedList.size() + 1, lines.size());
+        }
+    }
+
+    @Test
+    void lookupProducts_requestOrderKept_missingReported() {
+        Product first = expectedList.get(0);
+        Product last = expectedList.get(expectedList.size() - 1);
+
+        webTestClient
+                .post()
+                .uri("/lookup")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Arrays.asList(last.getId(), "xxx", first.getId()))
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody(ProductLookup.class)
+                .isEqualTo(new ProductLookup(Arrays.asList(last, first), Collections.singletonList("xxx")));
+    }
+
+    @Test
+    void getProductsById_noIds_badRequest() {
+        webTestClient
+                .get()
+                .uri("/?ids=")
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+    }
+
+    @Test
+    void getProductsById_withLimit_badRequest() {
+        webTestClient
+                .get()
+                .uri("/?ids={ids}&limit=5", expectedList.get(0).getId())
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+    }
+
+    @Test
+    void patchProduct_onlyPatchedPropertyChanged() {
+        Product product = expectedList.get(0);
+
+        webTestClient
+                .patch()
+                .uri("/{id}", product.getId())
+                .contentType(ProductPatch.MEDIA_TYPE)
+                .bodyValue("{\"name\":\"" + product.getName() + " (patched)\"}")
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody(Product.class)
+                .value(patched -> {
+                    assertEquals(product.getName() + " (patched)", patched.getName());
+                    assertEquals(product.getPrice(), patched.getPrice());
+                    assertEquals(product.getVersion() + 1, patched.getVersion());
+                });
+    }
+
     @Test
     void getProductEvents() {
-        ProductEvent expectedEvent = new ProductEvent(0L, "Product Event");
+        ///> The response is only committed once the first event is written, so that event is published while exchange() waits,
+        ///> as soon as the stream subscribed to the bus (an event published before would never reach it)
+        long subscribers = productEventBus.subscriberCount();
+        Flux.interval(Duration.ofMillis(5))
+                .take(Duration.ofSeconds(5))
+                .filter(tick -> productEventBus.subscriberCount() > subscribers)
+                .next()
+                .subscribe(tick -> productEventBus.publish(ProductEventType.CREATED, "1"));
 
         FluxExchangeResult<ProductEvent> result =
                 webTestClient.get().uri("/events")
@@ -94,10 +199,10 @@ class ProductHandlerTestJUnit5 {
         ///> StepVerifier used here because webTestClient doesn't have a functionality to assert events as they come
         ///> or cancel the stream ones the test is done.
         StepVerifier.create(result.getResponseBody())
-                .expectNext(expectedEvent)
-                .expectNextCount(2)
-                .consumeNextWith(productEvent ->
-                        assertEquals(Long.valueOf(3), productEvent.getEventId()))  // event started with 0 so after 2 next will be 3
+                .expectNextMatches(productEvent ->
+                        productEvent.getEventType() == ProductEventType.CREATED && "1".equals(productEvent.getProductId()))
+                .then(() -> productEventBus.publish(ProductEventType.DELETED, "1"))
+                .expectNextMatches(productEvent -> productEvent.getEventType() == ProductEventType.DELETED)
                 .thenCancel()
                 .verify();
     }
@@ -106,6 +211,19 @@ class ProductHandlerTestJUnit5 {
     void saveProduct() {
     }
 
+    @Test
+    void saveProduct_existingIdWithoutVersion_conflict() {
+        Product existing = expectedList.get(0);
+
+        webTestClient
+                .post()
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new Product(existing.getId(), "Another name", 0.99))
+                .exchange()
+                .expectStatus()
+                .isEqualTo(HttpStatus.CONFLICT);
+    }
+
     @Test
     void updateProduct() {
     }
@@ -0,0 +1,51 @@
+package com.reactorcourse.reactorcourseapi.metrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.test.StepVerifier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InFlightRequestsWebFilterTest {
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private InFlightRequestsWebFilter filter;
+
+    private MockServerWebExchange exchange;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        filter = new InFlightRequestsWebFilter(meterRegistry);
+        exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/products"));
+    }
+
+    @Test
+    void filter_countsRequestUntilItCompletes() {
+        MonoProcessor<Void> response = MonoProcessor.create();
+
+        StepVerifier.create(filter.filter(exchange, e -> response))
+                .then(() -> assertEquals(1.0, meterRegistry.get("http.server.requests.active").gauge().value()))
+                .then(response::onComplete)
+                .verifyComplete();
+
+        assertEquals(0.0, meterRegistry.get("http.server.requests.active").gauge().value());
+    }
+
+    @Test
+    void filter_failedOrCancelledRequest_notCountedAnymore() {
+        StepVerifier.create(filter.filter(exchange, e -> Mono.error(new IllegalStateException())))
+                .verifyError(IllegalStateException.class);
+        StepVerifier.create(filter.filter(exchange, e -> MonoProcessor.create()))
+                .thenCancel()
+                .verify();
+
+        assertEquals(0, filter.inFlight());
+    }
+}
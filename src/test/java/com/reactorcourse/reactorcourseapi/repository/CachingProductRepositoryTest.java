@@ -0,0 +1,265 @@
+package com.reactorcourse.reactorcourseapi.repository;
+
+import com.reactorcourse.reactorcourseapi.cache.ProductCache;
+import com.reactorcourse.reactorcourseapi.model.Product;
+import com.reactorcourse.reactorcourseapi.model.ProductPatch;
+import com.reactorcourse.reactorcourseapi.model.ProductStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class CachingProductRepositoryTest {
+
+    private ProductRepository delegate;
+
+    private ProductCache productCache;
+
+    private MeterRegistry meterRegistry;
+
+    private CachingProductRepository repository;
+
+    private Product product;
+
+    @BeforeEach
+    void setUp() {
+        delegate = mock(ProductRepository.class);
+        meterRegistry = new SimpleMeterRegistry();
+        productCache = new ProductCache(100, Duration.ofMinutes(1), meterRegistry);
+        repository = new CachingProductRepository(delegate, productCache, meterRegistry, Duration.ofMinutes(1), Duration.ZERO);
+
+        product = new Product("1", "Big Latte", 2.99);
+    }
+
+    @Test
+    void findById_secondCall_servedFromCache() {
+        when(delegate.findById("1")).thenReturn(Mono.just(product));
+
+        StepVerifier.create(repository.findById("1")).expectNext(product).verifyComplete();
+        StepVerifier.create(repository.findById("1")).expectNext(product).verifyComplete();
+
+        verify(delegate, times(1)).findById("1");
+        assertEquals(1, productCache.stats().hitCount());
+        assertEquals(1, productCache.stats().missCount());
+        assertEquals(1, meterRegistry.get("cache.gets").tag("cache", "products").tag("result", "hit").functionCounter().count());
+        assertEquals(1, meterRegistry.get("cache.gets").tag("cache", "products").tag("result", "miss").functionCounter().count());
+    }
+
+    @Test
+    void findById_concurrentCalls_coalesced() {
+        MonoProcessor<Product> lookup = MonoProcessor.create();
+        when(delegate.findById("1")).thenReturn(lookup);
+
+        List<Mono<Product>> calls = Arrays.asList(repository.findById("1"), repository.findById("1"), repository.findById("1"));
+        List<MonoProcessor<Product>> results = calls.stream().map(Mono::toProcessor).collect(Collectors.toList());
+        lookup.onNext(product);
+
+        results.forEach(result -> assertEquals(product, result.peek()));
+        verify(delegate, times(1)).findById("1");
+        assertEquals(2, meterRegistry.get("product.reads.coalesced").functionCounter().count());
+        assertEquals(0, meterRegistry.get("product.reads.inflight").gauge().value());
+    }
+
+    @Test
+    void findById_unknownId_notCached() {
+        when(delegate.findById("xxx")).thenReturn(Mono.empty());
+
+        StepVerifier.create(repository.findById("xxx")).verifyComplete();
+        StepVerifier.create(repository.findById("xxx")).verifyComplete();
+
+        verify(delegate, times(2)).findById("xxx");
+        assertEquals(0, productCache.size());
+    }
+
+    @Test
+    void save_invalidatesCachedProduct() {
+        Product updated = new Product("1", "White Tea", 0.99);
+        when(delegate.findById("1")).thenReturn(Mono.just(product), Mono.just(updated));
+        when(delegate.save(any(Product.class))).thenReturn(Mono.just(updated));
+
+        StepVerifier.create(repository.findById("1")).expectNext(product).verifyComplete();
+        StepVerifier.create(repository.save(updated)).expectNext(updated).verifyComplete();
+        StepVerifier.create(repository.findById("1")).expectNext(updated).verifyComplete();
+
+        verify(delegate, times(2)).findById("1");
+    }
+
+    @Test
+    void delete_invalidatesCachedProduct() {
+        when(delegate.findById("1")).thenReturn(Mono.just(product), Mono.empty());
+        when(delegate.delete(product)).thenReturn(Mono.empty());
+
+        StepVerifier.create(repository.findById("1")).expectNext(product).verifyComplete();
+        StepVerifier.create(repository.delete(product)).verifyComplete();
+        StepVerifier.create(repository.findById("1")).verifyComplete();
+    }
+
+    @Test
+    void deleteAll_clearsCache() {
+        when(delegate.findById("1")).thenReturn(Mono.just(product));
+        when(delegate.deleteAll()).thenReturn(Mono.empty());
+
+        StepVerifier.create(repository.findById("1")).expectNext(product).verifyComplete();
+        StepVerifier.create(repository.deleteAll()).verifyComplete();
+
+        assertEquals(0, productCache.size());
+    }
+
+    @Test
+    void patch_notModified_cachedProductKept() {
+        when(delegate.findById("1")).thenReturn(Mono.just(product));
+        when(delegate.patch(eq("1"), any(ProductPatch.class))).thenReturn(Mono.just(new ProductPatch.Result(product, false)));
+        repository.findById("1").block();
+
+        StepVerifier.create(repository.patch("1", ProductPatch.of("1", Collections.singletonMap("name", "Big Latte"))))
+                .expectNextMatches(result -> !result.isModified())
+                .verifyComplete();
+        StepVerifier.create(repository.findById("1")).expectNext(product).verifyComplete();
+
+        verify(delegate, times(1)).findById("1");
+    }
+
+    @Test
+    void patch_modified_invalidatesCachedProduct() {
+        Product patched = new Product("1", "Big Latte", 3.49);
+        when(delegate.findById("1")).thenReturn(Mono.just(product), Mono.just(patched));
+        when(delegate.patch(eq("1"), any(ProductPatch.class))).thenReturn(Mono.just(new ProductPatch.Result(patched, true)));
+        repository.findById("1").block();
+
+        repository.patch("1", ProductPatch.of("1", Collections.singletonMap("price", 3.49))).block();
+
+        StepVerifier.create(repository.findById("1")).expectNext(patched).verifyComplete();
+    }
+
+    @Test
+    void priceStats_secondCall_servedFromCache() {
+        ProductStats stats = new ProductStats(null, 1L, 2.99, 2.99, 2.99, 2.99, 2.99, 2.99, 2.99);
+        when(delegate.priceStats(null)).thenReturn(Flux.just(stats));
+
+        StepVerifier.create(repository.priceStats(null)).expectNext(stats).verifyComplete();
+        StepVerifier.create(repository.priceStats(null)).expectNext(stats).verifyComplete();
+
+        verify(delegate, times(1)).priceStats(null);
+    }
+
+    @Test
+    void priceStats_recomputedAfterInsert() {
+        ProductStats before = new ProductStats(null, 1L, 2.99, 2.99, 2.99, 2.99, 2.99, 2.99, 2.99);
+        ProductStats after = new ProductStats(null, 2L, 0.99, 2.99, 1.99, 0.99, 2.99, 2.99, 2.99);
+        Product inserted = new Product("2", "White Tea", 0.99);
+        when(delegate.priceStats(null)).thenReturn(Flux.just(before), Flux.just(after));
+        when(delegate.insert(inserted)).thenReturn(Mono.just(inserted));
+
+        StepVerifier.create(repository.priceStats(null)).expectNext(before).verifyComplete();
+        StepVerifier.create(repository.insert(inserted)).expectNext(inserted).verifyComplete();
+        StepVerifier.create(repository.priceStats(null)).expectNext(after).verifyComplete();
+
+        verify(delegate, times(2)).priceStats(null);
+    }
+
+    @Test
+    void priceStats_error_notCached() {
+        ProductStats stats = new ProductStats("B", 1L, 2.99, 2.99, 2.99, 2.99, 2.99, 2.99, 2.99);
+        when(delegate.priceStats(1)).thenReturn(Flux.error(new IllegalStateException()), Flux.just(stats));
+
+        StepVerifier.create(repository.priceStats(1)).verifyError(IllegalStateException.class);
+        StepVerifier.create(repository.priceStats(1)).expectNext(stats).verifyComplete();
+    }
+
+    @Test
+    void update_writeBehind_coalescedAndReadBack() {
+        repository = new CachingProductRepository(delegate, productCache, meterRegistry, Duration.ofMinutes(1), Duration.ofMinutes(1));
+        product.setVersion(1L);
+        when(delegate.findById("1")).thenReturn(Mono.just(product));
+        when(delegate.update(eq("1"), any(Product.class))).thenAnswer(invocation -> Mono.just(invocation.getArgument(1)));
+
+        StepVerifier.create(repository.update("1", new Product(null, "Big Latte", 3.49)))
+                .assertNext(updated -> assertEquals(2L, updated.getVersion()))
+                .verifyComplete();
+        StepVerifier.create(repository.update("1", new Product(null, "Big Latte", 3.99)))
+                .assertNext(updated -> assertEquals(2L, updated.getVersion()))
+                .verifyComplete();
+        StepVerifier.create(repository.findById("1"))
+                .assertNext(found -> assertEquals(3.99, found.getPrice()))
+                .verifyComplete();
+        verify(delegate, never()).update(any(), any());
+        assertTrue(repository.hasPendingWrites());
+
+        repository.destroy();
+
+        verify(delegate, times(1)).update("1", new Product("1", "Big Latte", 3.99));
+        assertFalse(repository.hasPendingWrites());
+    }
+
+    @Test
+    void update_writeBehind_unknownId_empty() {
+        repository = new CachingProductRepository(delegate, productCache, meterRegistry, Duration.ofMinutes(1), Duration.ofMinutes(1));
+        when(delegate.findById("xxx")).thenReturn(Mono.empty());
+
+        StepVerifier.create(repository.update("xxx", new Product(null, "Big Latte", 3.49))).verifyComplete();
+
+        repository.destroy();
+        verify(delegate, never()).update(any(), any());
+    }
+
+    @Test
+    void update_writeBehind_versioned_writesBufferedFirst() {
+        repository = new CachingProductRepository(delegate, productCache, meterRegistry, Duration.ofMinutes(1), Duration.ofMinutes(1));
+        product.setVersion(1L);
+        Product versioned = new Product(null, "Big Latte", 4.49);
+        versioned.setVersion(2L);
+        when(delegate.findById("1")).thenReturn(Mono.just(product));
+        when(delegate.update(eq("1"), any(Product.class))).thenAnswer(invocation -> Mono.just(invocation.getArgument(1)));
+
+        StepVerifier.create(repository.update("1", new Product(null, "Big Latte", 3.49))).expectNextCount(1).verifyComplete();
+        StepVerifier.create(repository.update("1", versioned)).expectNext(versioned).verifyComplete();
+
+        InOrder inOrder = inOrder(delegate);
+        inOrder.verify(delegate).update("1", new Product("1", "Big Latte", 3.49));
+        inOrder.verify(delegate).update("1", versioned);
+    }
+
+    @Test
+    void findAllById_writeBehind_bufferedUpdateReadBack() {
+        repository = new CachingProductRepository(delegate, productCache, meterRegistry, Duration.ofMinutes(1), Duration.ofMinutes(1));
+        Product decaf = new Product("2", "Big Decaf", 2.49);
+        when(delegate.findById("1")).thenReturn(Mono.just(product));
+        when(delegate.findAllById(Arrays.asList("1", "2"))).thenReturn(Flux.just(product, decaf));
+
+        StepVerifier.create(repository.update("1", new Product(null, "Big Latte", 3.49))).expectNextCount(1).verifyComplete();
+
+        StepVerifier.create(repository.findAllByIdInChunks(Arrays.asList("1", "2")))
+                .assertNext(found -> assertEquals(3.49, found.getPrice()))
+                .expectNext(decaf)
+                .verifyComplete();
+    }
+
+    @Test
+    void delete_writeBehind_dropsBufferedUpdate() {
+        repository = new CachingProductRepository(delegate, productCache, meterRegistry, Duration.ofMinutes(1), Duration.ofMinutes(1));
+        when(delegate.findById("1")).thenReturn(Mono.just(product));
+        when(delegate.removeById("1")).thenReturn(Mono.just(true));
+
+        StepVerifier.create(repository.update("1", new Product(null, "Big Latte", 3.49))).expectNextCount(1).verifyComplete();
+        StepVerifier.create(repository.removeById("1")).expectNext(true).verifyComplete();
+
+        repository.destroy();
+        verify(delegate, never()).update(any(), any());
+    }
+}
@@ -0,0 +1,260 @@
+package com.reactorcourse.reactorcourseapi.repository;
+
+import com.reactorcourse.reactorcourseapi.model.Product;
+import com.reactorcourse.reactorcourseapi.model.ProductPatch;
+import com.reactorcourse.reactorcourseapi.model.ProductStats;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+class InMemoryProductRepositoryTest {
+
+    private InMemoryProductRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        repository = new InMemoryProductRepository();
+    }
+
+    @Test
+    void save_noId_idGenerated() {
+        Product product = repository.save(new Product(null, "Big Latte", 2.99)).block();
+
+        assertNotNull(product);
+        assertEquals(24, product.getId().length());
+        assertEquals(0L, product.getVersion());
+        StepVerifier.create(repository.findById(product.getId()))
+                .expectNext(product)
+                .verifyComplete();
+    }
+
+    @Test
+    void nextId_otherThread_sortsInGenerationOrder() throws Exception {
+        String first = repository.nextId();
+        String otherThread = CompletableFuture.supplyAsync(repository::nextId).get();
+        String third = repository.nextId();
+
+        assertEquals(24, first.length());
+        assertTrue(first.compareTo(otherThread) < 0);
+        assertTrue(otherThread.compareTo(third) < 0);
+    }
+
+    @Test
+    void insertAndDelete_concurrently_idsMatchProducts() {
+        Flux.range(0, 10_000)
+                .parallel(4)
+                .runOn(Schedulers.parallel())
+                .flatMap(i -> i % 2 == 0
+                        ? repository.insert(new Product(String.valueOf(i % 100), "Big Latte", 2.99)).onErrorResume(e -> Mono.empty()).then()
+                        : repository.deleteById(String.valueOf((i - 1) % 100)))
+                .sequential()
+                .blockLast();
+
+        assertEquals(repository.count().block(), (long) repository.idCount());
+    }
+
+    @Test
+    void insert_existingId_duplicateKey() {
+        repository.insert(new Product("1", "Big Latte", 2.99)).block();
+
+        StepVerifier.create(repository.insert(new Product("1", "Big Decaf", 2.49)))
+                .verifyError(DuplicateKeyException.class);
+    }
+
+    @Test
+    void save_staleVersion_optimisticLockingFailure() {
+        Product product = repository.save(new Product("1", "Big Latte", 2.99)).block();
+        Product stale = new Product("1", "Big Latte", 3.49);
+        stale.setVersion(product.getVersion());
+        repository.save(stale).block();
+
+        stale.setVersion(product.getVersion());
+        StepVerifier.create(repository.save(stale))
+                .verifyError(OptimisticLockingFailureException.class);
+    }
+
+    @Test
+    void update_versionBumped() {
+        repository.save(new Product("1", "Big Latte", 2.99)).block();
+
+        StepVerifier.create(repository.update("1", new Product(null, "Big Latte", 3.49)))
+                .assertNext(product -> {
+                    assertEquals(3.49, product.getPrice());
+                    assertEquals(1L, product.getVersion());
+                })
+                .verifyComplete();
+        StepVerifier.create(repository.update("2", new Product(null, "Big Decaf", 2.49)))
+                .verifyComplete();
+    }
+
+    @Test
+    void findAllByIdInChunks_allChunksQueried() {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < ProductRepository.ID_CHUNK_SIZE * 2 + 1; i++) {
+            ids.add(String.valueOf(i));
+            if (i % 2 == 0) {
+                repository.save(new Product(String.valueOf(i), "Product " + i, (double) i)).block();
+            }
+        }
+
+        StepVerifier.create(repository.findAllByIdInChunks(ids).map(Product::getId).collectList())
+                .assertNext(found -> assertEquals(
+                        ids.stream().filter(id -> Integer.parseInt(id) % 2 == 0).sorted().collect(Collectors.toList()),
+                        found.stream().sorted().collect(Collectors.toList())))
+                .verifyComplete();
+    }
+
+    @Test
+    void patch_onlyPatchedPropertiesChanged() {
+        repository.save(new Product("1", "Big Latte", 2.99)).block();
+
+        StepVerifier.create(repository.patch("1", ProductPatch.of("1", patch("price", null))))
+                .assertNext(result -> {
+                    assertTrue(result.isModified());
+                    assertEquals("Big Latte", result.getProduct().getName());
+                    assertNull(result.getProduct().getPrice());
+                    assertEquals(1L, result.getProduct().getVersion());
+                })
+                .verifyComplete();
+        StepVerifier.create(repository.patch("2", ProductPatch.of("2", patch("price", 2.49))))
+                .verifyComplete();
+    }
+
+    @Test
+    void patch_noChange_notModified() {
+        repository.save(new Product("1", "Big Latte", 2.99)).block();
+
+        StepVerifier.create(repository.patch("1", ProductPatch.of("1", patch("name", "Big Latte"))))
+                .assertNext(result -> {
+                    assertFalse(result.isModified());
+                    assertEquals(0L, result.getProduct().getVersion());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void patch_staleVersion_optimisticLockingFailure() {
+        repository.save(new Product("1", "Big Latte", 2.99)).block();
+        Map<String, Object> patch = patch("price", 3.49);
+        patch.put("version", 1);
+
+        StepVerifier.create(repository.patch("1", ProductPatch.of("1", patch)))
+                .verifyError(OptimisticLockingFailureException.class);
+    }
+
+    @Test
+    void findPage_idOrder() {
+        saveAll("3", "1", "2");
+
+        StepVerifier.create(repository.findPage(null, 2).map(Product::getId))
+                .expectNext("1", "2")
+                .verifyComplete();
+        StepVerifier.create(repository.findPage("2", 2).map(Product::getId))
+                .expectNext("3")
+                .verifyComplete();
+    }
+
+    @Test
+    void search_prefixPriceRangeAndTop() {
+        repository.saveAll(Arrays.asList(
+                new Product("1", "Big Latte", 2.99),
+                new Product("2", "Big Decaf", 2.49),
+                new Product("3", "Big Mocha", 4.99),
+                new Product("4", "Black Tea", 1.99)
+        )).blockLast();
+
+        StepVerifier.create(repository.search(ProductQueries.search(null, "Big", null, null, null)).map(Product::getName))
+                .expectNext("Big Decaf", "Big Latte", "Big Mocha")
+                .verifyComplete();
+        StepVerifier.create(repository.search(ProductQueries.search(null, null, 2.0, 3.0, null)).map(Product::getName))
+                .expectNext("Big Decaf", "Big Latte")
+                .verifyComplete();
+        StepVerifier.create(repository.search(ProductQueries.top("price", "desc", 2)).map(Product::getId))
+                .expectNext("3", "1")
+                .verifyComplete();
+    }
+
+    @Test
+    void search_fields_projected() {
+        repository.save(new Product("1", "Big Latte", 2.99)).block();
+
+        StepVerifier.create(repository.search(ProductQueries.withFields(ProductQueries.all(null), "name")))
+                .assertNext(product -> {
+                    assertEquals("1", product.getId());
+                    assertEquals("Big Latte", product.getName());
+                    assertNull(product.getPrice());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void search_unknownOperator_illegalArgument() {
+        StepVerifier.create(repository.search(new Query(where("name").exists(true))))
+                .verifyError(IllegalArgumentException.class);
+    }
+
+    @Test
+    void priceStats_groupedByPrefix() {
+        repository.saveAll(Arrays.asList(
+                new Product("1", "Big Latte", 2.99),
+                new Product("2", "Big Decaf", 2.49),
+                new Product("3", "Black Tea", 1.99),
+                new Product("4", "Water", null)
+        )).blockLast();
+
+        List<ProductStats> stats = repository.priceStats(2).collectList().block();
+
+        assertEquals(Arrays.asList("Bi", "Bl"), stats.stream().map(ProductStats::getGroup).collect(Collectors.toList()));
+        ProductStats big = stats.get(0);
+        assertEquals(2L, big.getCount());
+        assertEquals(2.49, big.getMin());
+        assertEquals(2.99, big.getMax());
+        assertEquals(2.49, big.getP50());
+        assertEquals(2.99, big.getP99());
+    }
+
+    @Test
+    void removeById() {
+        saveAll("1", "2");
+
+        StepVerifier.create(repository.removeById("1"))
+                .expectNext(true)
+                .verifyComplete();
+        StepVerifier.create(repository.removeById("1"))
+                .expectNext(false)
+                .verifyComplete();
+        StepVerifier.create(repository.findAll().map(Product::getId))
+                .expectNext("2")
+                .verifyComplete();
+    }
+
+    private static Map<String, Object> patch(String property, Object value) {
+        Map<String, Object> patch = new HashMap<>();
+        patch.put(property, value);
+        return patch;
+    }
+
+    private void saveAll(String... ids) {
+        repository.saveAll(Arrays.stream(ids)
+                .map(id -> new Product(id, "Product " + id, 1.99))
+                .collect(Collectors.toList()))
+                .blockLast();
+    }
+}
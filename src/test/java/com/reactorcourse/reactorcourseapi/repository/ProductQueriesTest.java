@@ -0,0 +1,103 @@
+package com.reactorcourse.reactorcourseapi.repository;
+
+import com.reactorcourse.reactorcourseapi.model.ProductPage;
+import com.reactorcourse.reactorcourseapi.model.QueryPlan;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductQueriesTest {
+
+    @Test
+    void search_name() {
+        Query query = ProductQueries.search("Big Latte", null, null, null, null);
+
+        assertEquals(new Document("name", "Big Latte"), query.getQueryObject());
+        assertEquals(100, query.getLimit());
+    }
+
+    @Test
+    void search_prefix_escapedAndSortedByName() {
+        Query query = ProductQueries.search(null, "C++ (", null, null, 5);
+
+        Pattern regex = (Pattern) query.getQueryObject().get("name");
+        assertEquals("^C\\+\\+ \\(", regex.pattern());
+        assertTrue(regex.matcher("C++ (large)").find());
+        assertEquals(new Document("name", 1), query.getSortObject());
+        assertEquals(5, query.getLimit());
+    }
+
+    @Test
+    void search_priceRange_sortedByPrice() {
+        Query query = ProductQueries.search(null, null, 1.0, 5.0, null);
+
+        assertEquals(new Document("price", new Document("$gte", 1.0).append("$lte", 5.0)), query.getQueryObject());
+        assertEquals(new Document("price", 1), query.getSortObject());
+    }
+
+    @Test
+    void search_invalid() {
+        assertThrows(IllegalArgumentException.class, () -> ProductQueries.search(null, null, null, null, null));
+        assertThrows(IllegalArgumentException.class, () -> ProductQueries.search("Big Latte", "Big", null, null, null));
+        assertThrows(IllegalArgumentException.class, () -> ProductQueries.search(null, null, 5.0, 1.0, null));
+        assertThrows(IllegalArgumentException.class,
+                () -> ProductQueries.search("Big Latte", null, null, null, ProductPage.MAX_LIMIT + 1));
+    }
+
+    @Test
+    void top_defaults() {
+        Query query = ProductQueries.top(null, null, null);
+
+        assertEquals(new Document(), query.getQueryObject());
+        assertEquals(new Document("price", -1), query.getSortObject());
+        assertEquals(10, query.getLimit());
+    }
+
+    @Test
+    void top_invalid() {
+        assertThrows(IllegalArgumentException.class, () -> ProductQueries.top("id", "asc", null));
+        assertThrows(IllegalArgumentException.class, () -> ProductQueries.top("name", "up", null));
+        assertThrows(IllegalArgumentException.class, () -> ProductQueries.top("name", "asc", 0));
+    }
+
+    @Test
+    void withFields_projection() {
+        Query query = ProductQueries.withFields(ProductQueries.all("5"), " id,name ");
+
+        assertEquals(new Document("id", new Document("$gt", "5")), query.getQueryObject());
+        assertEquals(new Document("id", 1).append("name", 1), query.getFieldsObject());
+        assertEquals(new Document("id", 1), query.getSortObject());
+    }
+
+    @Test
+    void withFields_unknownField() {
+        assertThrows(IllegalArgumentException.class, () -> ProductQueries.withFields(ProductQueries.byId("1"), "name,color"));
+    }
+
+    @Test
+    void queryPlan_stagesAndIndexes() {
+        Document winningPlan = new Document("stage", "LIMIT")
+                .append("inputStage", new Document("stage", "FETCH")
+                        .append("inputStage", new Document("stage", "IXSCAN").append("indexName", "price")));
+        Document explain = new Document("queryPlanner", new Document("winningPlan", winningPlan));
+
+        QueryPlan plan = QueryPlan.of("topByPrice", new Document(), explain);
+
+        assertEquals(Arrays.asList("LIMIT", "FETCH", "IXSCAN"), plan.getStages());
+        assertEquals(Collections.singletonList("price"), plan.getIndexes());
+        assertFalse(plan.isCollectionScan());
+    }
+
+    @Test
+    void queryPlan_collectionScan() {
+        Document explain = new Document("queryPlanner", new Document("winningPlan", new Document("stage", "COLLSCAN")));
+
+        assertTrue(QueryPlan.of("name", new Document("name", "x"), explain).isCollectionScan());
+    }
+}
@@ -0,0 +1,175 @@
+package com.reactorcourse.reactorcourseapi.repository;
+
+import com.reactorcourse.reactorcourseapi.model.Product;
+import com.reactorcourse.reactorcourseapi.model.ProductPatch;
+import com.reactorcourse.reactorcourseapi.model.ProductStats;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * The Mongo commands behind the patches and the price statistics, the operations are mocked.
+ */
+
+class ProductRepositoryCustomImplTest {
+
+    private ReactiveMongoOperations operations;
+
+    private ProductRepositoryCustomImpl repository;
+
+    private Product stored;
+
+    @BeforeEach
+    void setUp() {
+        operations = mock(ReactiveMongoOperations.class);
+        repository = new ProductRepositoryCustomImpl(operations);
+
+        stored = new Product("1", "Big Latte", 2.99);
+        stored.setVersion(4L);
+    }
+
+    @Test
+    void patch_onlyMatchesWhenSomethingChanges() {
+        Product patched = new Product("1", null, 3.49);
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        when(operations.findAndModify(query.capture(), update.capture(), any(FindAndModifyOptions.class), eq(Product.class)))
+                .thenReturn(Mono.just(patched));
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("price", 3.49);
+        body.put("name", null);
+        body.put("version", 4);
+
+        StepVerifier.create(repository.patch("1", ProductPatch.of("1", body)))
+                .assertNext(result -> {
+                    assertTrue(result.isModified());
+                    assertEquals(patched, result.getProduct());
+                })
+                .verifyComplete();
+
+        assertEquals(new Document("id", "1").append("version", 4L).append("$or", Arrays.asList(
+                new Document("price", new Document("$ne", 3.49)),
+                new Document("name", new Document("$ne", null)))),
+                query.getValue().getQueryObject());
+        assertEquals(new Document("$set", new Document("price", 3.49))
+                        .append("$unset", new Document("name", 1))
+                        .append("$inc", new Document("version", 1)),
+                update.getValue().getUpdateObject());
+        verify(operations, never()).findOne(any(Query.class), eq(Product.class));
+    }
+
+    @Test
+    void patch_noChange_readNotWritten() {
+        when(operations.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(Product.class)))
+                .thenReturn(Mono.empty());
+        when(operations.findOne(any(Query.class), eq(Product.class))).thenReturn(Mono.just(stored));
+
+        StepVerifier.create(repository.patch("1", ProductPatch.of("1", Collections.singletonMap("price", 2.99))))
+                .assertNext(result -> {
+                    assertFalse(result.isModified());
+                    assertEquals(stored, result.getProduct());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void patch_empty_onlyRead() {
+        when(operations.findOne(any(Query.class), eq(Product.class))).thenReturn(Mono.just(stored));
+
+        StepVerifier.create(repository.patch("1", ProductPatch.of("1", new HashMap<>())))
+                .expectNextMatches(result -> !result.isModified())
+                .verifyComplete();
+
+        verify(operations, never()).findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(Product.class));
+    }
+
+    @Test
+    void patch_staleVersion_optimisticLockingFailure() {
+        when(operations.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(Product.class)))
+                .thenReturn(Mono.empty());
+        when(operations.findOne(any(Query.class), eq(Product.class))).thenReturn(Mono.just(stored));
+        Map<String, Object> body = new HashMap<>();
+        body.put("price", 3.49);
+        body.put("version", 3);
+
+        StepVerifier.create(repository.patch("1", ProductPatch.of("1", body)))
+                .verifyError(OptimisticLockingFailureException.class);
+    }
+
+    @Test
+    void patch_unknownId_empty() {
+        when(operations.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(Product.class)))
+                .thenReturn(Mono.empty());
+        when(operations.findOne(any(Query.class), eq(Product.class))).thenReturn(Mono.empty());
+
+        StepVerifier.create(repository.patch("1", ProductPatch.of("1", Collections.singletonMap("price", 3.49))))
+                .verifyComplete();
+    }
+
+    @Test
+    void priceStats_percentilesPickedFromOneSortedPass() {
+        when(operations.getCollectionName(Product.class)).thenReturn("product");
+        ArgumentCaptor<Aggregation> groups = ArgumentCaptor.forClass(Aggregation.class);
+        when(operations.aggregate(groups.capture(), eq("product"), eq(ProductStats.class))).thenReturn(Flux.just(
+                new ProductStats("B", 1L, 4.0, 4.0, 4.0, null, null, null, null),
+                new ProductStats("Bi", 20L, 1.0, 20.0, 10.5, null, null, null, null)));
+        ArgumentCaptor<Aggregation> prices = ArgumentCaptor.forClass(Aggregation.class);
+        when(operations.aggregate(prices.capture(), eq("product"), eq(Document.class))).thenReturn(Flux.concat(
+                Flux.just(price("B", 4.0), price("Bl", 3.0)), // Bl was added between the two passes
+                Flux.range(1, 20).map(i -> price("Bi", i))));
+
+        StepVerifier.create(repository.priceStats(2))
+                .assertNext(stats -> assertEquals(Arrays.asList("B", 1L, 4.0, 4.0), Arrays.asList(stats.getGroup(), stats.getCount(), stats.getP50(), stats.getP99())))
+                .assertNext(stats -> assertEquals(Arrays.asList("Bi", 20L, 10.0, 18.0, 19.0, 20.0),
+                        Arrays.asList(stats.getGroup(), stats.getCount(), stats.getP50(), stats.getP90(), stats.getP95(), stats.getP99())))
+                .verifyComplete();
+
+        assertFalse(groups.getValue().toString().contains("$push"));
+        assertEquals(1, prices.getAllValues().size());
+        List<Document> pipeline = prices.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT);
+        assertEquals(new Document("group", 1).append("price", 1), pipeline.get(2).get("$sort"));
+    }
+
+    @Test
+    void priceStats_noPrefix_onePassOverThePriceOrder() {
+        when(operations.getCollectionName(Product.class)).thenReturn("product");
+        when(operations.aggregate(any(Aggregation.class), eq("product"), eq(ProductStats.class))).thenReturn(Flux.just(
+                new ProductStats(null, 4L, 1.0, 4.0, 2.5, null, null, null, null)));
+        ArgumentCaptor<Aggregation> prices = ArgumentCaptor.forClass(Aggregation.class);
+        when(operations.aggregate(prices.capture(), eq("product"), eq(Document.class))).thenReturn(
+                Flux.range(1, 4).map(i -> new Document("price", (double) i)));
+
+        StepVerifier.create(repository.priceStats(null))
+                .assertNext(stats -> assertEquals(Arrays.asList(null, 4L, 2.0, 4.0, 4.0, 4.0),
+                        Arrays.asList(stats.getGroup(), stats.getCount(), stats.getP50(), stats.getP90(), stats.getP95(), stats.getP99())))
+                .verifyComplete();
+
+        assertEquals(new Document("price", 1), prices.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT).get(2).get("$sort"));
+    }
+
+    private static Document price(String group, double price) {
+        return new Document("price", price).append("group", group);
+    }
+}
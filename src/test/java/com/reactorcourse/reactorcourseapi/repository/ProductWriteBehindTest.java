@@ -0,0 +1,185 @@
+package com.reactorcourse.reactorcourseapi.repository;
+
+import com.reactorcourse.reactorcourseapi.model.Product;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductWriteBehindTest {
+
+    private List<Product> written;
+
+    private MeterRegistry meterRegistry;
+
+    private Product stored;
+
+    @BeforeEach
+    void setUp() {
+        written = new CopyOnWriteArrayList<>();
+        meterRegistry = new SimpleMeterRegistry();
+        stored = new Product("1", "Big Latte", 2.99);
+        stored.setVersion(3L);
+    }
+
+    @Test
+    void put_sameProduct_onlyLatestWritten() {
+        ProductWriteBehind writeBehind = writeBehind(Duration.ofMinutes(1), (id, product) -> {
+            written.add(product);
+            return Mono.just(product);
+        });
+
+        writeBehind.put("1", new Product(null, "Big Latte", 3.49), stored);
+        writeBehind.put("1", new Product(null, "Big Latte", 3.99), null);
+        Product latest = writeBehind.put("1", new Product(null, "Big Latte", 4.49), null);
+
+        assertEquals(4.49, latest.getPrice());
+        assertEquals(4L, latest.getVersion());
+        assertEquals(latest, writeBehind.get("1"));
+        assertTrue(written.isEmpty());
+
+        writeBehind.flushAll().block();
+
+        assertEquals(1, written.size());
+        assertEquals(latest, written.get(0));
+        assertNull(writeBehind.get("1"));
+        assertEquals(3, meterRegistry.get("product.writebehind.updates").counter().count());
+        assertEquals(1, meterRegistry.get("product.writebehind.writes").counter().count());
+        assertEquals(3, meterRegistry.get("product.writebehind.coalesce.ratio").gauge().value());
+        assertEquals(1, meterRegistry.get("product.writebehind.lag").timer().count());
+    }
+
+    @Test
+    void put_windowEnds_written() throws InterruptedException {
+        ProductWriteBehind writeBehind = writeBehind(Duration.ofMillis(20), (id, product) -> {
+            written.add(product);
+            return Mono.just(product);
+        });
+
+        writeBehind.put("1", new Product(null, "Big Latte", 3.49), stored);
+
+        for (int i = 0; i < 100 && written.isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, written.size());
+        assertEquals(0, meterRegistry.get("product.writebehind.pending").gauge().value());
+    }
+
+    @Test
+    void put_nothingBufferedAndNotStored_null() {
+        ProductWriteBehind writeBehind = writeBehind(Duration.ofMinutes(1), (id, product) -> Mono.just(product));
+
+        assertNull(writeBehind.put("1", new Product(null, "Big Latte", 3.49), null));
+        assertNull(writeBehind.get("1"));
+    }
+
+    @Test
+    void put_whileWriting_nextWriteWaits() {
+        MonoProcessor<Product> firstWrite = MonoProcessor.create();
+        ProductWriteBehind writeBehind = writeBehind(Duration.ofMinutes(1), (id, product) -> {
+            written.add(product);
+            return written.size() == 1 ? firstWrite : Mono.just(product);
+        });
+
+        Product first = writeBehind.put("1", new Product(null, "Big Latte", 3.49), stored);
+        writeBehind.flush("1").subscribe();
+        assertEquals(first, writeBehind.get("1")); // being written
+
+        Product second = writeBehind.put("1", new Product(null, "Big Latte", 3.99), null);
+        assertEquals(5L, second.getVersion());
+        assertEquals(second, writeBehind.get("1"));
+
+        MonoProcessor<Void> flushed = writeBehind.flushAll().toProcessor();
+        assertEquals(1, written.size());
+        assertFalse(flushed.isTerminated());
+
+        firstWrite.onNext(first);
+
+        assertTrue(flushed.isSuccess());
+        assertEquals(2, written.size());
+        assertEquals(second, written.get(1));
+    }
+
+    @Test
+    void flush_writeFailsOnce_retried() {
+        AtomicInteger attempts = new AtomicInteger();
+        ProductWriteBehind writeBehind = writeBehind(Duration.ofMinutes(1), (id, product) -> Mono.defer(() -> {
+            if (attempts.incrementAndGet() == 1) {
+                return Mono.error(new IllegalStateException("Mongo is gone"));
+            }
+            written.add(product);
+            return Mono.just(product);
+        }));
+
+        Product product = writeBehind.put("1", new Product(null, "Big Latte", 3.49), stored);
+        writeBehind.flushAll().block();
+
+        assertEquals(Collections.singletonList(product), written);
+        assertNull(writeBehind.get("1"));
+        assertEquals(0, meterRegistry.get("product.writebehind.failures").counter().count());
+    }
+
+    @Test
+    void flush_writeKeepsFailing_bufferedAgain() {
+        AtomicInteger attempts = new AtomicInteger();
+        ProductWriteBehind writeBehind = writeBehind(Duration.ofMinutes(1),
+                (id, product) -> Mono.defer(() -> {
+                    attempts.incrementAndGet();
+                    return Mono.error(new IllegalStateException("Mongo is gone"));
+                }));
+
+        Product product = writeBehind.put("1", new Product(null, "Big Latte", 3.49), stored);
+        writeBehind.flushAll().block();
+
+        assertEquals(3, attempts.get());
+        assertEquals(product, writeBehind.get("1"));
+        assertEquals(1, meterRegistry.get("product.writebehind.failures").counter().count());
+        assertEquals(0, meterRegistry.get("product.writebehind.writes").counter().count());
+        assertEquals(1, meterRegistry.get("product.writebehind.pending").gauge().value());
+    }
+
+    @Test
+    void flush_writeFailsAfterDiscard_notBufferedAgain() {
+        MonoProcessor<Product> write = MonoProcessor.create();
+        ProductWriteBehind writeBehind = writeBehind(Duration.ofMinutes(1), (id, product) -> write);
+
+        writeBehind.put("1", new Product(null, "Big Latte", 3.49), stored);
+        MonoProcessor<Void> flushed = writeBehind.flush("1").toProcessor();
+        writeBehind.discard("1");
+        write.onError(new IllegalStateException("Mongo is gone"));
+        flushed.block();
+
+        assertNull(writeBehind.get("1"));
+        assertEquals(1, meterRegistry.get("product.writebehind.failures").counter().count());
+    }
+
+    @Test
+    void discard_notWritten() {
+        ProductWriteBehind writeBehind = writeBehind(Duration.ofMinutes(1), (id, product) -> {
+            written.add(product);
+            return Mono.just(product);
+        });
+
+        writeBehind.put("1", new Product(null, "Big Latte", 3.49), stored);
+        writeBehind.discard("1");
+        writeBehind.flushAll().block();
+
+        assertNull(writeBehind.get("1"));
+        assertTrue(written.isEmpty());
+    }
+
+    private ProductWriteBehind writeBehind(Duration window, BiFunction<String, Product, Mono<Product>> writer) {
+        return new ProductWriteBehind(window, writer, meterRegistry);
+    }
+}
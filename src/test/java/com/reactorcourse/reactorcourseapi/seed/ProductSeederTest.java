@@ -0,0 +1,184 @@
+package com.reactorcourse.reactorcourseapi.seed;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactorcourse.reactorcourseapi.model.Product;
+import com.reactorcourse.reactorcourseapi.repository.ProductIndexInitializer;
+import com.reactorcourse.reactorcourseapi.repository.ProductRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.ReactiveIndexOperations;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.Mockito.*;
+
+class ProductSeederTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ProductRepository repository;
+
+    private ReactiveMongoOperations mongoOperations;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(ProductRepository.class);
+        mongoOperations = mock(ReactiveMongoOperations.class);
+        when(repository.insert(anyIterable())).thenAnswer(invocation -> Flux.fromIterable(invocation.getArgument(0)));
+    }
+
+    @Test
+    void products_csv() throws IOException {
+        Path file = write("products.csv", "id,name,price", "1,Big Latte,2.99", "", ",\"Tea, green\",1.99",
+                "3,\"Chai\nwith milk\",3.49", "4,\"The \"\"Flat\"\" White\",3.19");
+
+        StepVerifier.create(seeder(file, false, 10, 16).products(file))
+                .expectNext(new Product("1", "Big Latte", 2.99))
+                .expectNext(new Product(null, "Tea, green", 1.99))
+                .expectNext(new Product("3", "Chai\nwith milk", 3.49))
+                .expectNext(new Product("4", "The \"Flat\" White", 3.19))
+                .verifyComplete();
+    }
+
+    @Test
+    void products_ndjson() throws IOException {
+        Path file = write("products.ndjson", "{\"id\":\"1\",\"name\":\"Big Latte\",\"price\":2.99}",
+                "{\"name\":\"Green Tea\",\"price\":1.99}");
+
+        StepVerifier.create(seeder(file, false, 10, 16).products(file))
+                .expectNext(new Product("1", "Big Latte", 2.99))
+                .expectNext(new Product(null, "Green Tea", 1.99))
+                .verifyComplete();
+    }
+
+    @Test
+    void products_invalidLine_error() throws IOException {
+        Path file = write("products.ndjson", "{\"name\":\"Green Tea\",\"price\":1.99}", "not json");
+
+        StepVerifier.create(seeder(file, false, 10, 16).products(file))
+                .expectNextCount(1)
+                .verifyError(IllegalArgumentException.class);
+    }
+
+    @Test
+    void products_invalidCsvRow_error() throws IOException {
+        Path file = write("products.csv", "name,price", "Big Latte,2.99", "Green Tea,cheap");
+
+        StepVerifier.create(seeder(file, false, 10, 16).products(file))
+                .expectNextCount(1)
+                .verifyError(IllegalArgumentException.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void seed_insertsInBatches() throws IOException {
+        List<String> lines = IntStream.rangeClosed(1, 25)
+                .mapToObj(i -> "{\"name\":\"Product " + i + "\",\"price\":" + i + "}")
+                .collect(Collectors.toList());
+        Path file = write("products.ndjson", lines.toArray(new String[0]));
+        ProductSeeder seeder = seeder(file, false, 10, 64);
+
+        assertTrue(seeder.isSeeding());
+        StepVerifier.create(seeder.seed())
+                .expectNext(25L)
+                .verifyComplete();
+        assertFalse(seeder.isSeeding());
+
+        ArgumentCaptor<Iterable<Product>> batches = ArgumentCaptor.forClass(Iterable.class);
+        verify(repository, times(3)).insert(batches.capture());
+        assertEquals(Arrays.asList(10, 10, 5), batches.getAllValues().stream()
+                .map(batch -> ((List<Product>) batch).size())
+                .collect(Collectors.toList()));
+        verifyNoInteractions(mongoOperations);
+    }
+
+    @Test
+    void seed_dropCollection_recreatedBeforeInsert() throws IOException {
+        Path file = write("products.csv", "name,price", "Big Latte,2.99");
+        when(mongoOperations.dropCollection(Product.class)).thenReturn(Mono.empty());
+        when(mongoOperations.createCollection(Product.class)).thenReturn(Mono.empty());
+
+        StepVerifier.create(seeder(file, true, 10, 16).seed())
+                .expectNext(1L)
+                .verifyComplete();
+
+        verify(mongoOperations).dropCollection(Product.class);
+        verify(mongoOperations).createCollection(Product.class);
+    }
+
+    @Test
+    void seed_dropCollection_indexesRecreated() throws IOException {
+        Path file = write("products.csv", "name,price", "Big Latte,2.99");
+        ///> Stands in for the collection's indexes: ensureIndex adds one, dropping the collection deletes them all
+        List<IndexInfo> indexes = new ArrayList<>();
+        ReactiveIndexOperations indexOperations = mock(ReactiveIndexOperations.class);
+        when(indexOperations.ensureIndex(any())).thenAnswer(invocation -> {
+            IndexDefinition index = invocation.getArgument(0);
+            String key = index.getIndexKeys().keySet().iterator().next();
+            indexes.add(new IndexInfo(Collections.singletonList(IndexField.create(key, Sort.Direction.ASC)), key,
+                    false, false, ""));
+            return Mono.just(key);
+        });
+        when(indexOperations.getIndexInfo()).thenAnswer(invocation -> Flux.fromIterable(new ArrayList<>(indexes)));
+        when(mongoOperations.indexOps(Product.class)).thenReturn(indexOperations);
+        when(mongoOperations.getCollectionName(Product.class)).thenReturn("product");
+        when(mongoOperations.dropCollection(Product.class)).thenReturn(Mono.fromRunnable(indexes::clear));
+        when(mongoOperations.createCollection(Product.class)).thenReturn(Mono.empty());
+
+        ProductIndexInitializer indexInitializer = new ProductIndexInitializer(mongoOperations, new MongoMappingContext());
+        indexInitializer.createIndexes();
+        ProductSeeder seeder = new ProductSeeder(repository, mongoOperations, indexInitializer, new ObjectMapper(),
+                Schedulers.boundedElastic(), file.toString(), true, 10, 2, 16);
+
+        StepVerifier.create(seeder.seed())
+                .expectNext(1L)
+                .verifyComplete();
+
+        StepVerifier.create(mongoOperations.indexOps(Product.class).getIndexInfo().map(IndexInfo::getName).sort())
+                .expectNext("name", "price")
+                .verifyComplete();
+    }
+
+    @Test
+    void isConfigured_noFile() {
+        ProductSeeder seeder = new ProductSeeder(repository, mongoOperations, null, new ObjectMapper(), Schedulers.boundedElastic(), "", false,
+                10, 1, 16);
+
+        assertFalse(seeder.isConfigured());
+        assertFalse(seeder.isSeeding());
+    }
+
+    ///> Small chunks so lines are split across reads
+    private ProductSeeder seeder(Path file, boolean dropCollection, int batchSize, int chunkSize) {
+        return new ProductSeeder(repository, mongoOperations, null, new ObjectMapper(), Schedulers.boundedElastic(),
+                file.toString(), dropCollection, batchSize, 2, chunkSize);
+    }
+
+    private Path write(String name, String... lines) throws IOException {
+        return Files.write(tempDir.resolve(name), Arrays.asList(lines));
+    }
+}
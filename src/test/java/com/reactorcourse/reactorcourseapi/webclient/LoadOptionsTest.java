@@ -0,0 +1,75 @@
+package com.reactorcourse.reactorcourseapi.webclient;
+
+import com.reactorcourse.reactorcourseapi.config.CodecConfig;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadOptionsTest {
+
+    @Test
+    void parse_noArguments_defaults() {
+        LoadOptions options = LoadOptions.parse();
+
+        assertEquals(WebClientAPI.DEFAULT_BASE_URL, options.getBaseUrl());
+        assertEquals(0, options.getRps());
+        assertEquals(16, options.getConcurrency());
+        assertEquals(100, options.getTotalWeight());
+        assertEquals(16, options.getMaxConnections());
+        assertEquals(MediaType.APPLICATION_JSON, options.getMediaType());
+    }
+
+    @Test
+    void parse_allOptions() {
+        LoadOptions options = LoadOptions.parse("--base-url=http://localhost:9090/functional-products", "--rps=500",
+                "--concurrency=32", "--mix=read:70,write:25,sse:5", "--warmup=5s", "--duration=2m", "--seed=10",
+                "--sse-timeout=500ms", "--codec=smile");
+
+        assertEquals("http://localhost:9090/functional-products", options.getBaseUrl());
+        assertEquals(500, options.getRps());
+        assertEquals(32, options.getConcurrency());
+        assertEquals(70, options.getReadWeight());
+        assertEquals(25, options.getWriteWeight());
+        assertEquals(5, options.getSseWeight());
+        assertEquals(Duration.ofSeconds(5), options.getWarmup());
+        assertEquals(Duration.ofMinutes(2), options.getDuration());
+        assertEquals(10, options.getSeed());
+        assertEquals(Duration.ofMillis(500), options.getSseTimeout());
+        assertEquals(CodecConfig.APPLICATION_SMILE, options.getMediaType());
+        assertEquals(64, options.getMaxConnections());
+    }
+
+    @Test
+    void parse_clientOptions() {
+        WebClientOptions clientOptions = LoadOptions.parse("--retries=2", "--hedge-delay=20ms", "--codec=cbor")
+                .getClientOptions();
+
+        assertEquals(2, clientOptions.getMaxRetries());
+        assertEquals(Duration.ofMillis(20), clientOptions.getHedgeDelay());
+        assertEquals(MediaType.APPLICATION_CBOR, clientOptions.getMediaType());
+        assertEquals(0, LoadOptions.parse().getClientOptions().getMaxRetries());
+    }
+
+    @Test
+    void parse_mix_missingOperationsWeighZero() {
+        LoadOptions options = LoadOptions.parse("--mix=write:1");
+
+        assertEquals(0, options.getReadWeight());
+        assertEquals(1, options.getWriteWeight());
+        assertEquals(0, options.getSseWeight());
+    }
+
+    @Test
+    void parse_invalid() {
+        assertThrows(IllegalArgumentException.class, () -> LoadOptions.parse("--unknown=1"));
+        assertThrows(IllegalArgumentException.class, () -> LoadOptions.parse("rps=1"));
+        assertThrows(IllegalArgumentException.class, () -> LoadOptions.parse("--mix=read:0"));
+        assertThrows(IllegalArgumentException.class, () -> LoadOptions.parse("--mix=scan:10"));
+        assertThrows(IllegalArgumentException.class, () -> LoadOptions.parse("--concurrency=0"));
+        assertThrows(IllegalArgumentException.class, () -> LoadOptions.parse("--codec=xml"));
+        assertThrows(IllegalArgumentException.class, () -> LoadOptions.parse("--retries=-1"));
+    }
+}
@@ -0,0 +1,111 @@
+package com.reactorcourse.reactorcourseapi.webclient;
+
+import com.reactorcourse.reactorcourseapi.model.Product;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.NettyOutbound;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerResponse;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Retries and hedging against a bare Reactor Netty server whose answers depend on the attempt.
+ */
+
+class WebClientAPITest {
+
+    private static final String PRODUCT = "{\"id\":\"1\",\"name\":\"Big Latte\",\"price\":2.99}";
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private DisposableServer server;
+
+    private WebClientAPI webClientAPI;
+
+    @AfterEach
+    void tearDown() {
+        webClientAPI.dispose();
+        server.disposeNow();
+    }
+
+    @Test
+    void getProduct_serverError_retried() {
+        start((attempt, response) -> attempt == 1
+                ? response.status(503).send()
+                : json(response, PRODUCT), new WebClientOptions().maxRetries(2).retryBackoff(Duration.ofMillis(10)));
+
+        StepVerifier.create(webClientAPI.getProduct("1"))
+                .assertNext(product -> assertEquals("Big Latte", product.getName()))
+                .verifyComplete();
+        assertEquals(2, requests.get());
+        assertEquals(1, webClientAPI.getRetries());
+    }
+
+    @Test
+    void getProduct_notFound_notRetried() {
+        start((attempt, response) -> response.status(404).send(), new WebClientOptions().maxRetries(2));
+
+        StepVerifier.create(webClientAPI.getProduct("1"))
+                .verifyError(WebClientResponseException.NotFound.class);
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    void getProduct_retriesExhausted_lastErrorPropagated() {
+        start((attempt, response) -> response.status(500).send(),
+                new WebClientOptions().maxRetries(1).retryBackoff(Duration.ofMillis(10)));
+
+        StepVerifier.create(webClientAPI.getProduct("1"))
+                .verifyError(WebClientResponseException.InternalServerError.class);
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    void getProduct_slowResponse_hedged() {
+        start((attempt, response) -> attempt == 1
+                ? Mono.delay(Duration.ofSeconds(2)).then(json(response, PRODUCT).then())
+                : json(response, PRODUCT), new WebClientOptions().hedgeDelay(Duration.ofMillis(50)));
+
+        StepVerifier.create(webClientAPI.getProduct("1"))
+                .expectNextCount(1)
+                .expectComplete()
+                .verify(Duration.ofSeconds(1));
+        assertEquals(1, webClientAPI.getHedges());
+    }
+
+    @Test
+    void postNewProduct_timeout_notRetried() throws InterruptedException {
+        start((attempt, response) -> Mono.delay(Duration.ofSeconds(2)).then(json(response, PRODUCT).then()),
+                new WebClientOptions().responseTimeout(Duration.ofMillis(100)).maxRetries(2).retryBackoff(Duration.ofMillis(10)));
+
+        StepVerifier.create(webClientAPI.postNewProduct(new Product(null, "Black Tea", 1.99)))
+                .verifyError(TimeoutException.class);
+
+        Thread.sleep(200); // a retry would have gone out by now
+        assertTrue(requests.get() <= 1); // 0 when the timeout hit before the request reached the server
+    }
+
+    private void start(BiFunction<Integer, HttpServerResponse, ? extends Publisher<Void>> handler,
+                       WebClientOptions options) {
+        server = HttpServer.create()
+                .port(0)
+                .handle((request, response) -> handler.apply(requests.incrementAndGet(), response))
+                .bindNow();
+        webClientAPI = new WebClientAPI(options.baseUrl("http://localhost:" + server.port() + "/products").metrics(false));
+    }
+
+    private static NettyOutbound json(HttpServerResponse response, String body) {
+        return response.header("Content-Type", "application/json").sendString(Mono.just(body));
+    }
+}